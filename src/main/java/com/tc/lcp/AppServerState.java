@@ -0,0 +1,39 @@
+/*
+ * Copyright Terracotta, Inc.
+ * Copyright Super iPaaS Integration LLC, an IBM Company 2024
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.tc.lcp;
+
+/**
+ * Lifecycle of an app server started through {@link CargoLinkedChildProcess}, as reported over the heartbeat.
+ *
+ * @see ChildHandle#awaitAppServerReady(long)
+ */
+public enum AppServerState {
+  /**
+   * The JVM is up and the server's main is being loaded or run.
+   */
+  STARTING,
+
+  /**
+   * The server accepts requests.
+   */
+  READY,
+
+  /**
+   * The JVM is shutting down.
+   */
+  STOPPING
+}
@@ -19,28 +19,43 @@ package com.tc.lcp;
 import java.io.File;
 import java.io.FileInputStream;
 import java.io.IOException;
-import java.lang.reflect.Method;
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.net.InetSocketAddress;
+import java.net.Socket;
 import java.util.Enumeration;
 import java.util.Properties;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.FutureTask;
 
 
 /**
  * This class serves three purposes. It delegates to {@link HeartBeatService} to page the parent process.
  * And it loads a properties file which was written by the parent process (in the same directory as the log) and sets
  * all name value pairs as system properties for the appserver's JVM. This makes these available to servlets running in
- * the container.
+ * the container. And it reports the app server's {@link AppServerState} to the parent.
+ * <p>
+ * Registering and loading the properties happen on background threads while the server class loads. The class is
+ * only initialized once the properties are set, since its static initializers may read them. The server is reported
+ * {@link AppServerState#READY} as soon as the port named by the <code>com.tc.lcp.cargo.ready.port</code> property
+ * accepts connections, or when code in the container calls {@link HeartBeatService#reportAppServerState}, and
+ * {@link AppServerState#STOPPING} when the JVM shuts down.
  */
 public final class CargoLinkedChildProcess {
+  public static final String READY_PORT_PROPERTY = "com.tc.lcp.cargo.ready.port";
 
-  private static File instanceDir;
+  private static final long  READY_PROBE_MILLIS  = 100;
+
+  private static File        instanceDir;
 
   private CargoLinkedChildProcess() {
     // cannot instantiate
   }
 
   public static void main(String[] args) throws Exception {
-    String className = args[0];
-    int port = Integer.parseInt(args[1]);
+    final String className = args[0];
+    final int port = Integer.parseInt(args[1]);
     instanceDir = new File(args[2]);
 
     String[] serverArgs = new String[0];
@@ -53,28 +68,99 @@ public final class CargoLinkedChildProcess {
 
     System.out.println("JAVA VERSION: " + System.getProperty("java.version"));
 
-    HeartBeatService.registerForHeartBeat(port, className, true);
-    loadProperties();
+    HeartBeatService.reportAppServerState(AppServerState.STARTING);
+    LcpThreads.start("CargoLinkedChildProcess registration", new Runnable() {
+      public void run() {
+        LinkedJavaProcessStarter.registerWithRetry(port, className, true);
+      }
+    });
+    FutureTask<Void> properties = new FutureTask<Void>(new Runnable() {
+      public void run() {
+        loadProperties();
+      }
+    }, null);
+    LcpThreads.start("CargoLinkedChildProcess properties", properties);
 
     try {
-      Class startServer = Class.forName(className);
-      Method main = startServer.getMethod("main", new Class[] { String[].class });
-      main.invoke(null, new Object[] { serverArgs });
-
+      Class<?> startServer = Class.forName(className, false, CargoLinkedChildProcess.class.getClassLoader());
+      MethodHandle main = MethodHandles.publicLookup()
+          .findStatic(startServer, "main", MethodType.methodType(void.class, String[].class));
+      awaitProperties(properties);
+      reportStopping();
+      probeReadyPort();
+      main.invokeExact(serverArgs);
     } catch (ClassNotFoundException cnfe) {
       System.err.println("unable to locate server class: " + className);
       cnfe.printStackTrace();
     } catch (NoSuchMethodException nsme) {
       System.err.println("unable to access method: main()");
       nsme.printStackTrace();
+    } catch (Throwable t) {
+      // invokeExact declares Throwable
+      if (t instanceof Exception) throw (Exception) t;
+      if (t instanceof Error) throw (Error) t;
+      throw new RuntimeException(t);
+    }
+  }
+
+  private static void awaitProperties(FutureTask<Void> properties) throws InterruptedException {
+    try {
+      properties.get();
+    } catch (ExecutionException e) {
+      Throwable cause = e.getCause();
+      if (cause instanceof RuntimeException) throw (RuntimeException) cause;
+      if (cause instanceof Error) throw (Error) cause;
+      throw new RuntimeException(cause);
     }
   }
 
+  private static void reportStopping() {
+    Runtime.getRuntime().addShutdownHook(new Thread("CargoLinkedChildProcess shutdown") {
+      @Override
+      public void run() {
+        HeartBeatService.reportAppServerState(AppServerState.STOPPING);
+      }
+    });
+  }
+
+  private static void probeReadyPort() {
+    final Integer readyPort = Integer.getInteger(READY_PORT_PROPERTY);
+    if (readyPort == null) return;
+    LcpThreads.start("CargoLinkedChildProcess ready probe", new Runnable() {
+      public void run() {
+        // gives up once the container reported a state itself
+        while (HeartBeatService.appServerState() == AppServerState.STARTING) {
+          Socket socket = new Socket();
+          try {
+            socket.connect(new InetSocketAddress("localhost", readyPort), (int) READY_PROBE_MILLIS);
+            HeartBeatService.reportAppServerState(AppServerState.READY);
+            return;
+          } catch (IOException e) {
+            // not listening yet
+          } finally {
+            try {
+              socket.close();
+            } catch (IOException e) {
+              // ignored
+            }
+          }
+          HeartBeatServer.reallySleep(READY_PROBE_MILLIS);
+        }
+      }
+    });
+  }
+
   private static void loadProperties() {
     File sandbox = instanceDir.getParentFile();
     Properties props = new Properties();
     try {
-      props.load(new FileInputStream(new File(sandbox + File.separator + instanceDir.getName() + ".properties")));
+      FileInputStream in = new FileInputStream(new File(sandbox + File.separator + instanceDir.getName()
+                                                        + ".properties"));
+      try {
+        props.load(in);
+      } finally {
+        in.close();
+      }
     } catch (IOException ioe) {
       throw new RuntimeException("Unable to load properties file: " + sandbox + File.separator + instanceDir.getName()
                                  + ".properties");
@@ -0,0 +1,150 @@
+/*
+ * Copyright Terracotta, Inc.
+ * Copyright Super iPaaS Integration LLC, an IBM Company 2024
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.tc.lcp;
+
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * The environment of a child process, kept as a set of changes against this JVM's environment rather than as a full
+ * copy of it. The base is <code>System.getenv()</code>, which is immutable and read once per JVM. Starting a child
+ * still copies the base once, into the environment of its {@link ProcessBuilder}, but no second copy is built to
+ * merge the overrides into.
+ * <p>
+ * After {@link #clear()} the base is dropped and the child gets nothing but the variables set afterwards.
+ */
+public final class ChildEnvironment {
+  private static final Map<String, String> BASE = System.getenv();
+
+  // a null value means the variable is removed from the base
+  private final Map<String, String>        overrides;
+  private boolean                          inheritBase;
+
+  private ChildEnvironment(boolean inheritBase, Map<String, String> overrides) {
+    this.inheritBase = inheritBase;
+    this.overrides = overrides;
+  }
+
+  /**
+   * This JVM's environment, unchanged until overrides are added.
+   */
+  public static ChildEnvironment inherit() {
+    return new ChildEnvironment(true, new LinkedHashMap<String, String>(4));
+  }
+
+  /**
+   * An environment without any variables.
+   */
+  public static ChildEnvironment empty() {
+    return inherit().clear();
+  }
+
+  public ChildEnvironment copy() {
+    return new ChildEnvironment(inheritBase, new LinkedHashMap<String, String>(overrides));
+  }
+
+  public ChildEnvironment set(String name, String value) {
+    checkName(name);
+    if (value == null) throw new NullPointerException("value of " + name);
+    if (value.indexOf('\u0000') >= 0) throw new IllegalArgumentException("NUL in the value of " + name);
+    overrides.put(name, value);
+    return this;
+  }
+
+  /**
+   * Parses and sets a <code>NAME=VALUE</code> entry. The value may be empty and may itself contain <code>=</code>.
+   */
+  public ChildEnvironment set(String entry) {
+    int eq = entry.indexOf('=', 1);
+    if (eq < 0) throw new IllegalArgumentException("Environment entry is not of the form NAME=VALUE: [" + entry + "]");
+    return set(entry.substring(0, eq), entry.substring(eq + 1));
+  }
+
+  public ChildEnvironment setAll(List<String> entries) {
+    for (String entry : entries) {
+      set(entry);
+    }
+    return this;
+  }
+
+  /**
+   * Removes a variable, whether it came from this JVM's environment or was set earlier.
+   */
+  public ChildEnvironment unset(String name) {
+    checkName(name);
+    if (inheritBase) {
+      overrides.put(name, null);
+    } else {
+      overrides.remove(name);
+    }
+    return this;
+  }
+
+  /**
+   * Drops every variable, inherited or set so far.
+   */
+  public ChildEnvironment clear() {
+    inheritBase = false;
+    overrides.clear();
+    return this;
+  }
+
+  public boolean inheritsBase() {
+    return inheritBase;
+  }
+
+  /**
+   * The changes to apply on top of the base; <code>null</code> values are removals.
+   */
+  public Map<String, String> overrides() {
+    return Collections.unmodifiableMap(overrides);
+  }
+
+  public String get(String name) {
+    if (overrides.containsKey(name)) return overrides.get(name);
+    return inheritBase ? BASE.get(name) : null;
+  }
+
+  /**
+   * Materializes the whole environment. Only meant for inspection, launching a child does not need it.
+   */
+  public Map<String, String> toMap() {
+    Map<String, String> rv = inheritBase ? new HashMap<String, String>(BASE) : new HashMap<String, String>();
+    for (Map.Entry<String, String> entry : overrides.entrySet()) {
+      if (entry.getValue() == null) {
+        rv.remove(entry.getKey());
+      } else {
+        rv.put(entry.getKey(), entry.getValue());
+      }
+    }
+    return rv;
+  }
+
+  private static void checkName(String name) {
+    if (name == null || name.length() == 0 || name.indexOf('=') >= 0 || name.indexOf('\u0000') >= 0) {
+      throw new IllegalArgumentException("Invalid environment variable name: [" + name + "]");
+    }
+  }
+
+  @Override
+  public String toString() {
+    return (inheritBase ? "inherited" : "empty") + " environment with " + overrides;
+  }
+}
@@ -0,0 +1,89 @@
+/*
+ * Copyright Terracotta, Inc.
+ * Copyright Super iPaaS Integration LLC, an IBM Company 2024
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.tc.lcp;
+
+import java.io.IOException;
+
+/**
+ * The parent's handle on one heartbeat-linked child. Handles are keyed by the <code>clientName:port</code> identity the
+ * child introduces itself with and go through the heartbeat connection, so killing a child this way is the same
+ * graceful <code>KILL</code> that {@link HeartBeatService#sendKillSignalToChildren()} sends, just targeted.
+ *
+ * @see HeartBeatService#children()
+ * @see LinkedJavaProcess#getHeartBeatHandle(long)
+ */
+public interface ChildHandle {
+
+  /**
+   * The <code>clientName:port</code> identity.
+   */
+  String getClientId();
+
+  /**
+   * The name the child registered with, usually its main class.
+   */
+  String getClientName();
+
+  /**
+   * The child's process id, or -1 if it hasn't reported it (yet).
+   */
+  long getPid();
+
+  ClientHealth getHealth();
+
+  boolean isConnected();
+
+  /**
+   * Round trip time of the last answered pulse, or -1 if none has been answered yet.
+   */
+  long getPulseLatencyMillis();
+
+  /**
+   * Sends a ping and waits for the answer.
+   *
+   * @return the round trip time in milliseconds, or -1 if the child didn't answer within the timeout or runs an lcp
+   *         too old to answer pings
+   */
+  long ping(long timeoutMillis) throws InterruptedException;
+
+  /**
+   * Runs one of the {@link DiagnosticCommands}, or a command the child registered itself, and returns its output.
+   *
+   * @throws IOException if the command failed, or the child runs an lcp too old to run diagnostics
+   */
+  String runDiagnostic(String command, String args, long timeoutMillis) throws IOException, InterruptedException;
+
+  /**
+   * The lifecycle state last reported by an app server child, or <code>null</code> if it reported none.
+   */
+  AppServerState getAppServerState();
+
+  /**
+   * Waits for the child to report {@link AppServerState#READY}. The report is pushed by the child, so this blocks
+   * without asking the child anything.
+   *
+   * @return <code>false</code> if the child didn't get ready in time, or stopped or died first
+   */
+  boolean awaitAppServerReady(long timeoutMillis) throws InterruptedException;
+
+  /**
+   * Sends <code>KILL</code> to this child only.
+   *
+   * @return <code>false</code> if the child was no longer connected
+   */
+  boolean kill();
+}
@@ -0,0 +1,277 @@
+/*
+ * Copyright Terracotta, Inc.
+ * Copyright Super iPaaS Integration LLC, an IBM Company 2024
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.tc.lcp;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.ArrayDeque;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Non-blocking front end for a child's <code>stdin</code> pipe. Writes go into a bounded queue and return at once; a
+ * writer thread borrowed from a pool shared by all children drains the queue, coalescing small writes into one pipe
+ * write and a single flush. When the child stops reading, the queue fills up and {@link #write} waits at most its
+ * timeout for room instead of blocking forever in the pipe.
+ * <p>
+ * A pipe write itself can't be timed out, and closing the pipe doesn't release a thread blocked writing to it. So when
+ * a write has been stuck for the {@link #setWriteTimeout(long, TimeUnit) write timeout}, this stream fails: queued
+ * data is dropped, writers get an {@link IOException} and {@link #close()} completes exceptionally. The blocked writer
+ * thread itself is released, and the pipe closed, once the child reads or exits.
+ */
+public class ChildStdin {
+  public static final int               DEFAULT_CAPACITY      = 64 * 1024;
+  public static final long              DEFAULT_WRITE_TIMEOUT = 30 * 1000;
+  private static final int              MAX_BATCH             = 64 * 1024;
+
+  private static final ExecutorService  WRITERS          = Executors.newCachedThreadPool(new ThreadFactory() {
+                                                           public Thread newThread(Runnable r) {
+                                                             return LcpThreads.newThread("Child Stdin Writer", r);
+                                                           }
+                                                         });
+  // fails a stdin whose write to the pipe is stuck
+  private static final ScheduledThreadPoolExecutor WATCHDOG = new ScheduledThreadPoolExecutor(1, new ThreadFactory() {
+                                                           public Thread newThread(Runnable r) {
+                                                             return LcpThreads.newThread("Child Stdin Watchdog", r);
+                                                           }
+                                                         });
+
+  static {
+    WATCHDOG.setRemoveOnCancelPolicy(true);
+  }
+
+  private final OutputStream            out;
+  private final int                     capacity;
+  private final ArrayDeque<byte[]>      queue            = new ArrayDeque<byte[]>();
+  private final CompletableFuture<Void> closed           = new CompletableFuture<Void>();
+  // not a monitor: writers wait for room while holding it, which would pin a virtual thread's carrier
+  private final ReentrantLock           lock             = new ReentrantLock();
+  private final Condition               drained          = lock.newCondition();
+  private int                           queuedBytes;
+  private boolean                       draining;
+  private boolean                       closing;
+  private IOException                   failure;
+  private volatile long                 writeTimeoutNanos = TimeUnit.MILLISECONDS.toNanos(DEFAULT_WRITE_TIMEOUT);
+
+  ChildStdin(OutputStream out, int capacity) {
+    if (capacity <= 0) throw new IllegalArgumentException("capacity: " + capacity);
+    this.out = out;
+    this.capacity = capacity;
+  }
+
+  /**
+   * Queues <code>data</code> for the child, waiting up to <code>timeout</code> for room in the queue. A write larger
+   * than the capacity is accepted once the queue is empty.
+   *
+   * @throws TimeoutException if the child did not read enough in time
+   * @throws IOException if the stream was closed or an earlier write to the pipe failed
+   */
+  public void write(byte[] data, long timeout, TimeUnit unit) throws IOException, InterruptedException,
+      TimeoutException {
+    if (data.length == 0) return;
+    byte[] copy = data.clone();
+    long deadline = System.nanoTime() + unit.toNanos(timeout);
+    lock.lock();
+    try {
+      while (true) {
+        checkOpen();
+        if (queuedBytes == 0 || queuedBytes + copy.length <= capacity) break;
+        long remaining = deadline - System.nanoTime();
+        if (remaining <= 0) {
+          throw new TimeoutException("Child stdin full (" + queuedBytes + " bytes queued) after " + timeout + " " + unit);
+        }
+        drained.awaitNanos(remaining);
+      }
+      queue.add(copy);
+      queuedBytes += copy.length;
+      scheduleDrain();
+    } finally {
+      lock.unlock();
+    }
+  }
+
+  public void write(String text, long timeout, TimeUnit unit) throws IOException, InterruptedException,
+      TimeoutException {
+    write(text.getBytes(), timeout, unit);
+  }
+
+  /**
+   * How long a single write to the pipe may block before the child is considered to have stopped reading, see above.
+   * Defaults to {@link #DEFAULT_WRITE_TIMEOUT} milliseconds.
+   */
+  public void setWriteTimeout(long timeout, TimeUnit unit) {
+    if (timeout <= 0) throw new IllegalArgumentException("timeout: " + timeout);
+    writeTimeoutNanos = unit.toNanos(timeout);
+  }
+
+  /**
+   * Bytes accepted but not yet written to the pipe.
+   */
+  public int queuedBytes() {
+    lock.lock();
+    try {
+      return queuedBytes;
+    } finally {
+      lock.unlock();
+    }
+  }
+
+  /**
+   * Closes the pipe once everything queued so far has been written. The future completes when that happened, or
+   * exceptionally if writing failed.
+   */
+  public CompletableFuture<Void> close() {
+    lock.lock();
+    try {
+      if (!closing) {
+        closing = true;
+        if (failure == null) scheduleDrain();
+      }
+      return closed;
+    } finally {
+      lock.unlock();
+    }
+  }
+
+  private void checkOpen() throws IOException {
+    if (failure != null) throw new IOException("Writing to child stdin failed", failure);
+    if (closing) throw new IOException("Child stdin is closed");
+  }
+
+  private void scheduleDrain() {
+    if (!draining) {
+      draining = true;
+      WRITERS.execute(new Runnable() {
+        public void run() {
+          drain();
+        }
+      });
+    }
+  }
+
+  private void drain() {
+    while (true) {
+      byte[] batch;
+      lock.lock();
+      try {
+        if (failure != null) {
+          // failed by the watchdog while this thread was blocked in the pipe
+          draining = false;
+          closeQuietly();
+          return;
+        }
+        batch = nextBatch();
+        if (batch == null) {
+          draining = false;
+          if (!closing) return;
+        }
+      } finally {
+        lock.unlock();
+      }
+      ScheduledFuture<?> watchdog = null;
+      try {
+        if (batch == null) {
+          out.close();
+          closed.complete(null);
+          return;
+        }
+        watchdog = WATCHDOG.schedule(new Runnable() {
+          public void run() {
+            fail(new IOException("Child stopped reading stdin, a write has been blocked for "
+                                 + TimeUnit.NANOSECONDS.toMillis(writeTimeoutNanos) + "ms"));
+          }
+        }, writeTimeoutNanos, TimeUnit.NANOSECONDS);
+        out.write(batch);
+        out.flush();
+      } catch (IOException e) {
+        fail(e);
+        lock.lock();
+        try {
+          draining = false;
+        } finally {
+          lock.unlock();
+        }
+        closeQuietly();
+        return;
+      } finally {
+        if (watchdog != null) watchdog.cancel(false);
+      }
+      lock.lock();
+      try {
+        if (failure == null) queuedBytes -= batch.length;
+        drained.signalAll();
+      } finally {
+        lock.unlock();
+      }
+    }
+  }
+
+  /**
+   * Drops what is queued and fails current and future writes; the first failure wins.
+   */
+  private void fail(IOException e) {
+    lock.lock();
+    try {
+      if (failure != null) return;
+      failure = e;
+      queue.clear();
+      queuedBytes = 0;
+      drained.signalAll();
+    } finally {
+      lock.unlock();
+    }
+    closed.completeExceptionally(e);
+  }
+
+  private void closeQuietly() {
+    try {
+      out.close();
+    } catch (IOException e) {
+      // already failed
+    }
+  }
+
+  /**
+   * Takes queued chunks up to {@link #MAX_BATCH} bytes (or a single bigger one) and joins them.
+   */
+  private byte[] nextBatch() {
+    byte[] first = queue.poll();
+    if (first == null || queue.isEmpty() || first.length + queue.peek().length > MAX_BATCH) return first;
+    int size = first.length;
+    for (byte[] chunk : queue) {
+      if (size + chunk.length > MAX_BATCH) break;
+      size += chunk.length;
+    }
+    byte[] batch = new byte[size];
+    System.arraycopy(first, 0, batch, 0, first.length);
+    int pos = first.length;
+    while (pos < size) {
+      byte[] chunk = queue.poll();
+      System.arraycopy(chunk, 0, batch, pos, chunk.length);
+      pos += chunk.length;
+    }
+    return batch;
+  }
+}
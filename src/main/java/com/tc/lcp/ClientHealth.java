@@ -0,0 +1,38 @@
+/*
+ * Copyright Terracotta, Inc.
+ * Copyright Super iPaaS Integration LLC, an IBM Company 2024
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.tc.lcp;
+
+/**
+ * Health of a heartbeat client as seen by its {@link HeartBeatServer}.
+ */
+public enum ClientHealth {
+  /** Answered the last pulse. */
+  HEALTHY,
+  /** Missed a single pulse. */
+  DEGRADED,
+  /** Missed several pulses in a row and will be considered dead at {@link HeartBeatServer#MISS_ALLOW}. */
+  SUSPECT,
+  /** Connection lost, or killed. */
+  DEAD;
+
+  static ClientHealth fromMissedPulses(int missed) {
+    if (missed <= 0) return HEALTHY;
+    if (missed == 1) return DEGRADED;
+    if (missed < HeartBeatServer.MISS_ALLOW) return SUSPECT;
+    return DEAD;
+  }
+}
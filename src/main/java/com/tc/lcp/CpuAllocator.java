@@ -0,0 +1,166 @@
+/*
+ * Copyright Terracotta, Inc.
+ * Copyright Super iPaaS Integration LLC, an IBM Company 2024
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.tc.lcp;
+
+import java.io.File;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.BitSet;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+
+/**
+ * Hands out disjoint sets of CPUs to the children of a test, so that they neither share cores nor migrate across them.
+ * A set is taken from a single NUMA node whenever one has enough free CPUs, and then also binds the child's memory to
+ * that node. Sets go back to the pool with {@link #release(CpuPlacement)}, which only takes placements handed out by
+ * this allocator and not yet released.
+ * <p>
+ * The pool defaults to the CPUs this JVM may run on and the topology to the one in
+ * <code>/sys/devices/system/node</code>; without those (not Linux) it is all available processors on one node.
+ */
+public final class CpuAllocator {
+  private static final File           NODES = new File("/sys/devices/system/node");
+
+  private final BitSet                managed;
+  private final BitSet                free;
+  private final Map<Integer, BitSet>  nodes;
+  private final Set<CpuPlacement>     allocated;
+
+  public CpuAllocator() {
+    this(allowedCpus());
+  }
+
+  /**
+   * A pool of the given CPUs only, e.g. to keep some for the test JVM itself.
+   */
+  public CpuAllocator(String cpuList) {
+    this(CpuPlacement.parseCpuList(cpuList));
+  }
+
+  private CpuAllocator(BitSet cpus) {
+    this.managed = cpus;
+    this.free = (BitSet) cpus.clone();
+    this.nodes = numaNodes(cpus);
+    this.allocated = Collections.newSetFromMap(new IdentityHashMap<CpuPlacement, Boolean>());
+  }
+
+  /**
+   * Takes <code>count</code> free CPUs, from one NUMA node if possible.
+   *
+   * @throws IllegalStateException if fewer CPUs are free
+   */
+  public synchronized CpuPlacement allocate(int count) {
+    if (count < 1) throw new IllegalArgumentException("count: " + count);
+    if (free.cardinality() < count) {
+      throw new IllegalStateException("Only " + free.cardinality() + " of " + managed.cardinality()
+                                      + " CPUs are free, " + count + " requested");
+    }
+    for (Map.Entry<Integer, BitSet> node : nodes.entrySet()) {
+      BitSet available = (BitSet) node.getValue().clone();
+      available.and(free);
+      if (available.cardinality() >= count) {
+        CpuPlacement placement = take(available, count);
+        // binding memory only matters when there is more than one node
+        return track(nodes.size() > 1 ? placement.onNumaNode(node.getKey()) : placement);
+      }
+    }
+    return track(take(free, count));
+  }
+
+  private CpuPlacement track(CpuPlacement placement) {
+    allocated.add(placement);
+    return placement;
+  }
+
+  private CpuPlacement take(BitSet from, int count) {
+    int[] cpus = new int[count];
+    int cpu = -1;
+    for (int i = 0; i < count; i++) {
+      cpu = from.nextSetBit(cpu + 1);
+      cpus[i] = cpu;
+    }
+    for (int c : cpus) {
+      free.clear(c);
+    }
+    return CpuPlacement.cpus(cpus);
+  }
+
+  /**
+   * Gives the CPUs of a placement returned by {@link #allocate(int)} back to the pool.
+   *
+   * @throws IllegalArgumentException if the placement wasn't allocated here or was released already
+   */
+  public synchronized void release(CpuPlacement placement) {
+    if (!allocated.remove(placement)) {
+      throw new IllegalArgumentException(placement + " is not allocated from " + this);
+    }
+    BitSet cpus = placement.cpuSet();
+    cpus.and(managed);
+    free.or(cpus);
+  }
+
+  public synchronized int getFreeCpus() {
+    return free.cardinality();
+  }
+
+  public int getNumaNodes() {
+    return nodes.size();
+  }
+
+  private static BitSet allowedCpus() {
+    try {
+      for (String line : Files.readAllLines(new File("/proc/self/status").toPath(), StandardCharsets.US_ASCII)) {
+        if (line.startsWith("Cpus_allowed_list:")) {
+          return CpuPlacement.parseCpuList(line.substring("Cpus_allowed_list:".length()));
+        }
+      }
+    } catch (Exception e) {
+      // not Linux
+    }
+    BitSet all = new BitSet();
+    all.set(0, Runtime.getRuntime().availableProcessors());
+    return all;
+  }
+
+  private static Map<Integer, BitSet> numaNodes(BitSet cpus) {
+    Map<Integer, BitSet> rv = new TreeMap<Integer, BitSet>();
+    File[] dirs = NODES.listFiles();
+    if (dirs != null) {
+      for (File dir : dirs) {
+        if (!dir.getName().matches("node\\d+")) continue;
+        try {
+          String cpuList = new String(Files.readAllBytes(new File(dir, "cpulist").toPath()), StandardCharsets.US_ASCII);
+          BitSet nodeCpus = CpuPlacement.parseCpuList(cpuList);
+          nodeCpus.and(cpus);
+          if (!nodeCpus.isEmpty()) rv.put(Integer.valueOf(dir.getName().substring(4)), nodeCpus);
+        } catch (Exception e) {
+          // skip this node
+        }
+      }
+    }
+    if (rv.isEmpty()) rv.put(0, (BitSet) cpus.clone());
+    return rv;
+  }
+
+  @Override
+  public synchronized String toString() {
+    return "CpuAllocator[free=" + free.cardinality() + "/" + managed.cardinality() + ", nodes=" + nodes.size() + "]";
+  }
+}
@@ -0,0 +1,169 @@
+/*
+ * Copyright Terracotta, Inc.
+ * Copyright Super iPaaS Integration LLC, an IBM Company 2024
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.tc.lcp;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Pins a child to a set of CPUs and/or a NUMA node on Linux. The child's command is prefixed with
+ * <code>numactl</code> when a node is given, with <code>taskset</code> otherwise. Elsewhere, or when the tool isn't
+ * installed, the child runs unpinned and a warning is logged.
+ *
+ * @see LinkedJavaProcess#setCpuPlacement(CpuPlacement)
+ * @see CpuAllocator
+ */
+public final class CpuPlacement {
+  private static final Log LOG = Log.getLogger(CpuPlacement.class);
+
+  private final BitSet     cpus;
+  private final int        numaNode;
+
+  private CpuPlacement(BitSet cpus, int numaNode) {
+    this.cpus = cpus;
+    this.numaNode = numaNode;
+  }
+
+  public static CpuPlacement cpus(int... cpuIds) {
+    BitSet set = new BitSet();
+    for (int cpu : cpuIds) {
+      if (cpu < 0) throw new IllegalArgumentException("cpu: " + cpu);
+      set.set(cpu);
+    }
+    return new CpuPlacement(set, -1);
+  }
+
+  /**
+   * Parses a Linux CPU list such as <code>0-3,8,10-11</code>.
+   */
+  public static CpuPlacement cpus(String cpuList) {
+    return new CpuPlacement(parseCpuList(cpuList), -1);
+  }
+
+  /**
+   * All CPUs of a NUMA node, with memory allocated on that node.
+   */
+  public static CpuPlacement numaNode(int node) {
+    if (node < 0) throw new IllegalArgumentException("node: " + node);
+    return new CpuPlacement(new BitSet(), node);
+  }
+
+  /**
+   * These CPUs, with memory allocated on the given node.
+   */
+  public CpuPlacement onNumaNode(int node) {
+    if (node < 0) throw new IllegalArgumentException("node: " + node);
+    return new CpuPlacement((BitSet) cpus.clone(), node);
+  }
+
+  public int getNumaNode() {
+    return numaNode;
+  }
+
+  public int getCpuCount() {
+    return cpus.cardinality();
+  }
+
+  BitSet cpuSet() {
+    return (BitSet) cpus.clone();
+  }
+
+  /**
+   * The CPUs in Linux CPU list format, empty if only a node was given.
+   */
+  public String getCpuList() {
+    StringBuilder sb = new StringBuilder();
+    for (int from = cpus.nextSetBit(0); from >= 0;) {
+      int to = cpus.nextClearBit(from) - 1;
+      if (sb.length() > 0) sb.append(',');
+      sb.append(from);
+      if (to > from) sb.append('-').append(to);
+      from = cpus.nextSetBit(to + 1);
+    }
+    return sb.toString();
+  }
+
+  /**
+   * The command to put in front of the <code>java</code> command, empty if the placement can't be applied here.
+   */
+  List<String> wrapper() {
+    List<String> rv = new ArrayList<String>();
+    if (numaNode >= 0) {
+      String numactl = findOnPath("numactl");
+      if (numactl != null) {
+        rv.add(numactl);
+        rv.add("--cpunodebind=" + numaNode);
+        rv.add("--membind=" + numaNode);
+        if (!cpus.isEmpty()) rv.add("--physcpubind=" + getCpuList());
+        return rv;
+      }
+      if (cpus.isEmpty()) {
+        LOG.warn("numactl not found, not placing the child on NUMA node {}", numaNode);
+        return Collections.emptyList();
+      }
+      LOG.warn("numactl not found, pinning the child to CPUs {} without binding it to NUMA node {}", getCpuList(),
+               numaNode);
+    }
+    if (cpus.isEmpty()) return Collections.emptyList();
+    String taskset = findOnPath("taskset");
+    if (taskset == null) {
+      LOG.warn("taskset not found, not pinning the child to CPUs {}", getCpuList());
+      return Collections.emptyList();
+    }
+    rv.add(taskset);
+    rv.add("-c");
+    rv.add(getCpuList());
+    return rv;
+  }
+
+  static BitSet parseCpuList(String cpuList) {
+    BitSet set = new BitSet();
+    for (String part : cpuList.trim().split(",")) {
+      part = part.trim();
+      if (part.length() == 0) continue;
+      try {
+        int dash = part.indexOf('-');
+        if (dash < 0) {
+          set.set(Integer.parseInt(part));
+        } else {
+          set.set(Integer.parseInt(part.substring(0, dash)), Integer.parseInt(part.substring(dash + 1)) + 1);
+        }
+      } catch (RuntimeException e) {
+        throw new IllegalArgumentException("Invalid CPU list: [" + cpuList + "]", e);
+      }
+    }
+    return set;
+  }
+
+  private static String findOnPath(String name) {
+    String path = System.getenv("PATH");
+    if (path == null || File.separatorChar != '/') return null;
+    for (String dir : path.split(File.pathSeparator)) {
+      File f = new File(dir, name);
+      if (f.isFile() && f.canExecute()) return f.getAbsolutePath();
+    }
+    return null;
+  }
+
+  @Override
+  public String toString() {
+    return "CpuPlacement[cpus=" + getCpuList() + (numaNode >= 0 ? ", node=" + numaNode : "") + "]";
+  }
+}
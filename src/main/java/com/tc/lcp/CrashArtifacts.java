@@ -0,0 +1,168 @@
+/*
+ * Copyright Terracotta, Inc.
+ * Copyright Super iPaaS Integration LLC, an IBM Company 2024
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.tc.lcp;
+
+import java.io.File;
+import java.io.FileFilter;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.io.StringWriter;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Date;
+import java.util.List;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipOutputStream;
+
+/**
+ * Collects what a crashing child JVM leaves behind. Each run gets its own directory below {@link #getDirectory()},
+ * named like the {@link FlightRecording} ones, and the child is told to write its <code>hs_err</code> log and any
+ * out-of-memory heap dump there. Once the child has exited, the files in it, core files and stray
+ * <code>hs_err</code> logs the run left in the working directory, plus the tails of its output are packed into
+ * {@link #ARCHIVE_FILE} with an {@link #INDEX_ENTRY} listing them. Archived files from the run directory are deleted;
+ * the ones found in the working directory are left alone, as they may belong to another child sharing it.
+ * <p>
+ * Files are streamed into the archive, so multi gigabyte heap dumps never pass through the parent's heap. A run that
+ * exits with code 0 and leaves nothing behind gets its directory removed.
+ */
+public class CrashArtifacts {
+  public static final String ARCHIVE_FILE          = "artifacts.zip";
+  public static final String INDEX_ENTRY           = "index.txt";
+  // file times may be coarser than the clock, or set by a slightly different one on a network file system
+  static final long          MTIME_SLACK           = 2000;
+
+  private File               directory;
+  private boolean            heapDumpOnOutOfMemory = true;
+  private boolean            collectCoreFiles      = true;
+
+  public File getDirectory() {
+    return directory;
+  }
+
+  /**
+   * Root under which the per-child artifact directories are created. Defaults to <code>artifacts</code> in the child's
+   * working directory.
+   */
+  public void setDirectory(File directory) {
+    this.directory = directory;
+  }
+
+  public boolean isHeapDumpOnOutOfMemory() {
+    return heapDumpOnOutOfMemory;
+  }
+
+  public void setHeapDumpOnOutOfMemory(boolean heapDumpOnOutOfMemory) {
+    this.heapDumpOnOutOfMemory = heapDumpOnOutOfMemory;
+  }
+
+  public boolean isCollectCoreFiles() {
+    return collectCoreFiles;
+  }
+
+  /**
+   * Where core files end up is decided by the OS (<code>kernel.core_pattern</code> on Linux); only the usual
+   * <code>core</code> and <code>core.&lt;pid&gt;</code> files in the working directory are picked up.
+   */
+  public void setCollectCoreFiles(boolean collectCoreFiles) {
+    this.collectCoreFiles = collectCoreFiles;
+  }
+
+  File createArtifactDirectory(String mainClassName, File workingDir) throws IOException {
+    return FlightRecording.createRunDirectory(directory != null ? directory : new File(workingDir, "artifacts"),
+                                              mainClassName);
+  }
+
+  List<String> jvmArgs(File artifactDir) {
+    List<String> args = new ArrayList<String>();
+    args.add("-XX:ErrorFile=" + new File(artifactDir, "hs_err_pid%p.log").getAbsolutePath());
+    if (heapDumpOnOutOfMemory) {
+      args.add("-XX:+HeapDumpOnOutOfMemoryError");
+      args.add("-XX:HeapDumpPath=" + artifactDir.getAbsolutePath());
+    }
+    return args;
+  }
+
+  /**
+   * Archives the artifacts of a finished run.
+   *
+   * @return the archive, or <code>null</code> if the run exited cleanly without leaving anything
+   */
+  File collect(File artifactDir, File workingDir, final long startedAt, int exitCode, String stdoutTail,
+               String stderrTail) throws IOException {
+    List<File> files = new ArrayList<File>(Arrays.asList(listFiles(artifactDir, new FileFilter() {
+      public boolean accept(File f) {
+        return f.isFile() && !f.getName().equals(ARCHIVE_FILE);
+      }
+    })));
+    files.addAll(Arrays.asList(listFiles(workingDir, new FileFilter() {
+      public boolean accept(File f) {
+        String name = f.getName();
+        boolean candidate = name.startsWith("hs_err_pid")
+                            || (collectCoreFiles && (name.equals("core") || name.startsWith("core.")));
+        return candidate && f.isFile() && f.lastModified() >= startedAt - MTIME_SLACK;
+      }
+    })));
+
+    if (files.isEmpty() && exitCode == 0) {
+      artifactDir.delete();
+      return null;
+    }
+
+    File archive = new File(artifactDir, ARCHIVE_FILE);
+    ZipOutputStream zip = new ZipOutputStream(new FileOutputStream(archive));
+    try {
+      StringWriter index = new StringWriter();
+      PrintWriter pw = new PrintWriter(index);
+      pw.println("exit code: " + exitCode);
+      for (File f : files) {
+        pw.println(f.getName() + "\t" + f.length() + " bytes\t" + new Date(f.lastModified()) + "\t"
+                   + f.getAbsolutePath());
+      }
+      pw.flush();
+      writeEntry(zip, INDEX_ENTRY, index.toString());
+      writeEntry(zip, "stdout-tail.txt", stdoutTail);
+      writeEntry(zip, "stderr-tail.txt", stderrTail);
+      for (File f : files) {
+        ZipEntry entry = new ZipEntry(f.getName());
+        entry.setTime(f.lastModified());
+        zip.putNextEntry(entry);
+        Files.copy(f.toPath(), zip);
+        zip.closeEntry();
+      }
+    } finally {
+      zip.close();
+    }
+
+    for (File f : files) {
+      if (artifactDir.equals(f.getParentFile())) f.delete();
+    }
+    return archive;
+  }
+
+  private static File[] listFiles(File dir, FileFilter filter) {
+    File[] files = dir.listFiles(filter);
+    return files != null ? files : new File[0];
+  }
+
+  private static void writeEntry(ZipOutputStream zip, String name, String text) throws IOException {
+    zip.putNextEntry(new ZipEntry(name));
+    zip.write(text.getBytes());
+    zip.closeEntry();
+  }
+}
@@ -0,0 +1,31 @@
+/*
+ * Copyright Terracotta, Inc.
+ * Copyright Super iPaaS Integration LLC, an IBM Company 2024
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.tc.lcp;
+
+import java.io.PrintWriter;
+
+/**
+ * A diagnostic command executed inside a linked child when the parent asks for it over the heartbeat channel.
+ * Everything written to <code>out</code> is streamed back to the parent line by line.
+ *
+ * @see DiagnosticCommands#register(String, DiagnosticCommand)
+ */
+public interface DiagnosticCommand {
+
+  void execute(String args, PrintWriter out) throws Exception;
+
+}
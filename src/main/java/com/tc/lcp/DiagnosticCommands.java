@@ -0,0 +1,165 @@
+/*
+ * Copyright Terracotta, Inc.
+ * Copyright Super iPaaS Integration LLC, an IBM Company 2024
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.tc.lcp;
+
+import java.io.PrintWriter;
+import java.lang.management.GarbageCollectorMXBean;
+import java.lang.management.LockInfo;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryMXBean;
+import java.lang.management.MemoryPoolMXBean;
+import java.lang.management.MemoryUsage;
+import java.lang.management.MonitorInfo;
+import java.lang.management.ThreadInfo;
+import java.util.Map;
+import java.util.Properties;
+import java.util.TreeSet;
+import java.util.concurrent.ConcurrentHashMap;
+
+import javax.management.ObjectName;
+
+/**
+ * Registry of the {@link DiagnosticCommand}s a {@link HeartBeatClient} will run on behalf of its parent. The built-in
+ * commands cover thread dumps, forcing a GC, heap and memory pool statistics, the system properties and starting or
+ * stopping a Java Flight Recorder recording. Further commands can be registered by the child application itself.
+ */
+public final class DiagnosticCommands {
+  public static final String                         THREAD_DUMP       = "THREAD_DUMP";
+  public static final String                         GC                = "GC";
+  public static final String                         HEAP              = "HEAP";
+  public static final String                         SYSTEM_PROPERTIES = "SYSTEM_PROPERTIES";
+  public static final String                         JFR_START         = "JFR_START";
+  public static final String                         JFR_STOP          = "JFR_STOP";
+
+  private static final Map<String, DiagnosticCommand> COMMANDS          = new ConcurrentHashMap<String, DiagnosticCommand>();
+
+  static {
+    register(THREAD_DUMP, new ThreadDump());
+    register(GC, new RunGc());
+    register(HEAP, new HeapStats());
+    register(SYSTEM_PROPERTIES, new SystemProperties());
+    register(JFR_START, new JvmDiagnosticCommand("jfrStart"));
+    register(JFR_STOP, new JvmDiagnosticCommand("jfrStop"));
+  }
+
+  private DiagnosticCommands() {
+    // cannot instantiate
+  }
+
+  /**
+   * Registers (or replaces) a command. Names are single words as they travel on the line-based heartbeat protocol.
+   */
+  public static void register(String name, DiagnosticCommand command) {
+    if (name == null || name.length() == 0 || name.indexOf(' ') >= 0) {
+      throw new IllegalArgumentException("Invalid diagnostic command name: [" + name + "]");
+    }
+    if (command == null) throw new NullPointerException("command");
+    COMMANDS.put(name, command);
+  }
+
+  public static DiagnosticCommand lookup(String name) {
+    return COMMANDS.get(name);
+  }
+
+  private static class ThreadDump implements DiagnosticCommand {
+    public void execute(String args, PrintWriter out) {
+      for (ThreadInfo info : ManagementFactory.getThreadMXBean().dumpAllThreads(true, true)) {
+        out.println("\"" + info.getThreadName() + "\" id=" + info.getThreadId() + " " + info.getThreadState()
+                    + (info.getLockName() != null ? " on " + info.getLockName() : "")
+                    + (info.getLockOwnerName() != null ? " owned by \"" + info.getLockOwnerName() + "\"" : ""));
+        StackTraceElement[] stack = info.getStackTrace();
+        MonitorInfo[] monitors = info.getLockedMonitors();
+        for (int i = 0; i < stack.length; i++) {
+          out.println("\tat " + stack[i]);
+          for (MonitorInfo monitor : monitors) {
+            if (monitor.getLockedStackDepth() == i) {
+              out.println("\t- locked " + monitor);
+            }
+          }
+        }
+        LockInfo[] synchronizers = info.getLockedSynchronizers();
+        if (synchronizers.length > 0) {
+          out.println("\tLocked synchronizers:");
+          for (LockInfo synchronizer : synchronizers) {
+            out.println("\t- " + synchronizer);
+          }
+        }
+        out.println();
+      }
+    }
+  }
+
+  private static class RunGc implements DiagnosticCommand {
+    public void execute(String args, PrintWriter out) {
+      long start = System.currentTimeMillis();
+      System.gc();
+      out.println("System.gc() took " + (System.currentTimeMillis() - start) + "ms");
+    }
+  }
+
+  private static class HeapStats implements DiagnosticCommand {
+    public void execute(String args, PrintWriter out) {
+      MemoryMXBean memory = ManagementFactory.getMemoryMXBean();
+      out.println("heap: " + format(memory.getHeapMemoryUsage()));
+      out.println("non-heap: " + format(memory.getNonHeapMemoryUsage()));
+      for (MemoryPoolMXBean pool : ManagementFactory.getMemoryPoolMXBeans()) {
+        out.println("pool [" + pool.getName() + "] " + pool.getType() + ": " + format(pool.getUsage()));
+      }
+      for (GarbageCollectorMXBean gc : ManagementFactory.getGarbageCollectorMXBeans()) {
+        out.println("gc [" + gc.getName() + "] count=" + gc.getCollectionCount() + " time=" + gc.getCollectionTime()
+                    + "ms");
+      }
+    }
+
+    private static String format(MemoryUsage usage) {
+      if (usage == null) return "n/a";
+      return "used=" + usage.getUsed() + " committed=" + usage.getCommitted() + " max=" + usage.getMax();
+    }
+  }
+
+  private static class SystemProperties implements DiagnosticCommand {
+    public void execute(String args, PrintWriter out) {
+      Properties props = System.getProperties();
+      for (String name : new TreeSet<String>(props.stringPropertyNames())) {
+        out.println(name + "=" + props.getProperty(name));
+      }
+    }
+  }
+
+  /**
+   * Delegates to the HotSpot <code>DiagnosticCommand</code> MBean, which gives us JFR control without linking against
+   * <code>jdk.jfr</code> (absent on Java 8). Arguments are the usual <code>jcmd</code> ones, e.g.
+   * <code>name=slow settings=profile</code>.
+   */
+  private static class JvmDiagnosticCommand implements DiagnosticCommand {
+    private final String operation;
+
+    JvmDiagnosticCommand(String operation) {
+      this.operation = operation;
+    }
+
+    public void execute(String args, PrintWriter out) throws Exception {
+      String[] dcmdArgs = args == null || args.trim().length() == 0 ? new String[0] : args.trim().split("\\s+");
+      Object result = ManagementFactory.getPlatformMBeanServer()
+          .invoke(new ObjectName("com.sun.management:type=DiagnosticCommand"), operation, new Object[] { dcmdArgs },
+                  new String[] { String[].class.getName() });
+      if (result != null) {
+        out.print(result);
+      }
+    }
+  }
+}
@@ -0,0 +1,127 @@
+/*
+ * Copyright Terracotta, Inc.
+ * Copyright Super iPaaS Integration LLC, an IBM Company 2024
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.tc.lcp;
+
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.function.BiConsumer;
+
+/**
+ * Notices the exit of children on one shared thread, which polls them: a Java 8 {@link Process} has no exit callback,
+ * and a thread blocked in <code>waitFor()</code> per child is what this replaces. The exit handling runs on the same
+ * thread, never on one that reads the child's output.
+ */
+final class ExitWatcher {
+  static final long                       POLL_INTERVAL = 50;
+
+  private static final Log                 LOG           = Log.getLogger(ExitWatcher.class);
+  private static final ScheduledThreadPoolExecutor WATCHER = new ScheduledThreadPoolExecutor(1, new ThreadFactory() {
+                                                           public Thread newThread(Runnable r) {
+                                                             return LcpThreads.newThread("LCP Exit Watcher", r);
+                                                           }
+                                                         });
+  private static final Map<ProcessExecutor, CompletableFuture<Integer>> WATCHED =
+      new ConcurrentHashMap<ProcessExecutor, CompletableFuture<Integer>>();
+  // guarded by ExitWatcher.class, only scheduled while there is something to watch
+  private static ScheduledFuture<?>        polling;
+
+  static {
+    WATCHER.setRemoveOnCancelPolicy(true);
+  }
+
+  private ExitWatcher() {
+    // cannot instantiate
+  }
+
+  /**
+   * @return completed with the exit code of the child, on the watcher thread or on one that saw the child
+   *         {@link #exited(ProcessExecutor) exit}
+   */
+  static CompletableFuture<Integer> watch(ProcessExecutor executor) {
+    CompletableFuture<Integer> exit = new CompletableFuture<Integer>();
+    synchronized (ExitWatcher.class) {
+      WATCHED.put(executor, exit);
+      if (polling == null) {
+        polling = WATCHER.scheduleWithFixedDelay(new Runnable() {
+          public void run() {
+            poll();
+          }
+        }, POLL_INTERVAL, POLL_INTERVAL, TimeUnit.MILLISECONDS);
+      }
+    }
+    return exit;
+  }
+
+  /**
+   * Completes the future of a child known to have exited right away, instead of at the next poll.
+   */
+  static void exited(ProcessExecutor executor) {
+    if (executor.isAlive()) return;
+    CompletableFuture<Integer> exit = WATCHED.remove(executor);
+    if (exit != null) exit.complete(executor.exitValue());
+  }
+
+  private static void poll() {
+    try {
+      for (ProcessExecutor executor : WATCHED.keySet()) {
+        exited(executor);
+      }
+    } catch (RuntimeException e) {
+      // an exception would end the polling for good
+      LOG.error("Polling the children for their exit failed", e);
+    }
+    synchronized (ExitWatcher.class) {
+      if (WATCHED.isEmpty()) {
+        polling.cancel(false);
+        polling = null;
+      }
+    }
+  }
+
+  /**
+   * The watcher thread, for the exit handling.
+   */
+  static Executor executor() {
+    return WATCHER;
+  }
+
+  /**
+   * Runs <code>task</code> on the watcher thread once <code>future</code> completes, or after
+   * <code>timeoutMillis</code>, whichever comes first.
+   */
+  static void whenDone(CompletableFuture<?> future, long timeoutMillis, final Runnable task) {
+    final CompletableFuture<Void> done = new CompletableFuture<Void>();
+    final ScheduledFuture<?> timeout = WATCHER.schedule(new Runnable() {
+      public void run() {
+        done.complete(null);
+      }
+    }, timeoutMillis, TimeUnit.MILLISECONDS);
+    future.whenComplete(new BiConsumer<Object, Throwable>() {
+      public void accept(Object result, Throwable failure) {
+        timeout.cancel(false);
+        done.complete(null);
+      }
+    });
+    done.thenRunAsync(task, WATCHER);
+  }
+}
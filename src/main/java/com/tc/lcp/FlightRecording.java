@@ -0,0 +1,111 @@
+/*
+ * Copyright Terracotta, Inc.
+ * Copyright Super iPaaS Integration LLC, an IBM Company 2024
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.tc.lcp;
+
+import java.io.File;
+import java.io.IOException;
+
+/**
+ * Java Flight Recorder settings for a {@link LinkedJavaProcess}. The recording starts with the child JVM and is dumped
+ * when it exits, which includes exits forced by the heartbeat or the max runtime watchdog since both go through
+ * {@link System#exit}. Each run records into its own directory below {@link #getDirectory()}, named after the main class
+ * and a sequence number.
+ * <p>
+ * Requires a child JVM with JFR built in (JDK 11+, or 8u262+ for OpenJDK 8).
+ */
+public class FlightRecording {
+  public static final String DEFAULT_SETTINGS = "default";
+  public static final String PROFILE_SETTINGS = "profile";
+  public static final String RECORDING_NAME   = "lcp";
+  public static final String RECORDING_FILE   = "recording.jfr";
+
+  private String             settings         = DEFAULT_SETTINGS;
+  private long               maxSizeBytes     = 0;
+  private long               maxAgeSeconds    = 0;
+  private File               directory;
+
+  public String getSettings() {
+    return settings;
+  }
+
+  /**
+   * Either one of the JDK profiles (<code>default</code>, <code>profile</code>) or the path of a <code>.jfc</code>
+   * file.
+   */
+  public void setSettings(String settings) {
+    this.settings = settings;
+  }
+
+  public long getMaxSizeBytes() {
+    return maxSizeBytes;
+  }
+
+  /**
+   * Zero leaves the JVM default in place.
+   */
+  public void setMaxSizeBytes(long maxSizeBytes) {
+    this.maxSizeBytes = maxSizeBytes;
+  }
+
+  public long getMaxAgeSeconds() {
+    return maxAgeSeconds;
+  }
+
+  /**
+   * Zero leaves the JVM default in place.
+   */
+  public void setMaxAgeSeconds(long maxAgeSeconds) {
+    this.maxAgeSeconds = maxAgeSeconds;
+  }
+
+  public File getDirectory() {
+    return directory;
+  }
+
+  /**
+   * Root under which the per-child recording directories are created. Defaults to <code>jfr</code> in the child's
+   * working directory.
+   */
+  public void setDirectory(File directory) {
+    this.directory = directory;
+  }
+
+  File createRecordingDirectory(String mainClassName, File workingDir) throws IOException {
+    return createRunDirectory(directory != null ? directory : new File(workingDir, "jfr"), mainClassName);
+  }
+
+  /**
+   * Creates <code>root/mainClassName-n</code> for the first free <code>n</code>.
+   */
+  static File createRunDirectory(File root, String mainClassName) throws IOException {
+    if (!root.isDirectory() && !root.mkdirs()) throw new IOException("Can't create directory " + root);
+    for (int i = 1;; i++) {
+      File dir = new File(root, mainClassName + "-" + i);
+      // mkdir() is atomic, so concurrent starts of the same main class each get their own directory
+      if (dir.mkdir()) return dir;
+    }
+  }
+
+  String jvmArg(File recordingFile) {
+    StringBuilder sb = new StringBuilder("-XX:StartFlightRecording=name=").append(RECORDING_NAME);
+    sb.append(",settings=").append(settings);
+    if (maxSizeBytes > 0) sb.append(",maxsize=").append(maxSizeBytes);
+    if (maxAgeSeconds > 0) sb.append(",maxage=").append(maxAgeSeconds).append("s");
+    sb.append(",dumponexit=true,filename=").append(recordingFile.getAbsolutePath());
+    return sb.toString();
+  }
+}
@@ -16,25 +16,35 @@
 package com.tc.lcp;
 
 import java.io.BufferedReader;
+import java.io.IOException;
 import java.io.InputStreamReader;
 import java.io.PrintWriter;
+import java.io.Writer;
+import java.lang.management.ManagementFactory;
+import java.net.ConnectException;
 import java.net.Socket;
 import java.net.SocketException;
 import java.net.SocketTimeoutException;
-import java.text.DateFormat;
-import java.text.SimpleDateFormat;
-import java.util.Date;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
 
 public class HeartBeatClient extends Thread {
-  private static final int  HEARTBEAT_TIMEOUT = HeartBeatServer.PULSE_INTERVAL * 2;
-  private static DateFormat DATEFORMAT        = new SimpleDateFormat(
-                                                  "HH:mm:ss.SSS");
+  private static final int        HEARTBEAT_TIMEOUT = HeartBeatServer.PULSE_INTERVAL * 2;
+  private static final Log        LOG               = Log.getLogger(HeartBeatClient.class);
 
-  private Socket            socket;
-  private boolean           isAppServer       = false;
-  private String            clientName;
-  private int               missedPulse       = 0;
-  private int               listenPort;
+  private volatile Socket         socket;
+  private boolean                 isAppServer       = false;
+  private String                  clientName;
+  private int                     missedPulse       = 0;
+  private int                     listenPort;
+  private volatile PrintWriter    out;
+  private BufferedReader          in;
+  private String                  sessionToken;
+  // whether the server sent SESSION, i.e. takes more than pulse replies; an older one would misread anything else
+  private boolean                 serverSpeaksProtocol;
+  private ExecutorService         diagnosticExecutor;
+  private volatile AppServerState appServerState;
 
   public HeartBeatClient(int listenPort, String clientName, boolean isAppServer) {
     this.isAppServer = isAppServer;
@@ -54,66 +64,75 @@ public class HeartBeatClient extends Thread {
   }
 
   public static void log(String message) {
-    System.out.println(DATEFORMAT.format(new Date()) + " - HeartBeatClient: "
-        + message);
+    LOG.info(message);
   }
 
   public void run() {
-    BufferedReader in = null;
-    PrintWriter out = null;
     try {
       in = new BufferedReader(new InputStreamReader(socket.getInputStream()));
-      out = new PrintWriter(socket.getOutputStream(), true);
+      PrintWriter writer = new PrintWriter(socket.getOutputStream(), true);
 
-      // introduce myself to the server
-      // sending clientName
-      out.println(clientName + ":" + socket.getLocalPort());
-      log("Sent my name [" + clientName + "] to heartbeat server");
+      // introduce myself to the server, an older one takes the whole line as my name
+      writer.println(clientName + ":" + socket.getLocalPort() + " " + HeartBeatServer.PROTOCOL + " "
+                     + HeartBeatServer.PROTOCOL_VERSION);
+      LOG.info("Sent my name [{}] to heartbeat server", clientName);
+      // reportAppServerState() may only write once the name is out
+      publish(writer);
       while (true) {
         try {
           // will time out if it didn't get any pulse from server
           String signal = in.readLine();
           if (signal == null) {
+            if (resumeSession()) continue;
             throw new Exception("Null signal");
           } else if (HeartBeatServer.PULSE.equals(signal)) {
-            log("Received pulse from heartbeat server, port "
-                + socket.getLocalPort());
+            LOG.debug("Received pulse from heartbeat server, port {}", socket.getLocalPort());
             out.println(signal);
             missedPulse = 0;
           } else if (HeartBeatServer.KILL.equals(signal)) {
-            log("Received KILL from heartbeat server. Killing self.");
+            LOG.info("Received KILL from heartbeat server. Killing self.");
             System.exit(1);
           } else if (HeartBeatServer.IS_APP_SERVER_ALIVE.equals(signal)) {
-            log("Received IS_APP_SERVER_ALIVE from heartbeat server. ");
+            LOG.debug("Received IS_APP_SERVER_ALIVE from heartbeat server. ");
             if (isAppServer) {
               out.println(HeartBeatServer.IM_ALIVE);
-              log("  responded: IM_ALIVE");
+              LOG.debug("  responded: IM_ALIVE");
             } else {
-              out.println("NOT_AN_APP_SERVER");
-              log("  responded: NOT_AN_APP_SERVER");
+              out.println(HeartBeatServer.NOT_AN_APP_SERVER);
+              LOG.debug("  responded: NOT_AN_APP_SERVER");
             }
+          } else if (signal.startsWith(HeartBeatServer.SESSION + " ")) {
+            sessionStarted(signal.substring(HeartBeatServer.SESSION.length() + 1));
+          } else if (signal.startsWith(HeartBeatServer.PING + " ")) {
+            out.println(HeartBeatServer.PONG + signal.substring(HeartBeatServer.PING.length()));
+          } else if (signal.startsWith(HeartBeatServer.DIAG + " ")) {
+            submitDiagnostic(signal);
           } else {
-            throw new Exception("Unknown signal");
+            // a newer parent may send messages this client doesn't know, that is no reason to die
+            LOG.warn("Ignoring unknown message from heartbeat server: {}", signal);
           }
         } catch (SocketTimeoutException toe) {
-          log("No pulse received for " + (HEARTBEAT_TIMEOUT / 1000)
-              + " seconds");
-          log("Missed pulse count: " + missedPulse);
+          LOG.warn("No pulse received for {} seconds, missed pulse count: {}", HEARTBEAT_TIMEOUT / 1000, missedPulse);
           if (missedPulse >= HeartBeatServer.MISS_ALLOW) {
-            log("Missing " + HeartBeatServer.MISS_ALLOW + " pulses from HeartBeatServer, killing self");
+            LOG.warn("Missing {} pulses from HeartBeatServer, killing self", HeartBeatServer.MISS_ALLOW);
             System.exit(-1);
           }
           missedPulse++;
         } catch (SocketException e) {
-          log("Got a Socket exception: " + e.getMessage() + ". Parent may have died, killing self");
-          System.exit(-1);
+          LOG.warn("Got a Socket exception: {}. Parent may have died", e.getMessage());
+          if (!resumeSession()) {
+            LOG.warn("Could not resume heartbeat session, killing self");
+            System.exit(-1);
+          }
         }
       }
     } catch (Exception e) {
-      log("Caught exception in heartbeat client. Killing self.");
-      e.printStackTrace();
+      LOG.error("Caught exception in heartbeat client. Killing self.", e);
       System.exit(-2);
     } finally {
+      if (diagnosticExecutor != null) {
+        diagnosticExecutor.shutdownNow();
+      }
       try {
         socket.close();
       } catch (Exception e) {
@@ -122,4 +141,213 @@ public class HeartBeatClient extends Thread {
     }
   }
 
+  /**
+   * Pushes the lifecycle state of the app server in this JVM to the parent. A state reported before the connection is
+   * up is sent as soon as it is.
+   */
+  public void reportAppServerState(AppServerState state) {
+    appServerState = state;
+    sendAppServerState();
+  }
+
+  /**
+   * Makes <code>writer</code> the one every message goes to, and sends the current state on it.
+   */
+  private synchronized void publish(PrintWriter writer) {
+    out = writer;
+    sendAppServerState();
+  }
+
+  /**
+   * The server speaks the protocol: sends what an older one wouldn't understand. The state goes before the launch id,
+   * so that whoever awaits the launch already sees it.
+   */
+  private synchronized void sessionStarted(String token) {
+    sessionToken = token;
+    if (serverSpeaksProtocol) return;
+    serverSpeaksProtocol = true;
+    long pid = currentPid();
+    if (pid >= 0) {
+      out.println(HeartBeatServer.PID + " " + pid);
+    }
+    sendAppServerState();
+    String launchId = System.getProperty(LinkedJavaProcess.LAUNCH_ID_PROPERTY);
+    if (launchId != null) {
+      out.println(HeartBeatServer.LAUNCH + " " + launchId);
+    }
+  }
+
+  // synchronized so that the last line sent always carries the latest state
+  private synchronized void sendAppServerState() {
+    PrintWriter writer = out;
+    AppServerState state = appServerState;
+    if (writer != null && state != null && serverSpeaksProtocol) {
+      writer.println(HeartBeatServer.APP_SERVER_STATE + " " + state);
+    }
+  }
+
+  /**
+   * Tries to reconnect and resume the session for up to {@link HeartBeatServer#RECONNECT_GRACE}, so that a transient
+   * connection problem doesn't take a healthy child down. Gives up straight away if the server rejects the session, or
+   * if nothing listens on the port anymore: then the parent is gone and waiting out the grace only keeps an orphan
+   * alive.
+   */
+  private boolean resumeSession() {
+    if (sessionToken == null) return false;
+    try {
+      socket.close();
+    } catch (IOException e) {
+      // ignored
+    }
+    long deadline = System.currentTimeMillis() + HeartBeatServer.RECONNECT_GRACE;
+    long backoff = 100;
+    while (System.currentTimeMillis() < deadline) {
+      Socket s = null;
+      try {
+        s = new Socket("localhost", listenPort);
+        s.setSoTimeout(HEARTBEAT_TIMEOUT);
+        s.setTcpNoDelay(true);
+        BufferedReader newIn = new BufferedReader(new InputStreamReader(s.getInputStream()));
+        PrintWriter newOut = new PrintWriter(s.getOutputStream(), true);
+        newOut.println(HeartBeatServer.RESUME + " " + sessionToken);
+        String reply = newIn.readLine();
+        if (HeartBeatServer.RESUMED.equals(reply)) {
+          socket = s;
+          in = newIn;
+          LOG.info("Resumed heartbeat session on port {}", s.getLocalPort());
+          // a state reported while disconnected went to the old socket
+          publish(newOut);
+          return true;
+        }
+        s.close();
+        if (HeartBeatServer.KILL.equals(reply)) {
+          LOG.warn("Heartbeat server rejected the session");
+          return false;
+        }
+      } catch (ConnectException e) {
+        LOG.warn("Heartbeat server is gone: {}", e.getMessage());
+        return false;
+      } catch (IOException e) {
+        LOG.debug("Reconnect attempt failed: {}", e.getMessage());
+        if (s != null) {
+          try {
+            s.close();
+          } catch (IOException ignored) {
+            // ignored
+          }
+        }
+      }
+      HeartBeatServer.reallySleep(backoff);
+      backoff = Math.min(backoff * 2, 1000);
+    }
+    return false;
+  }
+
+  /**
+   * Process id of this JVM, or -1 if it can't be determined. Java 8 has no API for it, but the runtime name of all
+   * mainstream JVMs is <code>pid@hostname</code>.
+   */
+  static long currentPid() {
+    String name = ManagementFactory.getRuntimeMXBean().getName();
+    int at = name.indexOf('@');
+    try {
+      return Long.parseLong(at < 0 ? name : name.substring(0, at));
+    } catch (NumberFormatException e) {
+      return -1;
+    }
+  }
+
+  /**
+   * Diagnostics run on their own thread so that a long thread dump or GC never delays the pulse replies.
+   */
+  private void submitDiagnostic(String signal) {
+    // DIAG <id> <command> [args]
+    String[] parts = signal.split(" ", 4);
+    if (parts.length < 3) {
+      LOG.warn("Ignoring malformed diagnostic request: {}", signal);
+      return;
+    }
+    final String id = parts[1];
+    final String name = parts[2];
+    final String args = parts.length > 3 ? parts[3] : "";
+    LOG.info("Received diagnostic request {}: {}", id, name);
+    if (diagnosticExecutor == null) {
+      diagnosticExecutor = Executors.newSingleThreadExecutor(new ThreadFactory() {
+        public Thread newThread(Runnable r) {
+          return LcpThreads.newThread("HeartBeatClient diagnostics", r);
+        }
+      });
+    }
+    diagnosticExecutor.execute(new Runnable() {
+      public void run() {
+        runDiagnostic(id, name, args);
+      }
+    });
+  }
+
+  private void runDiagnostic(String id, String name, String args) {
+    DiagnosticCommand command = DiagnosticCommands.lookup(name);
+    if (command == null) {
+      out.println(HeartBeatServer.DIAG_END + " " + id + " " + HeartBeatServer.DIAG_ERROR + " Unknown command " + name);
+      return;
+    }
+    PrintWriter response = new PrintWriter(new DiagnosticWriter(id, out));
+    try {
+      command.execute(args, response);
+      response.close();
+      out.println(HeartBeatServer.DIAG_END + " " + id + " " + HeartBeatServer.DIAG_OK);
+    } catch (Throwable t) {
+      response.close();
+      out.println(HeartBeatServer.DIAG_END + " " + id + " " + HeartBeatServer.DIAG_ERROR + " " + singleLine(t.toString()));
+    }
+  }
+
+  private static String singleLine(String s) {
+    return s.replace('\r', ' ').replace('\n', ' ');
+  }
+
+  /**
+   * Frames every line written by a {@link DiagnosticCommand} as a <code>DIAG_DATA</code> message. Each message is a
+   * single <code>println</code>, which is atomic on the shared {@link PrintWriter}, so it interleaves safely with pulse
+   * replies.
+   */
+  private static class DiagnosticWriter extends Writer {
+    private final String        id;
+    private final PrintWriter   target;
+    private final StringBuilder line = new StringBuilder();
+
+    DiagnosticWriter(String id, PrintWriter target) {
+      this.id = id;
+      this.target = target;
+    }
+
+    @Override
+    public void write(char[] cbuf, int off, int len) {
+      for (int i = off; i < off + len; i++) {
+        char c = cbuf[i];
+        if (c == '\n') {
+          emit();
+        } else if (c != '\r') {
+          line.append(c);
+        }
+      }
+    }
+
+    private void emit() {
+      target.println(HeartBeatServer.DIAG_DATA + " " + id + " " + line);
+      line.setLength(0);
+    }
+
+    @Override
+    public void flush() {
+      // only complete lines are sent
+    }
+
+    @Override
+    public void close() {
+      if (line.length() > 0) {
+        emit();
+      }
+    }
+  }
 }
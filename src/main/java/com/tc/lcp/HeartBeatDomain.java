@@ -0,0 +1,62 @@
+/*
+ * Copyright Terracotta, Inc.
+ * Copyright Super iPaaS Integration LLC, an IBM Company 2024
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.tc.lcp;
+
+import java.util.List;
+import java.util.function.Predicate;
+
+/**
+ * A set of heartbeat-linked children with its own lifecycle. {@link HeartBeatService} manages the JVM-wide default
+ * domain; suites that run in parallel in one JVM can each create their own (a {@link HeartBeatServer}, or a
+ * {@link ShardedHeartBeatDomain} for many children) and bind their processes to it with
+ * {@link LinkedJavaProcess#setHeartBeatDomain(HeartBeatDomain)}. Shutting a domain down only kills its own children.
+ */
+public interface HeartBeatDomain {
+
+  /**
+   * Starts listening, if not already started.
+   */
+  void start();
+
+  /**
+   * Stops listening and kills the children of this domain.
+   */
+  void shutdown();
+
+  /**
+   * The server the next child should link to.
+   */
+  HeartBeatServer nextServer();
+
+  List<ChildHandle> children();
+
+  /**
+   * @return the connected child with that <code>clientName:port</code> identity, or <code>null</code>
+   */
+  ChildHandle child(String clientId);
+
+  /**
+   * @return the number of children sent a kill signal
+   */
+  int killChildren(Predicate<? super ChildHandle> predicate);
+
+  void sendKillSignalToChildren();
+
+  boolean anyAppServerAlive();
+
+  HeartBeatMetrics.Snapshot metricsSnapshot();
+}
@@ -0,0 +1,231 @@
+/*
+ * Copyright Terracotta, Inc.
+ * Copyright Super iPaaS Integration LLC, an IBM Company 2024
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.tc.lcp;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Counters kept by a {@link HeartBeatServer}. They are {@link LongAdder}s, so the pulse and reader threads of many
+ * clients can bump them without contending with each other.
+ */
+public final class HeartBeatMetrics {
+  private final LongAdder clientsAccepted    = new LongAdder();
+  private final LongAdder pulsesSent         = new LongAdder();
+  private final LongAdder pulsesAcked        = new LongAdder();
+  private final LongAdder missedPulses       = new LongAdder();
+  private final LongAdder kills              = new LongAdder();
+  private final LongAdder deadClientRemovals = new LongAdder();
+  private final LongAdder sessionsResumed    = new LongAdder();
+
+  HeartBeatMetrics() {
+    //
+  }
+
+  void clientAccepted() {
+    clientsAccepted.increment();
+  }
+
+  void pulseSent() {
+    pulsesSent.increment();
+  }
+
+  void pulseAcked() {
+    pulsesAcked.increment();
+  }
+
+  void pulseMissed() {
+    missedPulses.increment();
+  }
+
+  void killSent() {
+    kills.increment();
+  }
+
+  void deadClientRemoved() {
+    deadClientRemovals.increment();
+  }
+
+  void sessionResumed() {
+    sessionsResumed.increment();
+  }
+
+  public long getClientsAccepted() {
+    return clientsAccepted.sum();
+  }
+
+  public long getPulsesSent() {
+    return pulsesSent.sum();
+  }
+
+  public long getPulsesAcked() {
+    return pulsesAcked.sum();
+  }
+
+  public long getMissedPulses() {
+    return missedPulses.sum();
+  }
+
+  public long getKills() {
+    return kills.sum();
+  }
+
+  public long getDeadClientRemovals() {
+    return deadClientRemovals.sum();
+  }
+
+  public long getSessionsResumed() {
+    return sessionsResumed.sum();
+  }
+
+  Snapshot snapshot(List<ClientSnapshot> clients) {
+    return new Snapshot(this, clients);
+  }
+
+  /**
+   * Point in time copy of the server counters and of every connected client. The counters are read one after the
+   * other, so under load they are individually exact but not mutually consistent.
+   */
+  public static final class Snapshot {
+    private final long                 timestamp;
+    private final long                 clientsAccepted;
+    private final long                 pulsesSent;
+    private final long                 pulsesAcked;
+    private final long                 missedPulses;
+    private final long                 kills;
+    private final long                 deadClientRemovals;
+    private final List<ClientSnapshot> clients;
+
+    Snapshot(HeartBeatMetrics metrics, List<ClientSnapshot> clients) {
+      this(metrics.getClientsAccepted(), metrics.getPulsesSent(), metrics.getPulsesAcked(), metrics.getMissedPulses(),
+           metrics.getKills(), metrics.getDeadClientRemovals(), clients);
+    }
+
+    private Snapshot(long clientsAccepted, long pulsesSent, long pulsesAcked, long missedPulses, long kills,
+                     long deadClientRemovals, List<ClientSnapshot> clients) {
+      this.timestamp = System.currentTimeMillis();
+      this.clientsAccepted = clientsAccepted;
+      this.pulsesSent = pulsesSent;
+      this.pulsesAcked = pulsesAcked;
+      this.missedPulses = missedPulses;
+      this.kills = kills;
+      this.deadClientRemovals = deadClientRemovals;
+      this.clients = Collections.unmodifiableList(clients);
+    }
+
+    /**
+     * Sums the snapshots of several servers, e.g. the shards of a {@link ShardedHeartBeatDomain}.
+     */
+    public static Snapshot combine(List<Snapshot> snapshots) {
+      long accepted = 0, sent = 0, acked = 0, missed = 0, killCount = 0, removals = 0;
+      List<ClientSnapshot> allClients = new ArrayList<ClientSnapshot>();
+      for (Snapshot snapshot : snapshots) {
+        accepted += snapshot.clientsAccepted;
+        sent += snapshot.pulsesSent;
+        acked += snapshot.pulsesAcked;
+        missed += snapshot.missedPulses;
+        killCount += snapshot.kills;
+        removals += snapshot.deadClientRemovals;
+        allClients.addAll(snapshot.clients);
+      }
+      return new Snapshot(accepted, sent, acked, missed, killCount, removals, allClients);
+    }
+
+    public long getTimestamp() {
+      return timestamp;
+    }
+
+    public int getConnectedClients() {
+      return clients.size();
+    }
+
+    public long getClientsAccepted() {
+      return clientsAccepted;
+    }
+
+    public long getPulsesSent() {
+      return pulsesSent;
+    }
+
+    public long getPulsesAcked() {
+      return pulsesAcked;
+    }
+
+    public long getMissedPulses() {
+      return missedPulses;
+    }
+
+    public long getKills() {
+      return kills;
+    }
+
+    public long getDeadClientRemovals() {
+      return deadClientRemovals;
+    }
+
+    public List<ClientSnapshot> getClients() {
+      return clients;
+    }
+
+    @Override
+    public String toString() {
+      return "HeartBeatMetrics[connected=" + clients.size() + ", accepted=" + clientsAccepted + ", pulsesSent="
+             + pulsesSent + ", pulsesAcked=" + pulsesAcked + ", missedPulses=" + missedPulses + ", kills=" + kills
+             + ", deadClientRemovals=" + deadClientRemovals + "]";
+    }
+  }
+
+  public static final class ClientSnapshot {
+    private final String       clientName;
+    private final long         lastSeenAgeMillis;
+    private final int          missedPulses;
+    private final ClientHealth health;
+
+    ClientSnapshot(String clientName, long lastSeenAgeMillis, int missedPulses, ClientHealth health) {
+      this.clientName = clientName;
+      this.lastSeenAgeMillis = lastSeenAgeMillis;
+      this.missedPulses = missedPulses;
+      this.health = health;
+    }
+
+    public String getClientName() {
+      return clientName;
+    }
+
+    public long getLastSeenAgeMillis() {
+      return lastSeenAgeMillis;
+    }
+
+    /**
+     * Consecutive pulses missed so far.
+     */
+    public int getMissedPulses() {
+      return missedPulses;
+    }
+
+    public ClientHealth getHealth() {
+      return health;
+    }
+
+    @Override
+    public String toString() {
+      return clientName + "[" + health + ", lastSeen=" + lastSeenAgeMillis + "ms ago, missed=" + missedPulses + "]";
+    }
+  }
+}
@@ -20,46 +20,144 @@ import java.io.BufferedReader;
 import java.io.IOException;
 import java.io.InputStreamReader;
 import java.io.PrintWriter;
+import java.lang.management.ManagementFactory;
 import java.net.ServerSocket;
 import java.net.Socket;
-import java.net.SocketTimeoutException;
-import java.text.DateFormat;
-import java.text.SimpleDateFormat;
 import java.util.ArrayList;
-import java.util.Date;
+import java.util.HashMap;
 import java.util.Iterator;
 import java.util.List;
+import java.util.Map;
+import java.util.Timer;
+import java.util.TimerTask;
+import java.util.UUID;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.Predicate;
 
-public class HeartBeatServer {
+import javax.management.ObjectName;
+
+public class HeartBeatServer implements HeartBeatDomain {
   public static final String PULSE               = "PULSE";
   public static final String KILL                = "KILL";
   public static final String IS_APP_SERVER_ALIVE = "IS_APP_SERVER_ALIVE";
   public static final String IM_ALIVE            = "IM_ALIVE";
+  public static final String NOT_AN_APP_SERVER   = "NOT_AN_APP_SERVER";
+  public static final String PID                 = "PID";
+  public static final String LAUNCH              = "LAUNCH";
+  public static final String PING                = "PING";
+  public static final String PONG                = "PONG";
+  public static final String SESSION             = "SESSION";
+  public static final String RESUME              = "RESUME";
+  public static final String RESUMED             = "RESUMED";
+  public static final String DIAG                = "DIAG";
+  public static final String DIAG_DATA           = "DIAG_DATA";
+  public static final String DIAG_END            = "DIAG_END";
+  public static final String DIAG_OK             = "OK";
+  public static final String DIAG_ERROR          = "ERROR";
+  public static final String APP_SERVER_STATE    = "APP_SERVER_STATE";
+  /**
+   * Appended to a client's introduction as <code>PROTOCOL &lt;version&gt;</code>. Clients without it only know
+   * <code>PULSE</code>, <code>KILL</code> and <code>IS_APP_SERVER_ALIVE</code>, and die on anything else; a server
+   * that sends them <code>SESSION</code> advertises the rest of the protocol to them in turn.
+   */
+  public static final String PROTOCOL            = "PROTOCOL";
+  public static final int    PROTOCOL_VERSION    = 2;
   public static final int    PULSE_INTERVAL      = 30 * 1000;
   public static final int    MISS_ALLOW          = 5;
-  private static DateFormat  DATEFORMAT          = new SimpleDateFormat("HH:mm:ss.SSS");
+  /**
+   * How long a client that lost its connection may take to resume its session before it is considered dead.
+   */
+  public static final int    RECONNECT_GRACE     = Integer.getInteger("com.tc.lcp.heartbeat.reconnect.grace", 10 * 1000);
+  private static final Log   LOG                 = Log.getLogger(HeartBeatServer.class);
+  // connections a burst of starting children may queue before being accepted; a full backlog drops the SYN and the
+  // child retries a second later
+  private static final int   ACCEPT_BACKLOG      = 1024;
 
-  private ListenThread       listenThread;
-  // @GuardBy(this)
-  private final List         heartBeatThreads    = new ArrayList();
+  private volatile ListenThread listenThread;
+  private final int          pulseInterval;
+  private final int          reconnectGrace;
+  // guards pulseTimer and pulseSender, which are only set while the server runs
+  private final ReentrantLock pulseLock = new ReentrantLock();
+  private Timer              pulseTimer;
+  private ExecutorService    pulseSender;
+  private ObjectName         mbeanName;
+  private final HeartBeatMetrics metrics = new HeartBeatMetrics();
+  private final ClientRegistry clients = new ClientRegistry();
+  private final ConcurrentMap<String, CompletableFuture<ChildHandle>> launches = new ConcurrentHashMap<String, CompletableFuture<ChildHandle>>();
 
   public HeartBeatServer() {
-    //
+    this(PULSE_INTERVAL, RECONNECT_GRACE);
+  }
+
+  /**
+   * A server pulsing its clients every <code>pulseInterval</code> milliseconds instead of {@link #PULSE_INTERVAL}, and
+   * waiting <code>reconnectGrace</code> milliseconds instead of {@link #RECONNECT_GRACE} for lost clients to resume.
+   */
+  HeartBeatServer(int pulseInterval, int reconnectGrace) {
+    this.pulseInterval = pulseInterval;
+    this.reconnectGrace = reconnectGrace;
   }
 
   public static void log(String message) {
-    System.out.println(DATEFORMAT.format(new Date()) + " - HeartBeatServer: " + message);
+    LOG.info(message);
   }
 
-  public void start() {
+  public synchronized void start() {
     if (listenThread == null) {
+      pulseLock.lock();
+      try {
+        pulseTimer = new Timer("HeartBeatServer pulse", true);
+        pulseSender = Executors.newCachedThreadPool(new ThreadFactory() {
+          public Thread newThread(Runnable r) {
+            return LcpThreads.newThread("HeartBeatServer pulse sender", r);
+          }
+        });
+      } finally {
+        pulseLock.unlock();
+      }
       listenThread = new ListenThread(this);
-      listenThread.setDaemon(true);
       listenThread.start();
+      registerMBean();
+    }
+  }
+
+  private void registerMBean() {
+    try {
+      ObjectName name = new ObjectName("com.tc.lcp:type=HeartBeatServer,port=" + listenThread.listeningPort());
+      ManagementFactory.getPlatformMBeanServer().registerMBean(new MXBeanImpl(this), name);
+      mbeanName = name;
+    } catch (Exception e) {
+      LOG.warn("Unable to register heartbeat server MBean", e);
+    }
+  }
+
+  private void unregisterMBean() {
+    if (mbeanName != null) {
+      try {
+        ManagementFactory.getPlatformMBeanServer().unregisterMBean(mbeanName);
+      } catch (Exception e) {
+        LOG.warn("Unable to unregister heartbeat server MBean", e);
+      }
+      mbeanName = null;
     }
   }
 
-  public void shutdown() {
+  public synchronized void shutdown() {
+    if (listenThread == null) return;
     try {
       listenThread.shutdown();
       listenThread.join();
@@ -68,49 +166,251 @@ public class HeartBeatServer {
       // nop
     }
     sendKillSignalToChildren();
+    pulseLock.lock();
+    try {
+      pulseTimer.cancel();
+      pulseTimer = null;
+      pulseSender.shutdown();
+      pulseSender = null;
+    } finally {
+      pulseLock.unlock();
+    }
+    unregisterMBean();
+  }
+
+  public HeartBeatServer nextServer() {
+    return this;
   }
 
-  public synchronized void sendKillSignalToChildren() {
-    for (Iterator it = heartBeatThreads.iterator(); it.hasNext();) {
-      HeartBeatThread hb = (HeartBeatThread) it.next();
-      hb.sendKillSignal();
+  public HeartBeatMetrics metrics() {
+    return metrics;
+  }
+
+  public HeartBeatMetrics.Snapshot metricsSnapshot() {
+    List<HeartBeatMetrics.ClientSnapshot> snapshots = new ArrayList<HeartBeatMetrics.ClientSnapshot>();
+    for (HeartBeatThread hb : clients.snapshot()) {
+      snapshots.add(hb.snapshot());
     }
-    heartBeatThreads.clear();
+    return metrics.snapshot(snapshots);
+  }
+
+  public void sendKillSignalToChildren() {
+    for (HeartBeatThread hb : clients.snapshot()) {
+      kill(hb);
+    }
+  }
+
+  /**
+   * Kills the connected children the predicate accepts, e.g. all those of one main class.
+   *
+   * @return the number of children sent a kill signal
+   */
+  public int killChildren(Predicate<? super ChildHandle> predicate) {
+    int killed = 0;
+    for (HeartBeatThread hb : clients.snapshot()) {
+      if (predicate.test(hb) && kill(hb)) {
+        killed++;
+      }
+    }
+    return killed;
+  }
+
+  private boolean kill(HeartBeatThread hb) {
+    if (!clients.remove(hb)) return false;
+    hb.sendKillSignal();
+    forgetLaunch(hb);
+    return true;
   }
 
-  public synchronized boolean anyAppServerAlive() {
+  public List<ChildHandle> children() {
+    return new ArrayList<ChildHandle>(clients.snapshot());
+  }
+
+  /**
+   * @return the connected child with that <code>clientName:port</code> identity, or <code>null</code>
+   */
+  public ChildHandle child(String clientId) {
+    return clients.get(clientId);
+  }
+
+  /**
+   * Waits for the child started by a {@link LinkedJavaProcess} with the given launch id to register.
+   *
+   * @return the child's handle, or <code>null</code> if it didn't register in time
+   */
+  public ChildHandle awaitChild(String launchId, long timeoutMillis) throws InterruptedException {
+    CompletableFuture<ChildHandle> future = launchFuture(launchId);
+    try {
+      return future.get(timeoutMillis, TimeUnit.MILLISECONDS);
+    } catch (TimeoutException e) {
+      launches.remove(launchId, future);
+      return null;
+    } catch (ExecutionException e) {
+      throw new RuntimeException(e.getCause());
+    }
+  }
+
+  CompletableFuture<ChildHandle> registration(String launchId) {
+    return launchFuture(launchId);
+  }
+
+  void forgetRegistration(String launchId, CompletableFuture<ChildHandle> future) {
+    if (!future.isDone()) {
+      launches.remove(launchId, future);
+    }
+  }
+
+  private CompletableFuture<ChildHandle> launchFuture(String launchId) {
+    CompletableFuture<ChildHandle> future = launches.get(launchId);
+    if (future == null) {
+      CompletableFuture<ChildHandle> newFuture = new CompletableFuture<ChildHandle>();
+      future = launches.putIfAbsent(launchId, newFuture);
+      if (future == null) {
+        future = newFuture;
+      }
+    }
+    return future;
+  }
+
+  private void forgetLaunch(HeartBeatThread hb) {
+    if (hb.launchId != null) {
+      launches.remove(hb.launchId);
+    }
+  }
+
+  /**
+   * Kills a single child, identified by the <code>clientName:port</code> it registered with.
+   *
+   * @return <code>false</code> if no such child is connected
+   */
+  public boolean sendKillSignal(String clientId) {
+    HeartBeatThread hb = clients.get(clientId);
+    return hb != null && kill(hb);
+  }
+
+  public boolean anyAppServerAlive() {
     boolean alive = false;
-    for (Iterator it = heartBeatThreads.iterator(); it.hasNext();) {
-      HeartBeatThread hb = (HeartBeatThread) it.next();
+    for (HeartBeatThread hb : clients.snapshot()) {
       alive = alive || hb.pingAppServer();
     }
     return alive;
   }
 
-  public synchronized void removeDeadClient(HeartBeatThread thread) {
-    log("Removed dead client: " + thread.getName());
-    heartBeatThreads.remove(thread);
+  public void removeDeadClient(HeartBeatThread thread) {
+    if (clients.remove(thread)) {
+      forgetLaunch(thread);
+      LOG.info("Removed dead client: {}", thread.getClientId());
+      metrics.deadClientRemoved();
+    }
+  }
+
+  public void addThread(HeartBeatThread hb) {
+    clients.add(hb);
+  }
+
+  /**
+   * The <code>clientName:port</code> identities of the connected children.
+   */
+  public List<String> clientIds() {
+    List<String> ids = new ArrayList<String>();
+    for (HeartBeatThread hb : clients.snapshot()) {
+      ids.add(hb.getClientId());
+    }
+    return ids;
+  }
+
+  /**
+   * The identities of the connected children that registered with the given client name, usually their main class.
+   */
+  public List<String> clientIdsForName(String clientName) {
+    List<String> ids = new ArrayList<String>();
+    for (HeartBeatThread hb : clients.snapshot()) {
+      if (clientName.equals(hb.clientName())) {
+        ids.add(hb.getClientId());
+      }
+    }
+    return ids;
+  }
+
+  /**
+   * @return the identity of the connected child with that process id, or <code>null</code>
+   */
+  public String clientIdForPid(long pid) {
+    HeartBeatThread hb = clients.forPid(pid);
+    return hb == null ? null : hb.getClientId();
+  }
+
+  /**
+   * @return <code>false</code> if the server has been shut down, clients accepted just before that aren't pulsed
+   */
+  private boolean schedulePulses(TimerTask pulseTask) {
+    pulseLock.lock();
+    try {
+      if (pulseTimer == null) return false;
+      pulseTimer.schedule(pulseTask, pulseInterval, pulseInterval);
+      return true;
+    } finally {
+      pulseLock.unlock();
+    }
   }
 
-  public synchronized void addThread(HeartBeatThread hb) {
-    heartBeatThreads.add(hb);
+  /**
+   * Writes a pulse off the timer thread: a client whose socket buffer is full blocks its own write, not the pulses of
+   * every other client.
+   */
+  private void sendPulse(Runnable write) {
+    pulseLock.lock();
+    try {
+      if (pulseSender != null) pulseSender.execute(write);
+    } finally {
+      pulseLock.unlock();
+    }
+  }
+
+  /**
+   * Runs a diagnostic in the connected child with that <code>clientName:port</code> identity, see
+   * {@link ChildHandle#runDiagnostic(String, String, String, long)}.
+   */
+  public String runDiagnostic(String clientId, String command, String args, long timeoutMillis) throws IOException,
+      InterruptedException {
+    ChildHandle target = child(clientId);
+    if (target == null) throw new IllegalArgumentException("No heartbeat client named " + clientId);
+    return target.runDiagnostic(command, args, timeoutMillis);
   }
 
   public int listeningPort() {
-    if (!listenThread.isAlive()) throw new IllegalStateException("Heartbeat server has not started");
-    return listenThread.listeningPort();
+    ListenThread theListenThread = listenThread;
+    if (theListenThread == null || !theListenThread.isAlive()) throw new IllegalStateException("Heartbeat server has not started");
+    return theListenThread.listeningPort();
   }
 
-  private static class ListenThread extends Thread {
-    private ServerSocket    serverSocket;
-    private int             listeningPort = -1;
-    private boolean         isShutdown    = false;
-    private HeartBeatServer server;
+  /**
+   * Accepts clients. Runs on a thread from {@link LcpThreads}, as do the {@link HeartBeatThread}s it starts.
+   */
+  private static class ListenThread implements Runnable {
+    private ServerSocket            serverSocket;
+    private volatile int            listeningPort = -1;
+    private volatile boolean        isShutdown    = false;
+    private final CountDownLatch    online        = new CountDownLatch(1);
+    private HeartBeatServer         server;
+    private Thread                  thread;
 
     public ListenThread(HeartBeatServer server) {
       this.server = server;
     }
 
+    void start() {
+      thread = LcpThreads.start("HeartBeatServer listener", this);
+    }
+
+    void join() throws InterruptedException {
+      thread.join();
+    }
+
+    boolean isAlive() {
+      return thread.isAlive();
+    }
+
     public void shutdown() {
       try {
         isShutdown = true;
@@ -122,23 +422,19 @@ public class HeartBeatServer {
 
     public void run() {
       try {
-        synchronized (this) {
-          isShutdown = false;
-          serverSocket = new ServerSocket(0);
-          listeningPort = serverSocket.getLocalPort();
-          this.notifyAll();
-        }
-        log("Heartbeat server is online...");
+        isShutdown = false;
+        serverSocket = new ServerSocket(0, ACCEPT_BACKLOG);
+        listeningPort = serverSocket.getLocalPort();
+        online.countDown();
+        LOG.info("Heartbeat server is online...");
         Socket clientSocket;
         while ((clientSocket = serverSocket.accept()) != null) {
-          HeartBeatThread hb = new HeartBeatThread(server, clientSocket);
-          hb.setDaemon(true);
-          hb.start();
-          server.addThread(hb);
+          server.metrics.clientAccepted();
+          new HeartBeatThread(server, clientSocket).start();
         }
       } catch (Exception e) {
         if (isShutdown) {
-          log("Heartbeat server is shutdown");
+          LOG.info("Heartbeat server is shutdown");
         } else {
           throw new RuntimeException(e);
         }
@@ -146,33 +442,67 @@ public class HeartBeatServer {
     }
 
     public int listeningPort() {
-      synchronized (this) {
-        while (listeningPort == -1) {
-          try {
-            this.wait(5000);
-          } catch (InterruptedException e) {
-            throw new RuntimeException(e);
-          }
-        }
+      // a latch rather than wait/notify, so a virtual thread waiting here doesn't pin its carrier
+      try {
+        online.await();
+      } catch (InterruptedException e) {
+        throw new RuntimeException(e);
       }
       return listeningPort;
     }
   }
 
-  private static class HeartBeatThread extends Thread {
-    private Socket          socket;
-    private BufferedReader  in;
-    private PrintWriter     out;
-    private HeartBeatServer server;
-    private boolean         killed           = false;
-    private String          clientName;
-    private int             missedPulseCount = 0;
+  /**
+   * Reads everything a client sends, while a {@link TimerTask} on the server's shared pulse timer has the pulses written
+   * by the server's pulse sender threads. A pulse that hasn't been answered (or even written) by the time the next one
+   * is due counts as missed. Keeping the reading in one place
+   * lets pulse replies, app server pings and streamed diagnostic output share the connection.
+   * <p>
+   * The thread outlives its connection: when the connection drops, the client has {@link #RECONNECT_GRACE} to come back
+   * with its session token, and the session continues on the new socket with its missed pulse count intact.
+   */
+  private static class HeartBeatThread implements Runnable, ChildHandle {
+    private volatile Socket                        socket;
+    private volatile BufferedReader                in;
+    private volatile PrintWriter                   out;
+    private final String                           sessionToken     = UUID.randomUUID().toString();
+    private final BlockingQueue<Connection>        resumptions      = new LinkedBlockingQueue<Connection>();
+    // guards sessionClosed, so that a resume either reaches the session thread or is rejected
+    private final ReentrantLock                    resumeLock       = new ReentrantLock();
+    private boolean                                sessionClosed    = false;
+    private boolean                                handedOver       = false;
+    private HeartBeatServer                        server;
+    private volatile boolean                       killed           = false;
+    private String                                 clientName;
+    private volatile long                          pid              = -1;
+    private volatile String                        launchId;
+    private volatile long                          pulseSentAt;
+    private volatile long                          pulseLatency     = -1;
+    private final ReentrantLock                    pongLock         = new ReentrantLock();
+    private final BlockingQueue<String>            pongs            = new LinkedBlockingQueue<String>();
+    private int                                    pingSequence     = 0;
+    private final AtomicInteger                    missedPulseCount = new AtomicInteger();
+    private volatile boolean                       awaitingPulse    = false;
+    private final AtomicBoolean                    pulseWriting     = new AtomicBoolean();
+    private volatile String                        deathReason;
+    private volatile boolean                       dead             = false;
+    private volatile long                          lastSeen         = System.currentTimeMillis();
+    private TimerTask                              pulseTask;
+    private final ReentrantLock                    pingLock         = new ReentrantLock();
+    private final BlockingQueue<String>            appServerReplies = new LinkedBlockingQueue<String>();
+    private final AtomicInteger                    diagnosticIds    = new AtomicInteger();
+    private final Map<String, DiagnosticResponse> diagnostics      = new ConcurrentHashMap<String, DiagnosticResponse>();
+    private volatile String                        clientId         = "HeartBeatThread";
+    // 1 for clients that predate the protocol version, which must only get what they know
+    private volatile int                           protocol         = 1;
+    private volatile AppServerState                appServerState;
+    private final CompletableFuture<Boolean>       appServerReady   = new CompletableFuture<Boolean>();
 
     public HeartBeatThread(HeartBeatServer server, Socket s) {
       this.server = server;
       socket = s;
       try {
-        socket.setSoTimeout(PULSE_INTERVAL);
+        socket.setSoTimeout(server.pulseInterval);
         socket.setTcpNoDelay(true);
 
         in = new BufferedReader(new InputStreamReader(socket.getInputStream()));
@@ -182,33 +512,273 @@ public class HeartBeatServer {
       }
     }
 
+    void start() {
+      LcpThreads.start("HeartBeatThread", this);
+    }
+
+    private static int parseProtocol(String version) {
+      try {
+        return Integer.parseInt(version.trim());
+      } catch (NumberFormatException e) {
+        return 1;
+      }
+    }
+
     public void run() {
       try {
         // read clientName
         clientName = in.readLine();
-        this.setName(clientName);
-        log("got new client: " + clientName);
+        if (clientName == null) { throw new Exception("client closed before introducing itself."); }
+        if (clientName.startsWith(RESUME + " ")) {
+          handOver(clientName.substring(RESUME.length() + 1));
+          return;
+        }
+        int version = clientName.lastIndexOf(" " + PROTOCOL + " ");
+        if (version >= 0) {
+          protocol = parseProtocol(clientName.substring(version + PROTOCOL.length() + 2));
+          clientName = clientName.substring(0, version);
+        }
+        clientId = clientName;
+        Thread.currentThread().setName(clientName);
+        // from here on, liveness is decided by the pulse task
+        socket.setSoTimeout(0);
+        pulseTask = new TimerTask() {
+          public void run() {
+            pulse();
+          }
+        };
+        if (!server.schedulePulses(pulseTask)) {
+          LOG.info("Heartbeat server is shut down, killing late client {}", clientName);
+          sendKillSignal();
+          return;
+        }
+        LOG.info("got new client: {}", clientName);
+        server.addThread(this);
+        if (protocol >= 2) out.println(SESSION + " " + sessionToken);
 
         while (true) {
-          reallySleep(PULSE_INTERVAL);
-          log("send pulse to client: " + clientName);
-          out.println(PULSE);
           try {
-            String reply = in.readLine();
-            if (reply == null) { throw new Exception("read-half of socket closed."); }
-            missedPulseCount = 0;
-          } catch (SocketTimeoutException toe) {
-            log("Client: " + clientName + " missed " + (++missedPulseCount));
-            if (missedPulseCount >= MISS_ALLOW) { throw new Exception("Client missed " + MISS_ALLOW
-                                                                      + " pulses... considered it dead."); }
+            String line;
+            while ((line = in.readLine()) != null) {
+              lastSeen = System.currentTimeMillis();
+              dispatch(line);
+            }
+            throw new IOException("read-half of socket closed.");
+          } catch (IOException e) {
+            if (killed || deathReason != null || !awaitResume(e)) throw e;
           }
         }
       } catch (Exception e) {
+        if (handedOver) return;
         if (!killed) {
           // only removed itself if client isn't being sent a kill signal
-          log("Dead client detected: " + clientName + ". Exception message: " + e.getMessage());
+          LOG.info("Dead client detected: {}. Exception message: {}", clientName,
+                   deathReason != null ? deathReason : e.getMessage());
           server.removeDeadClient(this);
         }
+      } finally {
+        if (!handedOver) {
+          closeSession();
+          dead = true;
+          if (pid >= 0) {
+            OrphanRegistry.childGone(pid);
+          }
+          if (pulseTask != null) {
+            pulseTask.cancel();
+          }
+          closeSocket();
+          failDiagnostics();
+          appServerReady.complete(false);
+        }
+      }
+    }
+
+    /**
+     * This connection is a client resuming an existing session: pass the socket on to that session's thread.
+     */
+    private void handOver(String token) {
+      HeartBeatThread session = server.clients.forSessionToken(token);
+      if (session != null && !session.killed && session.deathReason == null
+          && session.resume(new Connection(socket, in, out))) {
+        handedOver = true;
+      } else {
+        LOG.warn("Rejecting resume of unknown or dead session {}", token);
+        out.println(KILL);
+      }
+    }
+
+    /**
+     * @return <code>false</code> if the session already gave up waiting, the caller then rejects the connection
+     */
+    private boolean resume(Connection connection) {
+      Socket old;
+      resumeLock.lock();
+      try {
+        if (sessionClosed) return false;
+        old = socket;
+        resumptions.offer(connection);
+      } finally {
+        resumeLock.unlock();
+      }
+      // the old connection may look healthy from this side, make sure the reader lets go of it
+      try {
+        old.close();
+      } catch (IOException e) {
+        // ignored
+      }
+      return true;
+    }
+
+    /**
+     * Rejects resumes from now on, and those that raced with giving up.
+     */
+    private void closeSession() {
+      resumeLock.lock();
+      try {
+        sessionClosed = true;
+      } finally {
+        resumeLock.unlock();
+      }
+      Connection late;
+      while ((late = resumptions.poll()) != null) {
+        late.out.println(KILL);
+        try {
+          late.socket.close();
+        } catch (IOException e) {
+          // ignored
+        }
+      }
+    }
+
+    private boolean awaitResume(IOException cause) throws InterruptedException, IOException {
+      LOG.info("Lost connection to client {} ({}), waiting up to {}ms for it to resume", clientName,
+               cause.getMessage(), server.reconnectGrace);
+      failDiagnostics();
+      Connection connection = resumptions.poll(server.reconnectGrace, TimeUnit.MILLISECONDS);
+      if (connection == null || killed || deathReason != null) {
+        if (connection != null) resumptions.offer(connection);
+        // closing the session in the finally block of run() turns away this and any later resume
+        return false;
+      }
+      connection.socket.setSoTimeout(0);
+      socket = connection.socket;
+      in = connection.in;
+      out = connection.out;
+      out.println(RESUMED);
+      server.metrics.sessionResumed();
+      LOG.info("Client {} resumed its session, missed pulses so far: {}", clientName, missedPulseCount.get());
+      return true;
+    }
+
+    private void failDiagnostics() {
+      for (Iterator<DiagnosticResponse> it = diagnostics.values().iterator(); it.hasNext();) {
+        it.next().fail("connection to " + clientName + " lost");
+        it.remove();
+      }
+    }
+
+    String sessionToken() {
+      return sessionToken;
+    }
+
+    private void pulse() {
+      if (awaitingPulse) {
+        int missed = missedPulseCount.incrementAndGet();
+        server.metrics.pulseMissed();
+        LOG.warn("Client: {} missed {}", clientName, missed);
+        if (missed >= MISS_ALLOW) {
+          deathReason = "Client missed " + MISS_ALLOW + " pulses... considered it dead.";
+          pulseTask.cancel();
+          closeSocket();
+          return;
+        }
+      }
+      // a pulse still stuck in a full socket buffer isn't answered either, so it counts as missed above
+      if (!pulseWriting.compareAndSet(false, true)) return;
+      LOG.debug("send pulse to client: {}", clientName);
+      awaitingPulse = true;
+      pulseSentAt = System.nanoTime();
+      server.sendPulse(new Runnable() {
+        public void run() {
+          try {
+            out.println(PULSE);
+            server.metrics.pulseSent();
+          } finally {
+            pulseWriting.set(false);
+          }
+        }
+      });
+    }
+
+    private void dispatch(String line) {
+      if (PULSE.equals(line)) {
+        if (awaitingPulse) {
+          pulseLatency = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - pulseSentAt);
+        }
+        awaitingPulse = false;
+        missedPulseCount.set(0);
+        server.metrics.pulseAcked();
+      } else if (line.startsWith(PID + " ")) {
+        try {
+          pid = Long.parseLong(line.substring(PID.length() + 1).trim());
+          server.clients.indexPid(this);
+          OrphanRegistry.childRegistered(pid);
+        } catch (NumberFormatException e) {
+          LOG.warn("Ignoring bad pid from client {}: {}", clientName, line);
+        }
+      } else if (line.startsWith(LAUNCH + " ")) {
+        launchId = line.substring(LAUNCH.length() + 1);
+        server.launchFuture(launchId).complete(this);
+      } else if (line.startsWith(PONG + " ")) {
+        pongs.offer(line.substring(PONG.length() + 1));
+      } else if (IM_ALIVE.equals(line) || NOT_AN_APP_SERVER.equals(line)) {
+        appServerReplies.offer(line);
+      } else if (line.startsWith(APP_SERVER_STATE + " ")) {
+        appServerStateChanged(line.substring(APP_SERVER_STATE.length() + 1));
+      } else if (line.startsWith(DIAG_DATA + " ")) {
+        // DIAG_DATA <id> <text>
+        String[] parts = line.split(" ", 3);
+        DiagnosticResponse response = diagnostics.get(parts[1]);
+        if (response != null) {
+          response.append(parts.length > 2 ? parts[2] : "");
+        }
+      } else if (line.startsWith(DIAG_END + " ")) {
+        // DIAG_END <id> OK|ERROR [message]
+        String[] parts = line.split(" ", 4);
+        DiagnosticResponse response = diagnostics.remove(parts[1]);
+        if (response != null) {
+          if (parts.length > 2 && DIAG_OK.equals(parts[2])) {
+            response.complete();
+          } else {
+            response.fail(parts.length > 3 ? parts[3] : "diagnostic failed");
+          }
+        }
+      } else {
+        LOG.warn("Ignoring unexpected message from client {}: {}", clientName, line);
+      }
+    }
+
+    private void appServerStateChanged(String stateName) {
+      AppServerState state;
+      try {
+        state = AppServerState.valueOf(stateName);
+      } catch (IllegalArgumentException e) {
+        LOG.warn("Ignoring unknown app server state from client {}: {}", clientName, stateName);
+        return;
+      }
+      if (state == appServerState) return;
+      appServerState = state;
+      LOG.info("App server {} is {}", clientName, state);
+      if (state != AppServerState.STARTING) {
+        appServerReady.complete(state == AppServerState.READY);
+      }
+    }
+
+    private void closeSocket() {
+      try {
+        socket.close();
+      } catch (IOException e) {
+        // ignored
       }
     }
 
@@ -216,26 +786,267 @@ public class HeartBeatServer {
       try {
         killed = true;
         out.println(KILL);
+        server.metrics.killSent();
         socket.close();
       } catch (Exception e) {
         // ignored - considered killed
       }
     }
 
+    /**
+     * The name the client introduced itself with, without the port.
+     */
+    String clientName() {
+      String id = clientId;
+      int colon = id.lastIndexOf(':');
+      return colon < 0 ? id : id.substring(0, colon);
+    }
+
+    long pid() {
+      return pid;
+    }
+
+    public String getClientId() {
+      return clientId;
+    }
+
+    public String getClientName() {
+      return clientName();
+    }
+
+    public long getPid() {
+      return pid;
+    }
+
+    public ClientHealth getHealth() {
+      return snapshot().getHealth();
+    }
+
+    public boolean isConnected() {
+      return getHealth() != ClientHealth.DEAD;
+    }
+
+    public long getPulseLatencyMillis() {
+      return pulseLatency;
+    }
+
+    public long ping(long timeoutMillis) throws InterruptedException {
+      if (protocol < 2) return -1;
+      // explicit locks here and below: the waits happen while holding them, which would pin a virtual thread's carrier
+      pongLock.lock();
+      try {
+        String sequence = Integer.toString(++pingSequence);
+        pongs.clear();
+        long start = System.nanoTime();
+        out.println(PING + " " + sequence);
+        long deadline = start + TimeUnit.MILLISECONDS.toNanos(timeoutMillis);
+        long remaining;
+        while ((remaining = deadline - System.nanoTime()) > 0) {
+          String pong = pongs.poll(remaining, TimeUnit.NANOSECONDS);
+          if (sequence.equals(pong)) return TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+        }
+        return -1;
+      } finally {
+        pongLock.unlock();
+      }
+    }
+
+    public AppServerState getAppServerState() {
+      return appServerState;
+    }
+
+    public boolean awaitAppServerReady(long timeoutMillis) throws InterruptedException {
+      try {
+        return appServerReady.get(timeoutMillis, TimeUnit.MILLISECONDS);
+      } catch (TimeoutException e) {
+        return false;
+      } catch (ExecutionException e) {
+        throw new RuntimeException(e.getCause());
+      }
+    }
+
+    public boolean kill() {
+      return server.kill(this);
+    }
+
+    HeartBeatMetrics.ClientSnapshot snapshot() {
+      int missed = missedPulseCount.get();
+      return new HeartBeatMetrics.ClientSnapshot(clientId, System.currentTimeMillis() - lastSeen, missed,
+                                                 dead || killed ? ClientHealth.DEAD
+                                                     : ClientHealth.fromMissedPulses(missed));
+    }
+
     public boolean pingAppServer() {
-      boolean alive = false;
+      pingLock.lock();
       try {
+        appServerReplies.clear();
         out.println(IS_APP_SERVER_ALIVE);
-        String reply = in.readLine();
-        if (reply != null && IM_ALIVE.equals(reply)) {
-          alive = true;
+        try {
+          String reply = appServerReplies.poll(server.pulseInterval, TimeUnit.MILLISECONDS);
+          return IM_ALIVE.equals(reply);
+        } catch (InterruptedException e) {
+          Thread.currentThread().interrupt();
+          return false;
         }
-      } catch (Exception e) {
-        // ignore - dead anyway
+      } finally {
+        pingLock.unlock();
+      }
+    }
+
+    public String runDiagnostic(String command, String args, long timeoutMillis) throws IOException,
+        InterruptedException {
+      if (protocol < 2) throw new IOException(clientName + " is too old to run diagnostics");
+      String id = Integer.toString(diagnosticIds.incrementAndGet());
+      DiagnosticResponse response = new DiagnosticResponse();
+      diagnostics.put(id, response);
+      out.println(DIAG + " " + id + " " + command + (args == null || args.length() == 0 ? "" : " " + args));
+      try {
+        return response.await(timeoutMillis, clientName + " " + command);
+      } finally {
+        diagnostics.remove(id);
       }
-      return alive;
     }
+  }
+
+  private static class MXBeanImpl implements HeartBeatServerMXBean {
+    private final HeartBeatServer server;
+
+    MXBeanImpl(HeartBeatServer server) {
+      this.server = server;
+    }
+
+    public int getConnectedClients() {
+      return server.clients.size();
+    }
+
+    public long getClientsAccepted() {
+      return server.metrics.getClientsAccepted();
+    }
+
+    public long getPulsesSent() {
+      return server.metrics.getPulsesSent();
+    }
+
+    public long getPulsesAcked() {
+      return server.metrics.getPulsesAcked();
+    }
+
+    public long getMissedPulses() {
+      return server.metrics.getMissedPulses();
+    }
+
+    public long getKills() {
+      return server.metrics.getKills();
+    }
+
+    public long getDeadClientRemovals() {
+      return server.metrics.getDeadClientRemovals();
+    }
+
+    public Map<String, String> getClientHealth() {
+      Map<String, String> health = new HashMap<String, String>();
+      for (HeartBeatMetrics.ClientSnapshot client : server.metricsSnapshot().getClients()) {
+        health.put(client.getClientName(), client.getHealth().name());
+      }
+      return health;
+    }
+
+    public Map<String, Long> getClientLastSeenAgeMillis() {
+      Map<String, Long> ages = new HashMap<String, Long>();
+      for (HeartBeatMetrics.ClientSnapshot client : server.metricsSnapshot().getClients()) {
+        ages.put(client.getClientName(), client.getLastSeenAgeMillis());
+      }
+      return ages;
+    }
+  }
+
+  private static class Connection {
+    private final Socket         socket;
+    private final BufferedReader in;
+    private final PrintWriter    out;
+
+    Connection(Socket socket, BufferedReader in, PrintWriter out) {
+      this.socket = socket;
+      this.in = in;
+      this.out = out;
+    }
+  }
 
+  /**
+   * Connected clients keyed by their <code>clientName:port</code> identity, with a secondary index on process id.
+   * Registration, removal and lookups never contend on a server-wide lock, so a slow app server ping or kill doesn't
+   * hold up clients connecting or dying.
+   */
+  private static class ClientRegistry {
+    private final ConcurrentMap<String, HeartBeatThread> byId      = new ConcurrentHashMap<String, HeartBeatThread>();
+    private final ConcurrentMap<Long, HeartBeatThread>   byPid     = new ConcurrentHashMap<Long, HeartBeatThread>();
+    private final ConcurrentMap<String, HeartBeatThread> bySession = new ConcurrentHashMap<String, HeartBeatThread>();
+
+    void add(HeartBeatThread hb) {
+      byId.put(hb.getClientId(), hb);
+      bySession.put(hb.sessionToken(), hb);
+    }
+
+    void indexPid(HeartBeatThread hb) {
+      byPid.put(hb.pid(), hb);
+    }
+
+    boolean remove(HeartBeatThread hb) {
+      if (hb.pid() >= 0) {
+        byPid.remove(hb.pid(), hb);
+      }
+      bySession.remove(hb.sessionToken(), hb);
+      return byId.remove(hb.getClientId(), hb);
+    }
+
+    HeartBeatThread forSessionToken(String token) {
+      return bySession.get(token);
+    }
+
+    HeartBeatThread get(String id) {
+      return byId.get(id);
+    }
+
+    HeartBeatThread forPid(long pid) {
+      return byPid.get(pid);
+    }
+
+    List<HeartBeatThread> snapshot() {
+      return new ArrayList<HeartBeatThread>(byId.values());
+    }
+
+    int size() {
+      return byId.size();
+    }
+  }
+
+  private static class DiagnosticResponse {
+    private final StringBuilder  output = new StringBuilder();
+    private final CountDownLatch done   = new CountDownLatch(1);
+    private volatile String      error;
+
+    synchronized void append(String line) {
+      output.append(line).append(System.getProperty("line.separator", "\n"));
+    }
+
+    void complete() {
+      done.countDown();
+    }
+
+    void fail(String message) {
+      error = message;
+      done.countDown();
+    }
+
+    String await(long timeoutMillis, String description) throws IOException, InterruptedException {
+      if (!done.await(timeoutMillis, TimeUnit.MILLISECONDS)) {
+        throw new IOException("Timed out after " + timeoutMillis + "ms waiting for diagnostic " + description);
+      }
+      if (error != null) throw new IOException("Diagnostic " + description + " failed: " + error);
+      synchronized (this) {
+        return output.toString();
+      }
+    }
   }
 
   public static void reallySleep(long millis) {
@@ -0,0 +1,50 @@
+/*
+ * Copyright Terracotta, Inc.
+ * Copyright Super iPaaS Integration LLC, an IBM Company 2024
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.tc.lcp;
+
+import java.util.Map;
+
+/**
+ * JMX view of a {@link HeartBeatServer}, registered as <code>com.tc.lcp:type=HeartBeatServer,port=&lt;port&gt;</code>
+ * while the server runs.
+ */
+public interface HeartBeatServerMXBean {
+
+  int getConnectedClients();
+
+  long getClientsAccepted();
+
+  long getPulsesSent();
+
+  long getPulsesAcked();
+
+  long getMissedPulses();
+
+  long getKills();
+
+  long getDeadClientRemovals();
+
+  /**
+   * Client name to {@link ClientHealth} name.
+   */
+  Map<String, String> getClientHealth();
+
+  /**
+   * Client name to milliseconds since anything was last received from it.
+   */
+  Map<String, Long> getClientLastSeenAgeMillis();
+}
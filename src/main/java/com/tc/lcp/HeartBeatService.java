@@ -16,50 +16,265 @@
  */
 package com.tc.lcp;
 
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Predicate;
+
+/**
+ * The JVM-wide default {@link HeartBeatDomain}, used by every {@link LinkedJavaProcess} that isn't bound to a domain of
+ * its own. Setting <code>com.tc.lcp.heartbeat.shards</code> to more than one makes the default domain a
+ * {@link ShardedHeartBeatDomain}. Setting <code>com.tc.lcp.registry.dir</code> turns on the {@link OrphanRegistry}.
+ */
 public class HeartBeatService {
-  private static HeartBeatServer server;
+  public static final String                 SHARDS_PROPERTY         = "com.tc.lcp.heartbeat.shards";
+  /**
+   * How long the shutdown hook gives children to exit before killing them forcibly, in milliseconds.
+   */
+  public static final String                 SHUTDOWN_GRACE_PROPERTY = "com.tc.lcp.shutdown.grace";
+
+  private static final Log                   LOG                     = Log.getLogger(HeartBeatService.class);
+  private static final long                  FORCED_KILL_WAIT        = 200;
+  private static final int                   MAX_KILL_THREADS        = 16;
+
+  // volatile for the shutdown hook, which must not take the class lock
+  private static volatile HeartBeatDomain    domain;
+  private static boolean                     shutdownHookInstalled;
+  // child side: the clients registered as app servers, and the state they report
+  private static final List<HeartBeatClient> appServers              = new ArrayList<HeartBeatClient>();
+  private static AppServerState              appServerState;
 
   public static synchronized void startHeartBeatService() {
-    if (server == null) {
-      server = new HeartBeatServer();
-      server.start();
+    if (domain == null) {
+      final File registryDir = OrphanRegistry.configuredDirectory();
+      if (registryDir != null) {
+        // a sweep may wait for orphans to die, which must not hold up whoever waits for this lock
+        LcpThreads.start("OrphanRegistry sweep", new Runnable() {
+          public void run() {
+            OrphanRegistry.sweep(registryDir);
+          }
+        });
+        try {
+          OrphanRegistry.enable(registryDir);
+        } catch (IOException e) {
+          LOG.warn("Can't enable the orphan registry in " + registryDir, e);
+        }
+      }
+      int shards = Integer.getInteger(SHARDS_PROPERTY, 1);
+      domain = shards > 1 ? new ShardedHeartBeatDomain(shards) : new HeartBeatServer();
+      domain.start();
+      if (!shutdownHookInstalled) {
+        Runtime.getRuntime().addShutdownHook(new Thread("HeartBeatService shutdown") {
+          @Override
+          public void run() {
+            reapChildren(Long.getLong(SHUTDOWN_GRACE_PROPERTY, 500));
+            // the children are gone, nothing is left for a sweep to find
+            OrphanRegistry.disable();
+          }
+        });
+        shutdownHookInstalled = true;
+      }
     }
   }
   
   public static synchronized void stopHeartBeatServer() {
-    if (server != null) {
-      server.shutdown();
-      server = null;
+    if (domain != null) {
+      domain.shutdown();
+      domain = null;
+      OrphanRegistry.disable();
+    }
+  }
+
+  /**
+   * Stops every child at once, as the shutdown hook does when this JVM exits: the children of the default domain are
+   * sent <code>KILL</code> in parallel and every child started by a {@link LinkedJavaProcess} is asked to terminate.
+   * Those still running after <code>graceMillis</code> are killed forcibly. The generated classpath jars are deleted
+   * last.
+   *
+   * @return the number of children that had to be killed forcibly
+   */
+  public static int reapChildren(long graceMillis) {
+    long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(graceMillis);
+    List<LinkedJavaProcess> processes = LinkedJavaProcess.liveProcesses();
+    ExecutorService killers = sendKillSignals(domain);
+    // also reaches children that didn't connect to the heartbeat yet
+    for (LinkedJavaProcess process : processes) {
+      process.terminate();
+    }
+
+    int forced = 0;
+    try {
+      if (killers != null) {
+        killers.awaitTermination(remainingMillis(deadline), TimeUnit.MILLISECONDS);
+      }
+      List<LinkedJavaProcess> stubborn = new ArrayList<LinkedJavaProcess>();
+      for (LinkedJavaProcess process : processes) {
+        if (!process.awaitExit(remainingMillis(deadline))) {
+          process.destroyForcibly();
+          stubborn.add(process);
+        }
+      }
+      forced = stubborn.size();
+      long forcedDeadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(FORCED_KILL_WAIT);
+      for (LinkedJavaProcess process : stubborn) {
+        process.awaitExit(remainingMillis(forcedDeadline));
+      }
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+    }
+    if (forced > 0) {
+      LOG.warn("Killed {} children forcibly, they didn't exit within {}ms", forced, graceMillis);
+    }
+    // after the children are gone, Windows doesn't delete files in use
+    LinkedJavaProcess.deleteClasspathJars();
+    JavaCommand.deleteArgFiles();
+    return forced;
+  }
+
+  private static ExecutorService sendKillSignals(HeartBeatDomain heartBeatDomain) {
+    if (heartBeatDomain == null) return null;
+    List<ChildHandle> children = heartBeatDomain.children();
+    if (children.isEmpty()) return null;
+    // a KILL is a write to the child's socket, which blocks if the child stopped reading
+    ExecutorService killers = Executors.newFixedThreadPool(Math.min(children.size(), MAX_KILL_THREADS),
+                                                           new ThreadFactory() {
+                                                             public Thread newThread(Runnable r) {
+                                                               return LcpThreads.newThread("HeartBeatService kill", r);
+                                                             }
+                                                           });
+    for (final ChildHandle child : children) {
+      killers.execute(new Runnable() {
+        public void run() {
+          child.kill();
+        }
+      });
     }
+    killers.shutdown();
+    return killers;
+  }
+
+  private static long remainingMillis(long deadlineNanos) {
+    return Math.max(0, TimeUnit.NANOSECONDS.toMillis(deadlineNanos - System.nanoTime()));
+  }
+
+  /**
+   * Terminates children left behind by dead parents, see {@link OrphanRegistry}. Uses the directory named by
+   * <code>com.tc.lcp.registry.dir</code>, and does nothing if that isn't set.
+   *
+   * @return the number of children terminated
+   */
+  public static int sweepOrphans() {
+    File registryDir = OrphanRegistry.configuredDirectory();
+    return registryDir == null ? 0 : OrphanRegistry.sweep(registryDir);
+  }
+
+  /**
+   * The default domain, started if necessary.
+   */
+  public static synchronized HeartBeatDomain domain() {
+    startHeartBeatService();
+    return domain;
   }
   
   public static synchronized int listenPort() {
     ensureServerHasStarted();
-    return server.listeningPort();
+    return domain.nextServer().listeningPort();
   }
   
   public static synchronized void registerForHeartBeat(int listenPort, String clientName) {
     registerForHeartBeat(listenPort, clientName, false);
   }
   
+  /**
+   * Called in the child to link it to the parent listening on <code>listenPort</code>. No server runs in the child.
+   */
   public static synchronized void registerForHeartBeat(int listenPort, String clientName, boolean isAppServer) {
-    ensureServerHasStarted();
     HeartBeatClient client = new HeartBeatClient(listenPort, clientName, isAppServer);
-    client.setDaemon(true);
-    client.start();
+    if (isAppServer) {
+      appServers.add(client);
+      if (appServerState != null) {
+        client.reportAppServerState(appServerState);
+      }
+    }
+    // the client is a Thread for compatibility, but runs on one from LcpThreads
+    LcpThreads.start("HeartBeatClient", client);
   }
   
+  /**
+   * Called in an app server child to push its lifecycle state to the parent, see
+   * {@link ChildHandle#awaitAppServerReady(long)}. The state is kept, so it may be reported before registering.
+   */
+  public static synchronized void reportAppServerState(AppServerState state) {
+    appServerState = state;
+    for (HeartBeatClient client : appServers) {
+      client.reportAppServerState(state);
+    }
+  }
+
+  static synchronized AppServerState appServerState() {
+    return appServerState;
+  }
+
   public static synchronized void sendKillSignalToChildren() {
     ensureServerHasStarted();
-    server.sendKillSignalToChildren();
+    domain.sendKillSignalToChildren();
   }
   
+  /**
+   * Kills one child, identified by the <code>clientName:port</code> it registered with.
+   */
+  public static synchronized boolean sendKillSignal(String clientId) {
+    ensureServerHasStarted();
+    ChildHandle child = domain.child(clientId);
+    return child != null && child.kill();
+  }
+
+  /**
+   * Kills the children the predicate accepts, for example
+   * <code>killChildren(c -&gt; c.getClientName().equals(MyMain.class.getName()))</code>.
+   */
+  public static synchronized int killChildren(Predicate<? super ChildHandle> predicate) {
+    ensureServerHasStarted();
+    return domain.killChildren(predicate);
+  }
+
+  public static synchronized List<ChildHandle> children() {
+    ensureServerHasStarted();
+    return domain.children();
+  }
+
+  public static synchronized ChildHandle child(String clientId) {
+    ensureServerHasStarted();
+    return domain.child(clientId);
+  }
+
   public static synchronized boolean anyAppServerAlive() {
     ensureServerHasStarted();
-    return server.anyAppServerAlive();
+    return domain.anyAppServerAlive();
   }
   
+  public static synchronized HeartBeatMetrics.Snapshot metricsSnapshot() {
+    ensureServerHasStarted();
+    return domain.metricsSnapshot();
+  }
+
+  /**
+   * Runs one of the {@link DiagnosticCommands} (or an application registered command) in the child registered as
+   * <code>clientName</code> and returns its output.
+   */
+  public static String runDiagnostic(String clientName, String command, String args, long timeoutMillis)
+      throws IOException, InterruptedException {
+    ChildHandle child = child(clientName);
+    if (child == null) throw new IllegalArgumentException("No heartbeat client named " + clientName);
+    return child.runDiagnostic(command, args, timeoutMillis);
+  }
+
   private static void ensureServerHasStarted() {
-    if (server == null) new IllegalStateException("Heartbeat service has not started yet!");
+    if (domain == null) throw new IllegalStateException("Heartbeat service has not started yet!");
   }
 }
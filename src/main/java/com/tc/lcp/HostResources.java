@@ -0,0 +1,68 @@
+/*
+ * Copyright Terracotta, Inc.
+ * Copyright Super iPaaS Integration LLC, an IBM Company 2024
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.tc.lcp;
+
+import java.io.File;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+
+/**
+ * What the host has to offer, read from <code>/proc</code>. Every method returns -1 where that can't be read.
+ */
+final class HostResources {
+  private static final File LOADAVG = new File("/proc/loadavg");
+  private static final File MEMINFO = new File("/proc/meminfo");
+
+  private HostResources() {
+    // cannot instantiate
+  }
+
+  /**
+   * The one minute load average.
+   */
+  static double loadAverage() {
+    try {
+      String content = new String(Files.readAllBytes(LOADAVG.toPath()), StandardCharsets.US_ASCII);
+      return Double.parseDouble(content.substring(0, content.indexOf(' ')));
+    } catch (Exception e) {
+      return -1;
+    }
+  }
+
+  static long availableMemory() {
+    return memInfo("MemAvailable:");
+  }
+
+  static long totalMemory() {
+    return memInfo("MemTotal:");
+  }
+
+  private static long memInfo(String key) {
+    try {
+      for (String line : Files.readAllLines(MEMINFO.toPath(), StandardCharsets.US_ASCII)) {
+        if (line.startsWith(key)) {
+          // MemAvailable:   12345678 kB
+          String[] parts = line.trim().split("\\s+");
+          return Long.parseLong(parts[1]) * 1024;
+        }
+      }
+    } catch (Exception e) {
+      // not Linux
+    }
+    return -1;
+  }
+}
@@ -0,0 +1,267 @@
+/*
+ * Copyright Terracotta, Inc.
+ * Copyright Super iPaaS Integration LLC, an IBM Company 2024
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.tc.lcp;
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Assembles a <code>java</code> command line. The arguments that stay the same from one launch to the next (classpath
+ * and JVM options) are written to a JDK <code>@argfile</code> once they get long, which lifts the OS limits on command
+ * length for Java 9+ children. Argument files are named after the hash of their content, so relaunching with the same
+ * arguments reuses the file written the first time. The shutdown hook of {@link HeartBeatService} deletes them once
+ * the children are gone.
+ * <p>
+ * The command line is laid out as <code>[prefix] java [launch args] [stable args] mainClass [args]</code>, so the
+ * stable arguments, which include the caller's own JVM options, come last and win.
+ */
+public final class JavaCommand {
+  public static final int                   DEFAULT_ARG_FILE_THRESHOLD = 4 * 1024;
+
+  private static final String               ARG_FILE_PREFIX            = "lcpargs-";
+  private static final String               ARG_FILE_SUFFIX            = ".txt";
+  // java executable -> major version, 0 if unknown
+  private static final Map<String, Integer> JAVA_VERSIONS              = new ConcurrentHashMap<String, Integer>();
+  // what the shutdown hook of HeartBeatService cleans up
+  private static final Set<File>            ARG_FILES                  = ConcurrentHashMap.newKeySet();
+
+  private final String                      java;
+  private final List<String>                prefix                     = new ArrayList<String>();
+  private final List<String>                launchArgs                 = new ArrayList<String>();
+  private final List<String>                stableArgs                 = new ArrayList<String>();
+  private final List<String>                mainArgs                   = new ArrayList<String>();
+  private int                               argFileThreshold           = DEFAULT_ARG_FILE_THRESHOLD;
+
+  public JavaCommand(String java) {
+    this.java = java;
+  }
+
+  /**
+   * A command that runs <code>java</code>, such as <code>taskset</code>.
+   */
+  public JavaCommand prefix(List<String> wrapper) {
+    prefix.addAll(wrapper);
+    return this;
+  }
+
+  public JavaCommand classpath(String classpath) {
+    stableArgs.add("-classpath");
+    stableArgs.add(classpath);
+    return this;
+  }
+
+  /**
+   * JVM options that are the same on every launch, candidates for the argument file.
+   */
+  public JavaCommand jvmArgs(List<String> args) {
+    stableArgs.addAll(args);
+    return this;
+  }
+
+  /**
+   * JVM options that change on every launch, such as ids or per run directories. They stay on the command line.
+   */
+  public JavaCommand launchArgs(List<String> args) {
+    launchArgs.addAll(args);
+    return this;
+  }
+
+  public JavaCommand main(String mainClass, List<String> args) {
+    mainArgs.add(mainClass);
+    mainArgs.addAll(args);
+    return this;
+  }
+
+  /**
+   * Total length of the stable arguments above which they go to an argument file.
+   */
+  public JavaCommand argFileThreshold(int chars) {
+    this.argFileThreshold = chars;
+    return this;
+  }
+
+  /**
+   * The whole command, as if no argument file were used.
+   */
+  public String[] toArray() {
+    List<String> rv = new ArrayList<String>(prefix);
+    rv.add(java);
+    rv.addAll(launchArgs);
+    rv.addAll(stableArgs);
+    rv.addAll(mainArgs);
+    return rv.toArray(new String[rv.size()]);
+  }
+
+  /**
+   * The command to execute. With an <code>argFileDirectory</code>, long stable arguments are replaced by a reference
+   * to an argument file there; without one this is {@link #toArray()}.
+   */
+  public String[] build(File argFileDirectory) throws IOException {
+    if (argFileDirectory == null || length(stableArgs) <= argFileThreshold) return toArray();
+    List<String> rv = new ArrayList<String>(prefix);
+    rv.add(java);
+    rv.addAll(launchArgs);
+    rv.add("@" + argFile(argFileDirectory, stableArgs).getAbsolutePath());
+    rv.addAll(mainArgs);
+    return rv.toArray(new String[rv.size()]);
+  }
+
+  private static int length(List<String> args) {
+    int rv = 0;
+    for (String arg : args) {
+      rv += arg.length() + 1;
+    }
+    return rv;
+  }
+
+  static File argFile(File directory, List<String> args) throws IOException {
+    StringBuilder content = new StringBuilder();
+    for (String arg : args) {
+      content.append(quote(arg)).append('\n');
+    }
+    byte[] bytes = content.toString().getBytes(StandardCharsets.UTF_8);
+    File file = new File(directory, ARG_FILE_PREFIX + sha256(bytes).substring(0, 16) + ARG_FILE_SUFFIX);
+    ARG_FILES.add(file);
+    if (file.isFile() && file.length() == bytes.length) return file;
+    // written aside and moved in place, so that a concurrent launch never reads half a file
+    File tmp = File.createTempFile(ARG_FILE_PREFIX, ".tmp", directory);
+    try {
+      Files.write(tmp.toPath(), bytes);
+      Files.move(tmp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    } finally {
+      tmp.delete();
+    }
+    return file;
+  }
+
+  /**
+   * Deletes the argument files written or reused by all commands.
+   *
+   * @return the number deleted
+   */
+  static int deleteArgFiles() {
+    int deleted = 0;
+    for (Iterator<File> it = ARG_FILES.iterator(); it.hasNext();) {
+      if (it.next().delete()) deleted++;
+      it.remove();
+    }
+    return deleted;
+  }
+
+  /**
+   * Quotes an argument for an argument file: within double quotes the launcher takes backslash escapes.
+   */
+  static String quote(String arg) {
+    StringBuilder sb = new StringBuilder(arg.length() + 2).append('"');
+    for (int i = 0; i < arg.length(); i++) {
+      char c = arg.charAt(i);
+      switch (c) {
+        case '\\':
+          sb.append("\\\\");
+          break;
+        case '"':
+          sb.append("\\\"");
+          break;
+        case '\n':
+          sb.append("\\n");
+          break;
+        case '\r':
+          sb.append("\\r");
+          break;
+        case '\t':
+          sb.append("\\t");
+          break;
+        default:
+          sb.append(c);
+      }
+    }
+    return sb.append('"').toString();
+  }
+
+  /**
+   * Whether the given <code>java</code> takes argument files, i.e. is Java 9 or later. Read from the
+   * <code>release</code> file of its installation; <code>false</code> when that can't be found.
+   */
+  public static boolean supportsArgFiles(File javaExecutable) {
+    String key = javaExecutable.getAbsolutePath();
+    Integer version = JAVA_VERSIONS.get(key);
+    if (version == null) {
+      version = javaVersion(javaExecutable);
+      JAVA_VERSIONS.put(key, version);
+    }
+    return version >= 9;
+  }
+
+  private static int javaVersion(File javaExecutable) {
+    // bin/java of a JDK or JRE, or jre/bin/java of a Java 8 JDK
+    File home = javaExecutable.getAbsoluteFile().getParentFile().getParentFile();
+    File release = new File(home, "release");
+    if (!release.isFile() && home.getParentFile() != null) release = new File(home.getParentFile(), "release");
+    if (!release.isFile()) return 0;
+    Properties props = new Properties();
+    try {
+      props.load(new ByteArrayInputStream(Files.readAllBytes(release.toPath())));
+      String value = props.getProperty("JAVA_VERSION", "").replace("\"", "");
+      if (value.startsWith("1.")) value = value.substring(2);
+      int end = 0;
+      while (end < value.length() && Character.isDigit(value.charAt(end))) {
+        end++;
+      }
+      return Integer.parseInt(value.substring(0, end));
+    } catch (Exception e) {
+      return 0;
+    }
+  }
+
+  /**
+   * A one line summary of a command for the log: the executable, the size and a hash of the whole command.
+   */
+  public static String digest(String[] command) {
+    StringBuilder all = new StringBuilder();
+    for (String arg : command) {
+      all.append(arg).append('\u0000');
+    }
+    return new File(command[0]).getName() + " [" + command.length + " args, " + all.length() + " chars, sha-256 "
+           + sha256(all.toString().getBytes(StandardCharsets.UTF_8)).substring(0, 12) + "]";
+  }
+
+  private static String sha256(byte[] bytes) {
+    try {
+      byte[] hash = MessageDigest.getInstance("SHA-256").digest(bytes);
+      StringBuilder sb = new StringBuilder(hash.length * 2);
+      for (byte b : hash) {
+        sb.append(Character.forDigit((b >> 4) & 0xf, 16)).append(Character.forDigit(b & 0xf, 16));
+      }
+      return sb.toString();
+    } catch (NoSuchAlgorithmException e) {
+      throw new AssertionError(e);
+    }
+  }
+}
@@ -0,0 +1,182 @@
+/*
+ * Copyright Terracotta, Inc.
+ * Copyright Super iPaaS Integration LLC, an IBM Company 2024
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.tc.lcp;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * Named sets of heap, GC, CPU and JIT settings for children, so that they don't pick defaults that scale with the
+ * whole host. The settings are sized from the number of children planned to run at the same time: each gets its
+ * share of the host's memory and cores, within the bounds of the profile.
+ * <p>
+ * Explicit JVM arguments win: a profile setting is left out when the process already has one for the same option
+ * (any <code>-XX:+Use...GC</code> that selects a collector counts as the same option, and
+ * <code>MaxRAMPercentage</code> as <code>-Xmx</code>).
+ * An overriding initial heap larger than the profile's max heap raises the latter to match.
+ * The settings need a child of at least Java 8u191, for <code>ActiveProcessorCount</code>.
+ *
+ * @see LinkedJavaProcess#setJvmProfile(JvmProfile, int)
+ */
+public enum JvmProfile {
+  /**
+   * Many short lived children: serial GC, C1 only, a single core and a small heap.
+   */
+  SMALL_FAST_START(0.25, 32, 256) {
+    @Override
+    List<String> tuning(int cpus, long heapMegabytes) {
+      return Arrays.asList("-Xms" + MIN_HEAP_MEGABYTES + "m", "-Xmx" + heapMegabytes + "m", "-XX:+UseSerialGC",
+                           "-XX:TieredStopAtLevel=1", "-XX:ActiveProcessorCount=1");
+    }
+  },
+
+  /**
+   * Few long running servers: parallel GC, a fixed heap and their share of the cores.
+   */
+  THROUGHPUT_SERVER(0.5, 256, 32 * 1024) {
+    @Override
+    List<String> tuning(int cpus, long heapMegabytes) {
+      return Arrays.asList("-Xms" + heapMegabytes + "m", "-Xmx" + heapMegabytes + "m", "-XX:+UseParallelGC",
+                           "-XX:ActiveProcessorCount=" + cpus);
+    }
+  };
+
+  private static final long        MIN_HEAP_MEGABYTES = 16;
+  // options that select a collector, unlike e.g. UseAdaptiveSizePolicyWithSystemGC
+  private static final Set<String> GC_SELECTION       = new HashSet<String>(
+      Arrays.asList("UseSerialGC", "UseParallelGC", "UseParallelOldGC", "UseConcMarkSweepGC", "UseG1GC", "UseZGC",
+                    "UseShenandoahGC", "UseEpsilonGC"));
+
+  // share of a child's memory that goes to the heap, the rest is left for metaspace, threads and the JIT
+  private final double             heapFraction;
+  private final long               minHeapMegabytes;
+  private final long               maxHeapMegabytes;
+
+  JvmProfile(double heapFraction, long minHeapMegabytes, long maxHeapMegabytes) {
+    this.heapFraction = heapFraction;
+    this.minHeapMegabytes = minHeapMegabytes;
+    this.maxHeapMegabytes = maxHeapMegabytes;
+  }
+
+  abstract List<String> tuning(int cpus, long heapMegabytes);
+
+  public List<String> jvmArgs(int plannedChildren) {
+    return jvmArgs(plannedChildren, Collections.<String> emptyList());
+  }
+
+  /**
+   * The profile's settings for one of <code>plannedChildren</code> children, without those <code>overrides</code>
+   * already sets.
+   */
+  public List<String> jvmArgs(int plannedChildren, List<String> overrides) {
+    return jvmArgs(plannedChildren, overrides, null);
+  }
+
+  /**
+   * As {@link #jvmArgs(int, List)}, for a child pinned to the CPUs of <code>placement</code>, if any: the child then
+   * gets as many cores as it is pinned to.
+   */
+  public List<String> jvmArgs(int plannedChildren, List<String> overrides, CpuPlacement placement) {
+    if (plannedChildren < 1) throw new IllegalArgumentException("plannedChildren: " + plannedChildren);
+    int cpus = placement != null && placement.getCpuCount() > 0 ? placement.getCpuCount()
+        : Math.max(1, Runtime.getRuntime().availableProcessors() / plannedChildren);
+    long heap = Math.min(maxHeapMegabytes, Math.max(minHeapMegabytes, (long) (memoryPerChild(plannedChildren)
+                                                                                * heapFraction) >> 20));
+    Set<String> overridden = new HashSet<String>();
+    long initialHeap = 0;
+    for (String arg : overrides) {
+      String key = optionKey(arg);
+      overridden.add(key);
+      if (key.equals("-Xms")) initialHeap = arg.startsWith("-Xms") ? megabytes(arg.substring(4)) : -1;
+    }
+    if (overridden.contains("-Xmx")) {
+      // an initial heap sized for the profile's max could exceed the overriding one
+      overridden.add("-Xms");
+    } else if (initialHeap < 0) {
+      // a share of RAM can't be compared, leave the max heap to the JVM
+      overridden.add("-Xmx");
+    } else {
+      // the JVM refuses to start with an initial heap above the max
+      heap = Math.max(heap, initialHeap);
+    }
+    List<String> rv = new ArrayList<String>();
+    for (String arg : tuning(cpus, heap)) {
+      if (!overridden.contains(optionKey(arg))) rv.add(arg);
+    }
+    return rv;
+  }
+
+  private static long memoryPerChild(int plannedChildren) {
+    long total = HostResources.totalMemory();
+    if (total < 0) {
+      // the default max heap is a quarter of physical memory
+      total = Runtime.getRuntime().maxMemory() * 4;
+    }
+    return total / plannedChildren;
+  }
+
+  /**
+   * A <code>-Xmx</code> style size in megabytes, rounded up, or -1 if it can't be parsed.
+   */
+  static long megabytes(String size) {
+    if (size.length() == 0) return -1;
+    long unit;
+    switch (Character.toLowerCase(size.charAt(size.length() - 1))) {
+      case 'k':
+        unit = 1L << 10;
+        break;
+      case 'm':
+        unit = 1L << 20;
+        break;
+      case 'g':
+        unit = 1L << 30;
+        break;
+      case 't':
+        unit = 1L << 40;
+        break;
+      default:
+        unit = 1;
+    }
+    try {
+      long bytes = Long.parseLong(unit == 1 ? size : size.substring(0, size.length() - 1)) * unit;
+      return bytes < 0 ? -1 : (bytes + (1L << 20) - 1) >> 20;
+    } catch (NumberFormatException e) {
+      return -1;
+    }
+  }
+
+  static String optionKey(String arg) {
+    if (arg.startsWith("-XX:")) {
+      String name = arg.substring(4);
+      if (name.startsWith("+") || name.startsWith("-")) name = name.substring(1);
+      int eq = name.indexOf('=');
+      if (eq >= 0) name = name.substring(0, eq);
+      if (GC_SELECTION.contains(name)) return "gc";
+      if (name.equals("MaxRAMPercentage") || name.equals("MaxRAMFraction")) return "-Xmx";
+      if (name.equals("InitialRAMPercentage") || name.equals("InitialRAMFraction")) return "-Xms";
+      return name;
+    }
+    for (String sizing : new String[] { "-Xmx", "-Xms", "-Xss", "-Xmn" }) {
+      if (arg.startsWith(sizing)) return sizing;
+    }
+    return arg;
+  }
+}
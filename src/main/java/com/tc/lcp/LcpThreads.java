@@ -0,0 +1,101 @@
+/*
+ * Copyright Terracotta, Inc.
+ * Copyright Super iPaaS Integration LLC, an IBM Company 2024
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.tc.lcp;
+
+import java.util.concurrent.ThreadFactory;
+
+/**
+ * Creates every thread this library runs: heartbeat listeners, per-client readers, stream copiers, the drainers of
+ * output nobody reads, the exit watcher, stdin writers and diagnostic executors. All of them spend their life blocked
+ * on a socket or a pipe, which makes them a good fit for virtual threads on JDK 21+.
+ * <p>
+ * The kind of thread is chosen with the <code>com.tc.lcp.threads</code> system property: <code>platform</code> (the
+ * default) or <code>virtual</code>, which falls back to platform threads on JVMs without virtual threads. Any other
+ * {@link ThreadFactory} can be installed with {@link #setThreadFactory(ThreadFactory)}. Platform threads are always
+ * daemon threads.
+ */
+public final class LcpThreads {
+  public static final String             THREADS_PROPERTY = "com.tc.lcp.threads";
+  public static final String             PLATFORM         = "platform";
+  public static final String             VIRTUAL          = "virtual";
+
+  private static volatile ThreadFactory  factory;
+
+  private LcpThreads() {
+    // cannot instantiate
+  }
+
+  public static void setThreadFactory(ThreadFactory newFactory) {
+    if (newFactory == null) throw new NullPointerException("factory");
+    factory = newFactory;
+  }
+
+  public static ThreadFactory getThreadFactory() {
+    ThreadFactory f = factory;
+    if (f == null) {
+      synchronized (LcpThreads.class) {
+        f = factory;
+        if (f == null) {
+          f = fromSystemProperty(System.getProperty(THREADS_PROPERTY, PLATFORM));
+          factory = f;
+        }
+      }
+    }
+    return f;
+  }
+
+  /**
+   * Whether virtual threads can be used on this JVM.
+   */
+  public static boolean virtualThreadsAvailable() {
+    return VirtualThreads.factory() != null;
+  }
+
+  /**
+   * A new, not yet started thread named <code>name</code>.
+   */
+  public static Thread newThread(String name, Runnable task) {
+    Thread t = getThreadFactory().newThread(task);
+    t.setName(name);
+    return t;
+  }
+
+  public static Thread start(String name, Runnable task) {
+    Thread t = newThread(name, task);
+    t.start();
+    return t;
+  }
+
+  static ThreadFactory fromSystemProperty(String value) {
+    if (VIRTUAL.equalsIgnoreCase(value)) {
+      ThreadFactory virtual = VirtualThreads.factory();
+      if (virtual != null) return virtual;
+      Log.getLogger(LcpThreads.class).warn("Virtual threads are not available on Java {}, using platform threads",
+                                           System.getProperty("java.specification.version"));
+    } else if (!PLATFORM.equalsIgnoreCase(value)) {
+      // read on the first thread started, in a child that may be the starter itself: a typo must not throw
+      Log.getLogger(LcpThreads.class).warn("Unknown {} value [{}], using platform threads", THREADS_PROPERTY, value);
+    }
+    return new ThreadFactory() {
+      public Thread newThread(Runnable r) {
+        Thread t = new Thread(r);
+        t.setDaemon(true);
+        return t;
+      }
+    };
+  }
+}
@@ -0,0 +1,102 @@
+/*
+ * Copyright Terracotta, Inc.
+ * Copyright Super iPaaS Integration LLC, an IBM Company 2024
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.tc.lcp;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.charset.Charset;
+import java.util.List;
+
+/**
+ * Splits a child stream into lines as its {@link OutputDrainer} passes the data on, and hands every line to the current
+ * {@link LineListener}s. Nothing is kept once delivered, and nothing is split while there are no listeners: a listener
+ * added then sees lines from the next one on.
+ */
+class LineDispatcher {
+  private static final Log            LOG           = Log.getLogger(LineDispatcher.class);
+
+  private final LineListener.Stream   stream;
+  private final List<LineListener>    listeners;
+  private final ByteArrayOutputStream line          = new ByteArrayOutputStream();
+  // whether the line being read was seen from its start
+  private boolean                     fromLineStart = true;
+  private volatile boolean            closed;
+
+  LineDispatcher(LineListener.Stream stream, List<LineListener> listeners) {
+    this.stream = stream;
+    this.listeners = listeners;
+  }
+
+  LineListener.Stream stream() {
+    return stream;
+  }
+
+  boolean isClosed() {
+    return closed;
+  }
+
+  /**
+   * The next bytes of the stream, called by whichever thread reads it.
+   */
+  synchronized void append(byte[] b, int off, int len) {
+    if (len == 0) return;
+    if (listeners.isEmpty()) {
+      line.reset();
+      fromLineStart = b[off + len - 1] == '\n';
+      return;
+    }
+    int end = off + len;
+    int from = off;
+    for (int i = off; i < end; i++) {
+      if (b[i] != '\n') continue;
+      if (fromLineStart) {
+        line.write(b, from, i - from);
+        dispatch();
+      }
+      // the rest of a line that began while there were no listeners is dropped
+      fromLineStart = true;
+      from = i + 1;
+    }
+    if (from < end && fromLineStart) line.write(b, from, end - from);
+  }
+
+  /**
+   * The stream ended; a last line without a line separator is still delivered.
+   */
+  synchronized void close() {
+    if (closed) return;
+    if (line.size() > 0 && !listeners.isEmpty()) dispatch();
+    closed = true;
+    for (LineListener listener : listeners) {
+      listener.streamClosed(stream);
+    }
+  }
+
+  private void dispatch() {
+    int length = line.size();
+    byte[] bytes = line.toByteArray();
+    line.reset();
+    if (length > 0 && bytes[length - 1] == '\r') length--;
+    String text = new String(bytes, 0, length, Charset.defaultCharset());
+    for (LineListener listener : listeners) {
+      try {
+        listener.lineRead(stream, text);
+      } catch (RuntimeException e) {
+        LOG.error("Line listener " + listener + " failed", e);
+      }
+    }
+  }
+}
@@ -0,0 +1,41 @@
+/*
+ * Copyright Terracotta, Inc.
+ * Copyright Super iPaaS Integration LLC, an IBM Company 2024
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.tc.lcp;
+
+/**
+ * Receives the output of a {@link LinkedJavaProcess} line by line, as it is read. Callbacks run on the thread reading
+ * the stream, so they should be quick; a slow listener holds up the child once the pipe buffer is full.
+ * <p>
+ * There is no <code>java.util.concurrent.Flow.Publisher</code> of lines. Flow only exists from Java 9, and the
+ * <code>META-INF/versions</code> part of the multi-release jar may only swap implementations, not add API that Java 8
+ * callers can't see. On Java 9+ a listener that hands each line to a <code>SubmissionPublisher</code> does the job.
+ */
+public interface LineListener {
+
+  enum Stream {
+    STDOUT, STDERR
+  }
+
+  void lineRead(Stream stream, String line);
+
+  /**
+   * The stream reached its end, normally because the child exited.
+   */
+  default void streamClosed(Stream stream) {
+    //
+  }
+}
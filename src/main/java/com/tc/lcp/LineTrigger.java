@@ -0,0 +1,65 @@
+/*
+ * Copyright Terracotta, Inc.
+ * Copyright Super iPaaS Integration LLC, an IBM Company 2024
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.tc.lcp;
+
+import java.io.EOFException;
+import java.util.EnumSet;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.regex.Pattern;
+
+/**
+ * Completes its future with the first line matching a pattern, then unregisters itself. If both stdout and stderr end
+ * first, the future fails with an {@link EOFException}.
+ */
+class LineTrigger implements LineListener {
+  private final Pattern                   pattern;
+  private final List<LineListener>        listeners;
+  private final CompletableFuture<String> future = new CompletableFuture<String>();
+  private final EnumSet<Stream>            closed = EnumSet.noneOf(Stream.class);
+
+  LineTrigger(Pattern pattern, List<LineListener> listeners) {
+    this.pattern = pattern;
+    this.listeners = listeners;
+  }
+
+  CompletableFuture<String> future() {
+    return future;
+  }
+
+  public void lineRead(Stream stream, String line) {
+    // a cancelled or timed out future just drops the trigger
+    if (future.isDone() || pattern.matcher(line).find()) {
+      future.complete(line);
+      listeners.remove(this);
+    }
+  }
+
+  @Override
+  public synchronized void streamClosed(Stream stream) {
+    closed.add(stream);
+    if (closed.size() == Stream.values().length) {
+      future.completeExceptionally(new EOFException("Output ended without a line matching " + pattern));
+      listeners.remove(this);
+    }
+  }
+
+  @Override
+  public String toString() {
+    return "LineTrigger[" + pattern + "]";
+  }
+}
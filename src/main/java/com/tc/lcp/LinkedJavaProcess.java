@@ -16,20 +16,32 @@
  */
 package com.tc.lcp;
 
+import java.io.EOFException;
 import java.io.File;
 import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
+import java.io.InterruptedIOException;
 import java.io.OutputStream;
+import java.lang.ProcessBuilder.Redirect;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collections;
-import java.util.HashMap;
 import java.util.Iterator;
 import java.util.List;
-import java.util.Map;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.function.Consumer;
 import java.util.jar.Attributes;
 import java.util.jar.JarOutputStream;
 import java.util.jar.Manifest;
+import java.util.regex.Pattern;
 
 /**
  * A child Java process that uses a socket-based ping protocol to make sure that if the parent dies, the child dies a
@@ -45,28 +57,86 @@ import java.util.jar.Manifest;
  * </ul>
  */
 public class LinkedJavaProcess extends Process {
+  /**
+   * System property carrying the id the child reports back to the heartbeat server, so that the parent can find the
+   * {@link ChildHandle} of the process it started.
+   */
+  public static final String       LAUNCH_ID_PROPERTY    = "linked-java-process-launch-id";
+  public static final int          DEFAULT_TAIL_CAPACITY = 64 * 1024;
+  // how long the exit handling waits for output still in the pipes before dumping the tails
+  private static final long        DRAIN_TIMEOUT         = 5 * 1000;
+
+  private static final Log         LOG                   = Log.getLogger(LinkedJavaProcess.class);
+
+  // what the shutdown hook of HeartBeatService cleans up
+  private static final Set<LinkedJavaProcess> LIVE           = ConcurrentHashMap.newKeySet();
+  private static final Set<File>              CLASSPATH_JARS = ConcurrentHashMap.newKeySet();
 
   private File                     javaHome;
   private final String             mainClassName;
   private final List<String>       javaArguments;
   private final List<String>       arguments;
-  private List<String>             environment;
+  private ChildEnvironment         environment;
   private File                     directory;
   private File                     javaExecutable;
   private long                     maxRuntime = 900;                                                        // in
                                                                                                              // seconds
   private String                   classpath;
-  private ProcessExecutor          processExecutor;
+  // kept across restarts, regenerated when the classpath or the working directory change
+  private File                     classpathJar;
+  private String                   classpathJarKey;
+  private String                   classpathArgument;
+  private String                   classpathArgumentKey;
+  private String[]                 fullCommand;
+  private volatile ProcessExecutor processExecutor;
   private boolean                  running;
   private boolean                  addL1Repos = true;
-  private final List<StreamCopier> copiers    = Collections.synchronizedList(new ArrayList<StreamCopier>());
+  private FlightRecording          flightRecording;
+  private File                     flightRecordingFile;
+  private CrashArtifacts           crashArtifacts;
+  private CpuPlacement             cpuPlacement;
+  private JvmProfile               jvmProfile;
+  private int                      plannedChildren;
+  private File                     artifactDirectory;
+  private File                     artifactArchive;
+  private CompletableFuture<File>  artifacts;
+  private long                     startedAt;
+  private String                   launchId;
+  private HeartBeatDomain          heartBeatDomain;
+  private HeartBeatServer          heartBeatServer;
+  private final List<Thread>       copiers    = Collections.synchronizedList(new ArrayList<Thread>());
+  private File                     stdoutFile;
+  private String                   stdoutPrefix;
+  private File                     stderrFile;
+  private String                   stderrPrefix;
+  private File                     stdinFile;
+  // the redirect files of the current run, resolved against the child's working directory
+  private File                     stdoutTarget;
+  private File                     stderrTarget;
+  private boolean                  mergeErrorStream;
+  private boolean                  inheritIO;
+  private final List<LineListener> lineListeners = new CopyOnWriteArrayList<LineListener>();
+  private LineDispatcher[]         lineDispatchers;
+  private int                      stdinCapacity = ChildStdin.DEFAULT_CAPACITY;
+  private ChildStdin               stdin;
+  private int                      tailCapacity  = DEFAULT_TAIL_CAPACITY;
+  private OutputTail               stdoutTail;
+  private OutputTail               stderrTail;
+  private OutputDrainer            stdoutDrainer;
+  private OutputDrainer            stderrDrainer;
+  private InputStream              stdoutStream;
+  private InputStream              stderrStream;
+  private long                     stdoutFileStart;
+  private long                     stderrFileStart;
+  // completed with the exit code once the tails of the current run are dumped and its artifacts collected
+  private CompletableFuture<Integer> exitHandling;
 
 
   public LinkedJavaProcess(String mainClassName, List<String> classArguments, List<String> jvmArgs) {
     this.mainClassName = mainClassName;
     this.javaArguments = jvmArgs == null ? new ArrayList<String>() : jvmArgs;
     this.arguments = classArguments == null ? new ArrayList<String>() : classArguments;
-    this.environment = new ArrayList<String>();
+    this.environment = ChildEnvironment.inherit();
     this.directory = null;
     this.javaExecutable = null;
     this.processExecutor = null;
@@ -81,6 +151,10 @@ public class LinkedJavaProcess extends Process {
     this(mainClassName, classArguments, new ArrayList<String>());
   }
 
+  public String getMainClassName() {
+    return mainClassName;
+  }
+
   public void setMaxRuntime(long maxRuntime) {
     this.maxRuntime = maxRuntime;
   }
@@ -113,10 +187,25 @@ public class LinkedJavaProcess extends Process {
     javaArguments.add(jvmArg);
   }
 
+  /**
+   * Variables to set in the child on top of this JVM's environment, as <code>NAME=VALUE</code> entries.
+   */
   public void setEnvironment(List<String> environment) {
+    this.environment = ChildEnvironment.inherit().setAll(environment);
+  }
+
+  public void setEnvironment(ChildEnvironment environment) {
     this.environment = environment;
   }
 
+  /**
+   * The child's environment, to add, {@link ChildEnvironment#unset(String) unset} or
+   * {@link ChildEnvironment#clear() clear} variables before {@link #start()}.
+   */
+  public ChildEnvironment getEnvironment() {
+    return environment;
+  }
+
   public void setDirectory(File directory) {
     this.directory = directory;
   }
@@ -125,6 +214,193 @@ public class LinkedJavaProcess extends Process {
     addL1Repos = flag;
   }
 
+  /**
+   * Records the child with Java Flight Recorder; <code>null</code> turns recording off again.
+   */
+  public void setFlightRecording(FlightRecording flightRecording) {
+    this.flightRecording = flightRecording;
+  }
+
+  /**
+   * The file the last started child records into, or <code>null</code> if it isn't recorded. The file only exists once
+   * the child has exited.
+   */
+  public synchronized File getFlightRecordingFile() {
+    return flightRecordingFile;
+  }
+
+  /**
+   * Links the child to the given domain instead of the default one managed by {@link HeartBeatService}. The domain is
+   * started if needed, but its shutdown is up to the caller.
+   */
+  public synchronized void setHeartBeatDomain(HeartBeatDomain heartBeatDomain) {
+    this.heartBeatDomain = heartBeatDomain;
+  }
+
+  /**
+   * Pins the child to a set of CPUs and/or a NUMA node, on Linux only.
+   *
+   * @see CpuAllocator
+   */
+  public synchronized void setCpuPlacement(CpuPlacement cpuPlacement) {
+    this.cpuPlacement = cpuPlacement;
+  }
+
+  public synchronized CpuPlacement getCpuPlacement() {
+    return cpuPlacement;
+  }
+
+  /**
+   * Tunes the child with a {@link JvmProfile} sized for <code>plannedChildren</code> children running at once. The
+   * JVM arguments of this process are passed after the profile's and replace its settings for the same options. With a
+   * {@link #setCpuPlacement(CpuPlacement) CPU placement}, the child is sized for the CPUs it is pinned to.
+   */
+  public synchronized void setJvmProfile(JvmProfile jvmProfile, int plannedChildren) {
+    if (plannedChildren < 1) throw new IllegalArgumentException("plannedChildren: " + plannedChildren);
+    this.jvmProfile = jvmProfile;
+    this.plannedChildren = plannedChildren;
+  }
+
+  public synchronized JvmProfile getJvmProfile() {
+    return jvmProfile;
+  }
+
+  /**
+   * Gives every run of this process its own artifact directory for crash logs and heap dumps, archived after exit; see
+   * {@link CrashArtifacts}. <code>null</code> (the default) turns this off.
+   */
+  public void setCrashArtifacts(CrashArtifacts crashArtifacts) {
+    this.crashArtifacts = crashArtifacts;
+  }
+
+  /**
+   * The artifact directory of the current or last run, or <code>null</code>.
+   */
+  public synchronized File getArtifactDirectory() {
+    return artifactDirectory;
+  }
+
+  /**
+   * The archive built for the last run once its artifacts are collected, or <code>null</code> if there was nothing to
+   * collect.
+   */
+  public synchronized File getArtifactArchive() {
+    return artifactArchive;
+  }
+
+  /**
+   * Completes with the archive of the current run once the child has exited and its artifacts are collected, with
+   * <code>null</code> if there was nothing to collect or no {@link #setCrashArtifacts(CrashArtifacts) crash artifacts}
+   * are set. Collecting runs in the background after the exit, {@link #waitFor()} doesn't wait for it.
+   */
+  public synchronized CompletableFuture<File> artifactCollection() {
+    if (artifacts == null) throw new IllegalStateException("This LinkedJavaProcess has not been started.");
+    return artifacts;
+  }
+
+  /**
+   * Waits for the started child to register with the heartbeat server and returns its handle, through which it can be
+   * killed or pinged over the heartbeat.
+   *
+   * @return the handle, or <code>null</code> if the child didn't register within the timeout
+   */
+  public ChildHandle getHeartBeatHandle(long timeoutMillis) throws InterruptedException {
+    String id;
+    HeartBeatServer server;
+    synchronized (this) {
+      if (launchId == null) throw new IllegalStateException("This LinkedJavaProcess has not been started.");
+      id = launchId;
+      server = heartBeatServer;
+    }
+    return server.awaitChild(id, timeoutMillis);
+  }
+
+  /**
+   * Completes with the handle of the current child once it registers.
+   */
+  synchronized CompletableFuture<ChildHandle> registration() {
+    if (launchId == null) throw new IllegalStateException("This LinkedJavaProcess has not been started.");
+    return heartBeatServer.registration(launchId);
+  }
+
+  /**
+   * Drops the future from {@link #registration()} if nobody else waits on it, for children that never register.
+   */
+  synchronized void forgetRegistration(CompletableFuture<ChildHandle> registration) {
+    heartBeatServer.forgetRegistration(launchId, registration);
+  }
+
+  /**
+   * Completed with the exit code of the current child once the exit watcher has handled its exit, which it does
+   * whether or not anybody waits; completed exceptionally if the handling failed.
+   */
+  synchronized CompletableFuture<Integer> exitFuture() {
+    if (exitHandling == null) throw new IllegalStateException("This LinkedJavaProcess has not been started.");
+    return exitHandling;
+  }
+
+  /**
+   * The children started and not yet seen exiting, by all instances.
+   */
+  static List<LinkedJavaProcess> liveProcesses() {
+    return new ArrayList<LinkedJavaProcess>(LIVE);
+  }
+
+  /**
+   * Deletes the classpath jars generated by all instances.
+   *
+   * @return the number deleted
+   */
+  static int deleteClasspathJars() {
+    int deleted = 0;
+    for (Iterator<File> it = CLASSPATH_JARS.iterator(); it.hasNext();) {
+      if (it.next().delete()) deleted++;
+      it.remove();
+    }
+    return deleted;
+  }
+
+  /**
+   * Asks the current child to terminate, without the bookkeeping {@link #destroy()} does.
+   */
+  void terminate() {
+    ProcessExecutor executor = executor();
+    if (executor != null) executor.destroy();
+  }
+
+  /**
+   * Kills the current child without giving it a chance to clean up. Unlike {@link #destroy()} this also works on a
+   * child already being destroyed, and doesn't wait for a concurrent {@link #start()}.
+   */
+  @Override
+  public Process destroyForcibly() {
+    ProcessExecutor executor = executor();
+    if (executor != null) executor.destroyForcibly();
+    return this;
+  }
+
+  /**
+   * @return <code>false</code> if the current child is still running after the timeout
+   */
+  boolean awaitExit(long timeoutMillis) throws InterruptedException {
+    ProcessExecutor executor = executor();
+    if (executor == null) return true;
+    if (!executor.waitFor(timeoutMillis, TimeUnit.MILLISECONDS)) return false;
+    exited(executor);
+    return true;
+  }
+
+  // a child seen exiting is no longer live, whether or not the exit watcher got to it yet
+  private void exited(ProcessExecutor executor) {
+    if (executor == processExecutor) LIVE.remove(this);
+    ExitWatcher.exited(executor);
+  }
+
+  // not synchronized, a shutdown hook must not wait for a start() in progress
+  private ProcessExecutor executor() {
+    return processExecutor;
+  }
+
   @Override
   public synchronized void destroy() {
     if (!this.running) throw new IllegalStateException("This LinkedJavaProcess is not running.");
@@ -156,73 +432,141 @@ public class LinkedJavaProcess extends Process {
     }
   }
 
-  public synchronized void start() throws IOException {
-    if (this.running) throw new IllegalStateException("This LinkedJavaProcess is already running.");
-
-    HeartBeatService.startHeartBeatService();
+  private File workingDirectory() {
+    return directory != null ? directory : new File(System.getProperty("user.dir"));
+  }
 
-    List<String> fullCommandList = new ArrayList<String>();
-    List<String> allJavaArguments = new ArrayList<String>();
+  public void start() throws IOException {
+    CompletableFuture<Integer> previous;
+    synchronized (this) {
+      if (this.running) throw new IllegalStateException("This LinkedJavaProcess is already running.");
+      previous = exitHandling;
+    }
+    // the exit handling of the previous run reads the output state that starting resets
+    if (previous != null) {
+      try {
+        awaitExitHandling(previous);
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+        throw new InterruptedIOException("Interrupted waiting for the previous run to be cleaned up");
+      }
+    }
+    startChild();
+  }
 
-    File workingDir = directory != null ? directory : new File(System.getProperty("user.dir"));
-    File generatedClasspathJar = generateClasspathJar(classpath != null ? classpath
-                                                          : System.getProperty("java.class.path"), workingDir);
+  private synchronized void startChild() throws IOException {
+    if (this.running) throw new IllegalStateException("This LinkedJavaProcess is already running.");
 
-    String l1Repos = System.getProperty("com.tc.l1.modules.repositories");
-    if (l1Repos != null && addL1Repos) {
-      allJavaArguments.add("-Dcom.tc.l1.modules.repositories=" + l1Repos);
+    HeartBeatDomain domain = heartBeatDomain;
+    if (domain == null) {
+      domain = HeartBeatService.domain();
+    } else {
+      domain.start();
     }
+    heartBeatServer = domain.nextServer();
 
-    allJavaArguments.add("-Dlinked-java-process-max-runtime=" + maxRuntime);
-    allJavaArguments.addAll(javaArguments);
-
+    File workingDir = workingDirectory();
     setJavaExecutableIfNecessary();
+    boolean argFiles = JavaCommand.supportsArgFiles(javaExecutable);
+    String cp = classpath != null ? classpath : System.getProperty("java.class.path");
 
-    int socketPort = HeartBeatService.listenPort();
+    List<String> launchArguments = new ArrayList<String>();
+    List<String> stableArguments = new ArrayList<String>();
 
-    Map<String, String> env = makeEnvMap(environment);
+    String l1Repos = System.getProperty("com.tc.l1.modules.repositories");
+    if (l1Repos != null && addL1Repos) {
+      stableArguments.add("-Dcom.tc.l1.modules.repositories=" + l1Repos);
+    }
 
-    fullCommandList.add(javaExecutable.getAbsolutePath());
+    stableArguments.add("-Dlinked-java-process-max-runtime=" + maxRuntime);
+    launchId = UUID.randomUUID().toString();
+    launchArguments.add("-D" + LAUNCH_ID_PROPERTY + "=" + launchId);
+    if (flightRecording != null) {
+      flightRecordingFile = new File(flightRecording.createRecordingDirectory(mainClassName, workingDir),
+                                     FlightRecording.RECORDING_FILE);
+      launchArguments.add(flightRecording.jvmArg(flightRecordingFile));
+    } else {
+      flightRecordingFile = null;
+    }
+    artifactArchive = null;
+    artifacts = new CompletableFuture<File>();
+    if (crashArtifacts != null) {
+      artifactDirectory = crashArtifacts.createArtifactDirectory(mainClassName, workingDir);
+      launchArguments.addAll(crashArtifacts.jvmArgs(artifactDirectory));
+    } else {
+      artifactDirectory = null;
+    }
+    if (jvmProfile != null) {
+      stableArguments.addAll(jvmProfile.jvmArgs(plannedChildren, javaArguments, cpuPlacement));
+    }
+    stableArguments.addAll(javaArguments);
 
-    fullCommandList.add("-classpath");
-    fullCommandList.add(generatedClasspathJar.getAbsolutePath());
-    fullCommandList.addAll(allJavaArguments);
-    fullCommandList.add(LinkedJavaProcessStarter.class.getName());
-    fullCommandList.add(Integer.toString(socketPort));
-    fullCommandList.add(mainClassName);
-    fullCommandList.addAll(arguments);
+    int socketPort = heartBeatServer.listeningPort();
 
-    String[] command = fullCommandList.toArray(new String[fullCommandList.size()]);
+    List<String> starterArguments = new ArrayList<String>();
+    starterArguments.add(Integer.toString(socketPort));
+    starterArguments.add(mainClassName);
+    starterArguments.addAll(arguments);
 
-    System.err.println("Start java process with command: " + fullCommandList);
-    this.processExecutor = ProcessExecutor.exec(command, env, workingDir);
+    JavaCommand javaCommand = new JavaCommand(javaExecutable.getAbsolutePath());
+    if (cpuPlacement != null) {
+      javaCommand.prefix(cpuPlacement.wrapper());
+    }
+    // Java 8 has no argument files, there the classpath goes in the manifest of a jar to keep the command short
+    javaCommand.classpath(argFiles ? absoluteClasspath(cp) : classpathJar(cp, workingDir).getAbsolutePath())
+        .launchArgs(launchArguments).jvmArgs(stableArguments)
+        .main(LinkedJavaProcessStarter.class.getName(), starterArguments);
+
+    fullCommand = javaCommand.toArray();
+    String[] command = javaCommand.build(argFiles ? workingDir : null);
+
+    LOG.info("Start java process {}: {}", mainClassName, JavaCommand.digest(fullCommand));
+    LOG.debug("Full command: {}", Arrays.asList(fullCommand));
+    startedAt = System.currentTimeMillis();
+    stdoutTarget = resolve(stdoutFile, workingDir);
+    stderrTarget = resolve(stderrFile, workingDir);
+    stdoutFileStart = stdoutTarget != null ? stdoutTarget.length() : 0;
+    stderrFileStart = stderrTarget != null ? stderrTarget.length() : 0;
+    this.processExecutor = ProcessExecutor.exec(command, environment, workingDir, makeRedirects(workingDir));
+    LIVE.add(this);
+    this.stdoutTail = tailCapacity > 0 ? new OutputTail(tailCapacity) : null;
+    this.stderrTail = tailCapacity > 0 ? new OutputTail(tailCapacity) : null;
+    this.lineDispatchers = new LineDispatcher[] { new LineDispatcher(LineListener.Stream.STDOUT, lineListeners),
+        new LineDispatcher(LineListener.Stream.STDERR, lineListeners) };
+    this.stdoutDrainer = drain(processExecutor.getInputStream(), stdoutTail, lineDispatchers[0],
+                               !inheritIO && (stdoutTarget == null || stdoutPrefix != null), "stdout");
+    this.stderrDrainer = drain(processExecutor.getErrorStream(), stderrTail, lineDispatchers[1],
+                               !inheritIO && !mergeErrorStream && (stderrTarget == null || stderrPrefix != null),
+                               "stderr");
+    this.stdoutStream = stdoutDrainer != null ? stdoutDrainer.stream() : processExecutor.getInputStream();
+    this.stderrStream = stderrDrainer != null ? stderrDrainer.stream() : processExecutor.getErrorStream();
+    watchExit(processExecutor, stdoutDrainer, stderrDrainer);
+    this.stdin = null;
+    if (stdoutPrefix != null) {
+      startCopier(new PrefixingFileCopier(claim(stdoutStream), stdoutTarget, stdoutPrefix));
+    }
+    if (stderrPrefix != null) {
+      startCopier(new PrefixingFileCopier(claim(stderrStream), stderrTarget, stderrPrefix));
+    }
+    if (!lineListeners.isEmpty()) {
+      linesWanted();
+    }
     this.running = true;
   }
 
 
-  private Map<String, String> makeEnvMap(List<String> list) {
-    Map<String, String> rv = new HashMap(System.getenv());
-
-    for (String string : list) {
-      String[] nameValue = string.split("=", 2);
-      rv.put(nameValue[0], nameValue[1]);
-    }
-
-    return rv;
-  }
-
   /**
    * Java names these things a bit funny &mdash; this is the spawned process's <code>stdout</code>.
    */
   @Override
   public synchronized InputStream getInputStream() {
     if (!this.running) throw new IllegalStateException("This LinkedJavaProcess is not yet running.");
-    return this.processExecutor.getInputStream();
+    return this.stdoutStream;
   }
 
   public synchronized String[] getCommand() {
     if (!this.running) throw new IllegalStateException("This LinkedJavaProcess is not yet running.");
-    return this.processExecutor.getCommand();
+    return this.fullCommand.clone();
   }
 
   public InputStream STDOUT() {
@@ -242,7 +586,7 @@ public class LinkedJavaProcess extends Process {
   }
 
   public void mergeSTDOUT(String identifier) {
-    mergeStream(STDOUT(), System.out, identifier);
+    mergeStream(claim(STDOUT()), System.out, identifier);
   }
 
   public void mergeSTDERR() {
@@ -250,13 +594,162 @@ public class LinkedJavaProcess extends Process {
   }
 
   public void mergeSTDERR(String identifier) {
-    mergeStream(STDERR(), System.err, identifier);
+    mergeStream(claim(STDERR()), System.err, identifier);
   }
 
   private void mergeStream(InputStream in, OutputStream out, String identifier) {
-    StreamCopier copier = new StreamCopier(in, out, identifier);
-    copiers.add(copier);
-    copier.start();
+    startCopier(new StreamCopier(in, out, identifier));
+  }
+
+  /**
+   * Leaves the pipe behind <code>stream</code> to the consumer about to read it, so that its drainer never does.
+   */
+  private synchronized InputStream claim(InputStream stream) {
+    if (stream == stdoutStream && stdoutDrainer != null) stdoutDrainer.claim();
+    if (stream == stderrStream && stderrDrainer != null) stderrDrainer.claim();
+    return stream;
+  }
+
+  /**
+   * Delivers every line the child writes to stdout or stderr to <code>listener</code>, see {@link LineListener}. The
+   * lines are taken off the output as it is read, by {@link #mergeSTDOUT()}, {@link #STDOUT()} and friends, which still
+   * get all of it. A stream nobody reads yet is read for the listeners and up to {@link OutputDrainer#BUFFER} bytes of
+   * it are held for a later reader. Lines are only split while there are listeners.
+   */
+  public synchronized void addLineListener(LineListener listener) {
+    lineListeners.add(listener);
+    if (running) linesWanted();
+  }
+
+  public void removeLineListener(LineListener listener) {
+    lineListeners.remove(listener);
+  }
+
+  /**
+   * A future completed with the next stdout or stderr line in which <code>pattern</code> is found. It fails with an
+   * {@link EOFException} if the child's output ends without such a line. Lines read before the call are not seen, and
+   * the trigger retains nothing of the output.
+   */
+  public synchronized CompletableFuture<String> onLine(Pattern pattern) {
+    LineTrigger trigger = new LineTrigger(pattern, lineListeners);
+    addLineListener(trigger);
+    if (lineDispatchers != null) {
+      for (LineDispatcher dispatcher : lineDispatchers) {
+        if (dispatcher.isClosed()) trigger.streamClosed(dispatcher.stream());
+      }
+    }
+    return trigger.future();
+  }
+
+  /**
+   * Blocks until the child prints a line matching <code>pattern</code>, and returns that line.
+   *
+   * @throws EOFException if the output ends first
+   */
+  public String awaitLine(Pattern pattern, long timeoutMillis) throws InterruptedException, TimeoutException,
+      EOFException {
+    CompletableFuture<String> future = onLine(pattern);
+    try {
+      return future.get(timeoutMillis, TimeUnit.MILLISECONDS);
+    } catch (ExecutionException e) {
+      if (e.getCause() instanceof EOFException) throw (EOFException) e.getCause();
+      throw new RuntimeException(e.getCause());
+    } finally {
+      future.cancel(false);
+    }
+  }
+
+  // called with the lock held
+  private void linesWanted() {
+    if (stdoutDrainer != null) stdoutDrainer.linesWanted();
+    if (stderrDrainer != null) stderrDrainer.linesWanted();
+  }
+
+  private void startCopier(Thread copier) {
+    // run the copier's body on a thread from LcpThreads, which may be virtual
+    startCopier(copier.getName(), copier);
+  }
+
+  private void startCopier(String name, Runnable copier) {
+    Thread t = LcpThreads.newThread(name, copier);
+    copiers.add(t);
+    t.start();
+  }
+
+  /**
+   * Appends the child's <code>stdout</code> to a file. The redirect is set up by the OS, so the output never passes
+   * through this JVM. A relative file is relative to the child's {@link #setDirectory(File) directory}, as it would be
+   * for a redirect in the child's shell. Must be called before {@link #start()}.
+   */
+  public void redirectSTDOUT(File file) {
+    redirectSTDOUT(file, null);
+  }
+
+  /**
+   * As {@link #redirectSTDOUT(File)}, but with every line prefixed with <code>identifier</code>. Prefixing needs the
+   * data to pass through this JVM, which is done in large unbuffered batches by a {@link PrefixingFileCopier}.
+   */
+  public synchronized void redirectSTDOUT(File file, String identifier) {
+    if (this.running) throw new IllegalStateException("This LinkedJavaProcess is already running.");
+    this.stdoutFile = file;
+    this.stdoutPrefix = file == null ? null : identifier;
+  }
+
+  /**
+   * Appends the child's <code>stderr</code> to a file, see {@link #redirectSTDOUT(File)}.
+   */
+  public void redirectSTDERR(File file) {
+    redirectSTDERR(file, null);
+  }
+
+  public synchronized void redirectSTDERR(File file, String identifier) {
+    if (this.running) throw new IllegalStateException("This LinkedJavaProcess is already running.");
+    this.stderrFile = file;
+    this.stderrPrefix = file == null ? null : identifier;
+  }
+
+  /**
+   * Reads the child's <code>stdin</code> from a file instead of a pipe. Must be called before {@link #start()}.
+   */
+  public synchronized void redirectSTDIN(File file) {
+    if (this.running) throw new IllegalStateException("This LinkedJavaProcess is already running.");
+    this.stdinFile = file;
+  }
+
+  /**
+   * Sends the child's <code>stderr</code> into its <code>stdout</code>, so a single reader (or file) sees both in the
+   * order they were written. {@link #getErrorStream()} is then empty.
+   */
+  public synchronized void setMergeErrorStream(boolean mergeErrorStream) {
+    if (this.running) throw new IllegalStateException("This LinkedJavaProcess is already running.");
+    this.mergeErrorStream = mergeErrorStream;
+  }
+
+  /**
+   * Lets the child use this JVM's own stdin, stdout and stderr. Nothing is copied, so this is the cheapest way to see
+   * the child's output; file redirects still take precedence for the streams they are set on.
+   */
+  public synchronized void setInheritIO(boolean inheritIO) {
+    if (this.running) throw new IllegalStateException("This LinkedJavaProcess is already running.");
+    this.inheritIO = inheritIO;
+  }
+
+  private ProcessExecutor.Redirects makeRedirects(File workingDir) {
+    ProcessExecutor.Redirects redirects = inheritIO ? ProcessExecutor.Redirects.inheritIO()
+        : ProcessExecutor.Redirects.pipes();
+    if (stdinFile != null) redirects.stdin(Redirect.from(resolve(stdinFile, workingDir)));
+    if (stdoutTarget != null) redirects.stdout(redirectFor(stdoutTarget, stdoutPrefix));
+    if (stderrTarget != null) redirects.stderr(redirectFor(stderrTarget, stderrPrefix));
+    return redirects.mergeErrorStream(mergeErrorStream);
+  }
+
+  // ProcessBuilder opens redirect files in this JVM, which would resolve them against its own directory
+  private static File resolve(File file, File workingDir) {
+    return file == null || file.isAbsolute() ? file : new File(workingDir, file.getPath());
+  }
+
+  private static Redirect redirectFor(File file, String prefix) {
+    return prefix == null ? Redirect.appendTo(file) : Redirect.PIPE;
   }
 
   /**
@@ -265,7 +758,7 @@ public class LinkedJavaProcess extends Process {
   @Override
   public synchronized InputStream getErrorStream() {
     if (!this.running) throw new IllegalStateException("This LinkedJavaProcess is not yet running.");
-    return this.processExecutor.getErrorStream();
+    return this.stderrStream;
   }
 
   /**
@@ -277,6 +770,176 @@ public class LinkedJavaProcess extends Process {
     return this.processExecutor.getOutputStream();
   }
 
+  /**
+   * The child's <code>stdin</code> behind a bounded queue, so writing never blocks indefinitely on a child that stopped
+   * reading. Use either this or {@link #getOutputStream()}, not both.
+   */
+  public synchronized ChildStdin getStdin() {
+    if (!this.running) throw new IllegalStateException("This LinkedJavaProcess is not yet running.");
+    if (stdin == null) {
+      stdin = new ChildStdin(processExecutor.getOutputStream(), stdinCapacity);
+    }
+    return stdin;
+  }
+
+  /**
+   * Bytes {@link #getStdin()} queues before writers have to wait, {@link ChildStdin#DEFAULT_CAPACITY} by default.
+   */
+  public void setStdinCapacity(int stdinCapacity) {
+    this.stdinCapacity = stdinCapacity;
+  }
+
+  /**
+   * Fills the tail and feeds the line listeners of a piped output stream from whoever reads it. Those of a stream that
+   * isn't piped have nothing to see.
+   */
+  private OutputDrainer drain(InputStream in, OutputTail tail, LineDispatcher lines, boolean piped, String stream) {
+    if (!piped) {
+      lines.close();
+      return null;
+    }
+    return new OutputDrainer(in, tail, lines, "Output Drainer " + stream + " " + mainClassName);
+  }
+
+  /**
+   * Handles the exit of the child as soon as it happens, whether or not anybody waits for it: a child killed over the
+   * heartbeat gets its tails dumped as well. The handling runs on the shared {@link ExitWatcher}.
+   */
+  private void watchExit(ProcessExecutor executor, final OutputDrainer... drainers) {
+    final CompletableFuture<Integer> handling = new CompletableFuture<Integer>();
+    final CompletableFuture<File> archive = artifacts;
+    exitHandling = handling;
+    ExitWatcher.watch(executor).thenAcceptAsync(new Consumer<Integer>() {
+      public void accept(final Integer exitCode) {
+        try {
+          LIVE.remove(LinkedJavaProcess.this);
+          List<CompletableFuture<Void>> idle = new ArrayList<CompletableFuture<Void>>();
+          for (OutputDrainer drainer : drainers) {
+            if (drainer == null) continue;
+            drainer.childExited();
+            idle.add(drainer.idle());
+          }
+          ExitWatcher.whenDone(CompletableFuture.allOf(idle.toArray(new CompletableFuture<?>[0])), DRAIN_TIMEOUT,
+                               new Runnable() {
+                                 public void run() {
+                                   handleExit(drainers, exitCode, handling, archive);
+                                 }
+                               });
+        } catch (Throwable t) {
+          exitHandlingFailed(t, handling, archive);
+        }
+      }
+    }, ExitWatcher.executor());
+  }
+
+  private void handleExit(OutputDrainer[] drainers, int exitCode, CompletableFuture<Integer> handling,
+                          CompletableFuture<File> archive) {
+    try {
+      for (OutputDrainer drainer : drainers) {
+        if (drainer != null && !drainer.idle().isDone()) {
+          LOG.debug("{} still reading after {}ms", drainer.name(), DRAIN_TIMEOUT);
+        }
+      }
+      Runnable collection = afterExit(exitCode, archive);
+      handling.complete(exitCode);
+      // the next run may start meanwhile, the collection only uses what afterExit() handed it
+      if (collection != null) LcpThreads.start("Artifact Collector " + mainClassName, collection);
+    } catch (Throwable t) {
+      exitHandlingFailed(t, handling, archive);
+    }
+  }
+
+  private void exitHandlingFailed(Throwable t, CompletableFuture<Integer> handling, CompletableFuture<File> archive) {
+    LOG.error("Handling the exit of " + mainClassName + " failed", t);
+    handling.completeExceptionally(t);
+    archive.completeExceptionally(t);
+  }
+
+  private static void awaitExitHandling(CompletableFuture<Integer> handling) throws InterruptedException {
+    try {
+      handling.get();
+    } catch (ExecutionException e) {
+      // logged by the exit watcher
+    }
+  }
+
+  /**
+   * Bytes of each output stream kept for {@link #getStdoutTail()} and {@link #getStderrTail()}, and logged when the
+   * child exits with a non-zero code. Defaults to {@link #DEFAULT_TAIL_CAPACITY}; 0 turns the capture off. Piped output
+   * fills the tail as it is consumed (through the streams, {@link #mergeSTDOUT()}, a line listener or a prefixing file
+   * redirect); what nobody consumed is read once the child exits, and held for a later consumer. Without any consumer,
+   * a child writing more than its pipe holds blocks, as it would with a plain {@link Process}. Plain file redirects are
+   * read back from the file instead.
+   */
+  public void setTailCapacity(int tailCapacity) {
+    this.tailCapacity = tailCapacity;
+  }
+
+  /**
+   * The last {@link #setTailCapacity(int) tail capacity} bytes of the child's <code>stdout</code>.
+   */
+  public synchronized String getStdoutTail() {
+    return tail(stdoutTail, stdoutTarget, stdoutPrefix, stdoutFileStart);
+  }
+
+  public synchronized String getStderrTail() {
+    return tail(stderrTail, stderrTarget, stderrPrefix, stderrFileStart);
+  }
+
+  private String tail(OutputTail tail, File file, String prefix, long fileStart) {
+    if (file != null && prefix == null && tailCapacity > 0) {
+      try {
+        return OutputTail.fileTail(file, fileStart, tailCapacity);
+      } catch (IOException e) {
+        return "<can't read " + file + ": " + e + ">";
+      }
+    }
+    return tail != null ? tail.text() : "";
+  }
+
+  /**
+   * Called by the exit watcher once the output is drained, start() waits for it before resetting the state it reads.
+   *
+   * @return the collection of the artifacts, to be run outside the lock, or <code>null</code> if there is none
+   */
+  private Runnable afterExit(final int exitCode, final CompletableFuture<File> archive) {
+    synchronized (this) {
+      if (exitCode != 0 && tailCapacity > 0) {
+        dumpTails(exitCode);
+      }
+      if (artifactDirectory == null) {
+        archive.complete(null);
+        return null;
+      }
+      final CrashArtifacts collector = crashArtifacts;
+      final File dir = artifactDirectory;
+      final File workingDir = workingDirectory();
+      final long started = startedAt;
+      final String stdoutText = getStdoutTail();
+      final String stderrText = getStderrTail();
+      return new Runnable() {
+        public void run() {
+          try {
+            File zip = collector.collect(dir, workingDir, started, exitCode, stdoutText, stderrText);
+            if (zip != null) LOG.warn("Artifacts of {} collected in {}", mainClassName, zip);
+            synchronized (LinkedJavaProcess.this) {
+              if (artifacts == archive) artifactArchive = zip;
+            }
+            archive.complete(zip);
+          } catch (IOException e) {
+            LOG.error("Can't collect the artifacts in " + dir, e);
+            archive.completeExceptionally(e);
+          }
+        }
+      };
+    }
+  }
+
+  private void dumpTails(int exitCode) {
+    LOG.warn("{} exited with code {}\n--- last stdout ---\n{}--- last stderr ---\n{}--- end ---", mainClassName,
+             exitCode, getStdoutTail(), getStderrTail());
+  }
+
   @Override
   public synchronized int exitValue() {
     if (this.processExecutor == null) throw new IllegalStateException("This LinkedJavaProcess has not been started.");
@@ -295,25 +958,63 @@ public class LinkedJavaProcess extends Process {
     }
 
     int exitCode = theProcessExecutor.waitFor();
+    exited(theProcessExecutor);
 
-    for (Iterator<StreamCopier> i = copiers.iterator(); i.hasNext();) {
+    for (Iterator<Thread> i = copiers.iterator(); i.hasNext();) {
       Thread t = i.next();
       t.join();
       i.remove();
     }
 
+    CompletableFuture<Integer> handling;
     synchronized (this) {
       this.running = false;
+      handling = exitHandling;
     }
+    awaitExitHandling(handling);
 
     return exitCode;
   }
 
+  private File classpathJar(String cp, File workingDir) throws IOException {
+    String key = workingDir.getAbsolutePath() + File.pathSeparator + cp;
+    if (classpathJar == null || !key.equals(classpathJarKey) || !classpathJar.isFile()) {
+      classpathJar = generateClasspathJar(cp, workingDir);
+      classpathJarKey = key;
+    }
+    return classpathJar;
+  }
+
+  /**
+   * The classpath with relative entries resolved against this JVM's directory rather than the child's, and entries
+   * that don't exist left out, like the manifest of the classpath jar.
+   */
+  private String absoluteClasspath(String cp) {
+    if (classpathArgument == null || !cp.equals(classpathArgumentKey)) {
+      StringBuilder sb = new StringBuilder();
+      for (String element : cp.split(File.pathSeparator)) {
+        element = element.trim();
+        if (element.length() == 0) continue;
+        File f = new File(element);
+        if (f.exists()) {
+          if (sb.length() > 0) sb.append(File.pathSeparatorChar);
+          sb.append(f.getAbsolutePath());
+        } else {
+          System.out.println("LCP: path element [" + element + "] doesn't exist, ignoring");
+        }
+      }
+      classpathArgument = sb.toString();
+      classpathArgumentKey = cp;
+    }
+    return classpathArgument;
+  }
+
   private File generateClasspathJar(String cp, File workingDir) throws IOException {
     Manifest manifest = new Manifest();
     manifest.getMainAttributes().put(Attributes.Name.MANIFEST_VERSION, "1.0");
     manifest.getMainAttributes().putValue("Class-Path", generateManifestClasspath(cp));
     File classpathJar = File.createTempFile("lcpclasspath", ".jar", workingDir);
+    CLASSPATH_JARS.add(classpathJar);
     JarOutputStream target = null;
     try {
       target = new JarOutputStream(new FileOutputStream(classpathJar), manifest);
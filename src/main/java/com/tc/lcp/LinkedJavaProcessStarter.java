@@ -16,7 +16,9 @@
  */
 package com.tc.lcp;
 
-import java.lang.reflect.Method;
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
 import java.util.Timer;
 import java.util.TimerTask;
 
@@ -25,25 +27,63 @@ import java.util.TimerTask;
  * heartbeat protocol with a parent process on a specified port &mdash; and
  * kills itself if this ping protocol is broken. This prevents runaway Java
  * processes.
+ * <p>
+ * The heartbeat connection and the max runtime timer are set up on a
+ * background thread while the main class is loaded, so neither delays the
+ * child's main. If the parent can't be reached, connecting is retried for
+ * {@link HeartBeatServer#RECONNECT_GRACE} before the child gives up and exits.
  */
 public class LinkedJavaProcessStarter {
+  private static final long CONNECT_RETRY_MILLIS = 100;
 
   public static void main(String args[]) throws Exception {
-    int pingPort = Integer.parseInt(args[0]);
-    String childClass = args[1];
+    final int pingPort = Integer.parseInt(args[0]);
+    final String childClass = args[1];
 
     String[] realArgs = new String[args.length - 2];
     if (realArgs.length > 0)
       System.arraycopy(args, 2, realArgs, 0, realArgs.length);
 
-    HeartBeatService.registerForHeartBeat(pingPort, childClass);
+    LcpThreads.start("LinkedJavaProcessStarter", new Runnable() {
+      public void run() {
+        registerWithRetry(pingPort, childClass);
+        scheduleShutdownTimer();
+      }
+    });
 
-    scheduleShutdownTimer();
+    MethodHandle mainMethod = MethodHandles.publicLookup()
+        .findStatic(Class.forName(childClass), "main", MethodType.methodType(void.class, String[].class));
+    try {
+      mainMethod.invokeExact(realArgs);
+    } catch (Exception e) {
+      throw e;
+    } catch (Error e) {
+      throw e;
+    } catch (Throwable t) {
+      throw new RuntimeException(t);
+    }
+  }
 
-    final Class mainClass = Class.forName(childClass);
-    Method mainMethod = mainClass.getMethod("main",
-        new Class[] { String[].class });
-    mainMethod.invoke(null, new Object[] { realArgs });
+  static void registerWithRetry(int pingPort, String childClass) {
+    registerWithRetry(pingPort, childClass, false);
+  }
+
+  static void registerWithRetry(int pingPort, String childClass, boolean isAppServer) {
+    long deadline = System.currentTimeMillis() + HeartBeatServer.RECONNECT_GRACE;
+    while (true) {
+      try {
+        HeartBeatService.registerForHeartBeat(pingPort, childClass, isAppServer);
+        return;
+      } catch (RuntimeException e) {
+        if (System.currentTimeMillis() >= deadline) {
+          System.err.println("Could not connect to the parent's heartbeat server on port " + pingPort + " (" + e
+              + "). Force exit");
+          System.err.flush();
+          System.exit(-1);
+        }
+        HeartBeatServer.reallySleep(CONNECT_RETRY_MILLIS);
+      }
+    }
   }
 
   public static long getMaxRuntime() {
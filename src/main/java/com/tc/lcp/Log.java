@@ -0,0 +1,148 @@
+/*
+ * Copyright Terracotta, Inc.
+ * Copyright Super iPaaS Integration LLC, an IBM Company 2024
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.tc.lcp;
+
+/**
+ * The logger used throughout this library. Messages take SLF4J style <code>{}</code> placeholders and are only formatted
+ * once the level is known to be enabled, so disabled messages (the per-pulse chatter is logged at
+ * {@link LogLevel#DEBUG}) cost a level check and nothing else.
+ * <p>
+ * The backend is chosen with the <code>com.tc.lcp.logger</code> system property: <code>console</code> (the default,
+ * writes to <code>System.out</code>), <code>jul</code>, <code>slf4j</code>, <code>none</code> or the class name of a
+ * {@link LogAdapter.Factory}. The console threshold is set with <code>com.tc.lcp.log.level</code> and defaults to
+ * <code>INFO</code>.
+ */
+public final class Log {
+  public static final String               LOGGER_PROPERTY = "com.tc.lcp.logger";
+
+  private static volatile LogAdapter.Factory factory;
+
+  private final String                     name;
+  private volatile LogAdapter              adapter;
+  private volatile LogAdapter.Factory      adapterFactory;
+
+  private Log(String name) {
+    this.name = name;
+  }
+
+  public static Log getLogger(String name) {
+    return new Log(name);
+  }
+
+  public static Log getLogger(Class<?> c) {
+    return new Log(c.getSimpleName());
+  }
+
+  /**
+   * Replaces the backend for all loggers, including the ones already handed out.
+   */
+  public static void setFactory(LogAdapter.Factory newFactory) {
+    if (newFactory == null) throw new NullPointerException("factory");
+    factory = newFactory;
+  }
+
+  private static LogAdapter.Factory factory() {
+    LogAdapter.Factory f = factory;
+    if (f == null) {
+      synchronized (Log.class) {
+        f = factory;
+        if (f == null) {
+          f = LogAdapters.fromSystemProperty(System.getProperty(LOGGER_PROPERTY));
+          factory = f;
+        }
+      }
+    }
+    return f;
+  }
+
+  private LogAdapter adapter() {
+    LogAdapter.Factory f = factory();
+    LogAdapter a = adapter;
+    if (a == null || adapterFactory != f) {
+      a = f.getAdapter(name);
+      adapter = a;
+      adapterFactory = f;
+    }
+    return a;
+  }
+
+  public boolean isEnabled(LogLevel level) {
+    return adapter().isEnabled(level);
+  }
+
+  public boolean isDebugEnabled() {
+    return isEnabled(LogLevel.DEBUG);
+  }
+
+  public void debug(String message) {
+    log(LogLevel.DEBUG, message, null);
+  }
+
+  public void debug(String format, Object arg) {
+    LogAdapter a = adapter();
+    if (a.isEnabled(LogLevel.DEBUG)) a.log(LogLevel.DEBUG, format(format, arg), null);
+  }
+
+  public void debug(String format, Object arg1, Object arg2) {
+    LogAdapter a = adapter();
+    if (a.isEnabled(LogLevel.DEBUG)) a.log(LogLevel.DEBUG, format(format, arg1, arg2), null);
+  }
+
+  public void info(String message) {
+    log(LogLevel.INFO, message, null);
+  }
+
+  public void info(String format, Object... args) {
+    LogAdapter a = adapter();
+    if (a.isEnabled(LogLevel.INFO)) a.log(LogLevel.INFO, format(format, args), null);
+  }
+
+  public void warn(String message) {
+    log(LogLevel.WARN, message, null);
+  }
+
+  public void warn(String format, Object... args) {
+    LogAdapter a = adapter();
+    if (a.isEnabled(LogLevel.WARN)) a.log(LogLevel.WARN, format(format, args), null);
+  }
+
+  public void warn(String message, Throwable t) {
+    log(LogLevel.WARN, message, t);
+  }
+
+  public void error(String message, Throwable t) {
+    log(LogLevel.ERROR, message, t);
+  }
+
+  public void log(LogLevel level, String message, Throwable t) {
+    LogAdapter a = adapter();
+    if (a.isEnabled(level)) a.log(level, message, t);
+  }
+
+  static String format(String format, Object... args) {
+    if (args == null || args.length == 0) return format;
+    StringBuilder sb = new StringBuilder(format.length() + 16 * args.length);
+    int argIndex = 0;
+    int from = 0;
+    int at;
+    while (argIndex < args.length && (at = format.indexOf("{}", from)) >= 0) {
+      sb.append(format, from, at).append(args[argIndex++]);
+      from = at + 2;
+    }
+    return sb.append(format, from, format.length()).toString();
+  }
+}
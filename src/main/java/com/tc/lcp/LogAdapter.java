@@ -0,0 +1,36 @@
+/*
+ * Copyright Terracotta, Inc.
+ * Copyright Super iPaaS Integration LLC, an IBM Company 2024
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.tc.lcp;
+
+/**
+ * Logging SPI. Adapters exist for the console, <code>java.util.logging</code> and SLF4J; another backend can be plugged
+ * in by naming its {@link Factory} in the <code>com.tc.lcp.logger</code> system property or through
+ * {@link Log#setFactory(Factory)}.
+ */
+public interface LogAdapter {
+
+  boolean isEnabled(LogLevel level);
+
+  /**
+   * Only called for enabled levels, with the message fully formatted. <code>t</code> may be <code>null</code>.
+   */
+  void log(LogLevel level, String message, Throwable t);
+
+  interface Factory {
+    LogAdapter getAdapter(String name);
+  }
+}
@@ -0,0 +1,156 @@
+/*
+ * Copyright Terracotta, Inc.
+ * Copyright Super iPaaS Integration LLC, an IBM Company 2024
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.tc.lcp;
+
+import java.io.PrintStream;
+import java.time.LocalTime;
+import java.time.format.DateTimeFormatter;
+import java.util.Locale;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * The built-in {@link LogAdapter} backends.
+ */
+final class LogAdapters {
+  static final String CONSOLE        = "console";
+  static final String JUL            = "jul";
+  static final String SLF4J          = "slf4j";
+  static final String NONE           = "none";
+  static final String LEVEL_PROPERTY = "com.tc.lcp.log.level";
+
+  private LogAdapters() {
+    // cannot instantiate
+  }
+
+  /**
+   * The factory named by <code>com.tc.lcp.logger</code>. Like the console level, a bad value must not throw from the
+   * first log call: an unknown name, a factory that can't be created or SLF4J missing from the classpath is reported
+   * and replaced by the console.
+   */
+  static LogAdapter.Factory fromSystemProperty(String value) {
+    if (value == null || value.length() == 0 || CONSOLE.equalsIgnoreCase(value)) {
+      return console();
+    } else if (JUL.equalsIgnoreCase(value)) {
+      return new JulFactory();
+    } else if (SLF4J.equalsIgnoreCase(value)) {
+      try {
+        LogAdapter.Factory slf4j = new Slf4jLogAdapter.Factory();
+        // fails here rather than on the first log call if slf4j-api isn't there
+        slf4j.getAdapter(LogAdapters.class.getSimpleName());
+        return slf4j;
+      } catch (LinkageError e) {
+        return fallback("SLF4J is not available", e);
+      }
+    } else if (NONE.equalsIgnoreCase(value)) {
+      return new ConsoleFactory(LogLevel.OFF);
+    } else {
+      try {
+        return (LogAdapter.Factory) Class.forName(value).getDeclaredConstructor().newInstance();
+      } catch (Exception e) {
+        return fallback("Can't instantiate log adapter factory [" + value + "]", e);
+      } catch (LinkageError e) {
+        return fallback("Can't instantiate log adapter factory [" + value + "]", e);
+      }
+    }
+  }
+
+  private static LogAdapter.Factory fallback(String problem, Throwable cause) {
+    System.err.println("LCP: " + problem + " (" + cause + "), logging to the console");
+    return console();
+  }
+
+  private static LogAdapter.Factory console() {
+    return new ConsoleFactory(consoleLevel(System.getProperty(LEVEL_PROPERTY)));
+  }
+
+  /**
+   * The console threshold. Loggers are created in static initializers, so a bad value must not throw: it is reported
+   * and replaced by <code>INFO</code>.
+   */
+  static LogLevel consoleLevel(String value) {
+    if (value == null || value.length() == 0) return LogLevel.INFO;
+    try {
+      return LogLevel.valueOf(value.trim().toUpperCase(Locale.ROOT));
+    } catch (IllegalArgumentException e) {
+      System.err.println("LCP: unknown " + LEVEL_PROPERTY + " [" + value + "], using INFO");
+      return LogLevel.INFO;
+    }
+  }
+
+  /**
+   * Keeps the historical <code>HH:mm:ss.SSS - Name: message</code> lines on <code>System.out</code>.
+   */
+  static class ConsoleFactory implements LogAdapter.Factory {
+    private static final DateTimeFormatter TIME_FORMAT = DateTimeFormatter.ofPattern("HH:mm:ss.SSS");
+
+    private final LogLevel                 threshold;
+
+    ConsoleFactory(LogLevel threshold) {
+      this.threshold = threshold;
+    }
+
+    public LogAdapter getAdapter(final String name) {
+      return new LogAdapter() {
+        public boolean isEnabled(LogLevel level) {
+          return level != LogLevel.OFF && level.compareTo(threshold) >= 0;
+        }
+
+        public void log(LogLevel level, String message, Throwable t) {
+          PrintStream out = System.out;
+          String prefix = level.compareTo(LogLevel.WARN) >= 0 ? level + " " : "";
+          out.println(TIME_FORMAT.format(LocalTime.now()) + " - " + name + ": " + prefix + message);
+          if (t != null) {
+            t.printStackTrace(out);
+          }
+        }
+      };
+    }
+  }
+
+  static class JulFactory implements LogAdapter.Factory {
+    public LogAdapter getAdapter(String name) {
+      final String loggerName = "com.tc.lcp." + name;
+      final Logger logger = Logger.getLogger(loggerName);
+      return new LogAdapter() {
+        public boolean isEnabled(LogLevel level) {
+          return level != LogLevel.OFF && logger.isLoggable(toJul(level));
+        }
+
+        public void log(LogLevel level, String message, Throwable t) {
+          // name the logger as source, otherwise JUL infers this adapter from the stack
+          logger.logp(toJul(level), loggerName, null, message, t);
+        }
+      };
+    }
+
+    private static Level toJul(LogLevel level) {
+      switch (level) {
+        case TRACE:
+          return Level.FINER;
+        case DEBUG:
+          return Level.FINE;
+        case INFO:
+          return Level.INFO;
+        case WARN:
+          return Level.WARNING;
+        default:
+          return Level.SEVERE;
+      }
+    }
+  }
+}
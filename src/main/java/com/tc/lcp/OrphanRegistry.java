@@ -0,0 +1,229 @@
+/*
+ * Copyright Terracotta, Inc.
+ * Copyright Super iPaaS Integration LLC, an IBM Company 2024
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.tc.lcp;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Lets a parent find and kill the children of a parent that died without cleaning up, e.g. after <code>kill -9</code>.
+ * Such children would otherwise live on until they notice {@link HeartBeatServer#MISS_ALLOW} missed pulses.
+ * <p>
+ * When enabled, each parent JVM keeps a file <code>parent-&lt;pid&gt;-&lt;starttime&gt;.reg</code> in the registry
+ * directory listing the pid and start time of every child registered with its heartbeat servers. A sweep looks at the
+ * files of other parents: if that parent is gone, every listed child that is still the same process (same start time,
+ * so a recycled pid is never hit) and still runs {@link LinkedJavaProcessStarter} is terminated, and the file removed.
+ * <p>
+ * Process start times come from <code>/proc/&lt;pid&gt;/stat</code>, so this only does anything on Linux.
+ */
+public final class OrphanRegistry {
+  /**
+   * Directory for the registry files. When set, {@link HeartBeatService#startHeartBeatService()} sweeps it in the
+   * background and registers this JVM's children in it.
+   */
+  public static final String             DIRECTORY_PROPERTY = "com.tc.lcp.registry.dir";
+
+  private static final Log               LOG                = Log.getLogger(OrphanRegistry.class);
+  private static final String            SUFFIX             = ".reg";
+  private static final String            STARTER            = LinkedJavaProcessStarter.class.getName();
+  private static final long              KILL_GRACE_MILLIS  = 2000;
+
+  private static final Map<Long, Long>   CHILDREN           = new ConcurrentHashMap<Long, Long>();
+  private static volatile File           registryFile;
+
+  private OrphanRegistry() {
+    // cannot instantiate
+  }
+
+  /**
+   * The directory named by {@link #DIRECTORY_PROPERTY}, or <code>null</code>.
+   */
+  public static File configuredDirectory() {
+    String dir = System.getProperty(DIRECTORY_PROPERTY);
+    return dir == null ? null : new File(dir);
+  }
+
+  /**
+   * Starts recording this JVM's children in <code>directory</code>.
+   */
+  public static synchronized void enable(File directory) throws IOException {
+    if (registryFile != null) return;
+    long pid = HeartBeatClient.currentPid();
+    long startTime = startTime(pid);
+    if (startTime < 0) {
+      LOG.info("Process start times are not available on this platform, orphan registry disabled");
+      return;
+    }
+    if (!directory.isDirectory() && !directory.mkdirs()) throw new IOException("Can't create " + directory);
+    registryFile = new File(directory, "parent-" + pid + "-" + startTime + SUFFIX);
+    write();
+  }
+
+  /**
+   * Stops recording and removes this JVM's file. Children recorded so far are forgotten, a later {@link #enable(File)}
+   * starts over.
+   */
+  public static synchronized void disable() {
+    if (registryFile != null) {
+      registryFile.delete();
+      registryFile = null;
+    }
+    CHILDREN.clear();
+  }
+
+  static void childRegistered(long pid) {
+    if (registryFile == null) return;
+    long startTime = startTime(pid);
+    if (startTime >= 0) {
+      CHILDREN.put(pid, startTime);
+      writeQuietly();
+    }
+  }
+
+  static void childGone(long pid) {
+    if (registryFile == null) return;
+    if (CHILDREN.remove(pid) != null) {
+      writeQuietly();
+    }
+  }
+
+  private static void writeQuietly() {
+    try {
+      write();
+    } catch (IOException e) {
+      LOG.warn("Can't update orphan registry " + registryFile, e);
+    }
+  }
+
+  /**
+   * Rewrites the whole file: it is small, and a rename keeps a concurrent sweep from reading half of it.
+   */
+  private static synchronized void write() throws IOException {
+    File file = registryFile;
+    if (file == null) return;
+    StringBuilder sb = new StringBuilder();
+    for (Map.Entry<Long, Long> child : CHILDREN.entrySet()) {
+      sb.append(child.getKey()).append(' ').append(child.getValue()).append('\n');
+    }
+    File tmp = new File(file.getPath() + ".tmp");
+    Files.write(tmp.toPath(), sb.toString().getBytes(StandardCharsets.US_ASCII));
+    Files.move(tmp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+  }
+
+  /**
+   * Terminates the leftover children of dead parents registered in <code>directory</code>.
+   *
+   * @return the number of children terminated
+   */
+  public static int sweep(File directory) {
+    File[] files = directory.listFiles();
+    if (files == null) return 0;
+    List<Long> orphans = new ArrayList<Long>();
+    for (File file : files) {
+      String name = file.getName();
+      if (!name.startsWith("parent-") || !name.endsWith(SUFFIX) || file.equals(registryFile)) continue;
+      String[] parent = name.substring("parent-".length(), name.length() - SUFFIX.length()).split("-");
+      try {
+        if (parent.length == 2 && isSameProcess(Long.parseLong(parent[0]), Long.parseLong(parent[1]))) continue;
+        for (String line : Files.readAllLines(file.toPath(), StandardCharsets.US_ASCII)) {
+          String[] child = line.trim().split(" ");
+          if (child.length != 2) continue;
+          long pid = Long.parseLong(child[0]);
+          if (isSameProcess(pid, Long.parseLong(child[1])) && isStarter(pid)) {
+            LOG.warn("Terminating orphan {} left behind by dead parent {}", pid, parent[0]);
+            signal(pid, "TERM");
+            orphans.add(pid);
+          }
+        }
+      } catch (IOException e) {
+        LOG.warn("Can't read orphan registry " + file, e);
+        continue;
+      } catch (NumberFormatException e) {
+        LOG.warn("Ignoring malformed orphan registry {}", file);
+      }
+      file.delete();
+    }
+    killSurvivors(orphans);
+    return orphans.size();
+  }
+
+  private static void killSurvivors(List<Long> pids) {
+    long deadline = System.currentTimeMillis() + KILL_GRACE_MILLIS;
+    for (long pid : pids) {
+      while (new File("/proc/" + pid).exists() && System.currentTimeMillis() < deadline) {
+        HeartBeatServer.reallySleep(50);
+      }
+      if (new File("/proc/" + pid).exists() && isStarter(pid)) {
+        signal(pid, "KILL");
+      }
+    }
+  }
+
+  private static boolean isSameProcess(long pid, long startTime) {
+    return startTime >= 0 && startTime(pid) == startTime;
+  }
+
+  private static boolean isStarter(long pid) {
+    try {
+      byte[] cmdline = Files.readAllBytes(new File("/proc/" + pid + "/cmdline").toPath());
+      return new String(cmdline, StandardCharsets.UTF_8).contains(STARTER);
+    } catch (IOException e) {
+      return false;
+    }
+  }
+
+  private static void signal(long pid, String signal) {
+    try {
+      new ProcessBuilder("kill", "-" + signal, Long.toString(pid)).inheritIO().start().waitFor();
+    } catch (Exception e) {
+      LOG.warn("Can't send SIG" + signal + " to " + pid, e);
+    }
+  }
+
+  /**
+   * Start time of a process in clock ticks since boot (field 22 of <code>/proc/&lt;pid&gt;/stat</code>), or -1.
+   */
+  static long startTime(long pid) {
+    if (pid < 0) return -1;
+    try {
+      return parseStartTime(new String(Files.readAllBytes(new File("/proc/" + pid + "/stat").toPath()),
+                                       StandardCharsets.US_ASCII));
+    } catch (IOException e) {
+      return -1;
+    }
+  }
+
+  /**
+   * The start time in the contents of a <code>stat</code> file, or -1 if it can't be found.
+   */
+  static long parseStartTime(String stat) {
+    try {
+      // the command name in field 2 may contain spaces and parentheses, the fields after it don't
+      String[] fields = stat.substring(stat.lastIndexOf(')') + 2).split(" ");
+      return Long.parseLong(fields[19]);
+    } catch (RuntimeException e) {
+      return -1;
+    }
+  }
+}
@@ -0,0 +1,302 @@
+/*
+ * Copyright Terracotta, Inc.
+ * Copyright Super iPaaS Integration LLC, an IBM Company 2024
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.tc.lcp;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Hands a child output pipe on through {@link #stream()}, and fills its {@link OutputTail} and feeds its
+ * {@link LineDispatcher} from whichever thread reads the pipe. That is the consumer of the stream, like a
+ * {@link StreamCopier} or a {@link PrefixingFileCopier}, which reads straight from the pipe. Only while nobody consumes
+ * the stream does the drainer read the pipe on a thread of its own: when line listeners want the output, or once the
+ * child has exited, so the tail ends with the child's last output. That data is held for a consumer that comes later,
+ * up to {@link #BUFFER} bytes, or {@link #EXITED_BUFFER} once the child exited; beyond that the drainer waits, as the
+ * child would on a full pipe. Closing {@link #stream()} while the drainer reads turns the forwarding off, the tail is
+ * still filled.
+ */
+final class OutputDrainer implements Runnable {
+  static final int                      BUFFER        = 64 * 1024;
+  // bounds the pipe left to a grandchild that inherited it
+  static final int                      EXITED_BUFFER = 16 * BUFFER;
+
+  private static final Log              LOG           = Log.getLogger(OutputDrainer.class);
+
+  private final InputStream             source;
+  private final OutputTail              tail;
+  private final LineDispatcher          lines;
+  private final String                  name;
+  private final CompletableFuture<Void> idle          = new CompletableFuture<Void>();
+  // not a monitor: the drainer and the consumer wait while holding it, which would pin a virtual thread's carrier
+  private final ReentrantLock           lock          = new ReentrantLock();
+  private final Condition               changed       = lock.newCondition();
+  // allocated once the drainer reads the pipe itself
+  private byte[]                        buffer;
+  private int                           limit         = BUFFER;
+  private int                           head;
+  private int                           count;
+  private boolean                       consumed;
+  private boolean                       draining;
+  private boolean                       eof;
+  private boolean                       exited;
+  private boolean                       discard;
+  private IOException                   failure;
+
+  OutputDrainer(InputStream source, OutputTail tail, LineDispatcher lines, String name) {
+    this.source = source;
+    this.tail = tail;
+    this.lines = lines;
+    this.name = name;
+  }
+
+  String name() {
+    return name;
+  }
+
+  /**
+   * Marks the stream as read by a consumer about to start, so that the drainer never reads the pipe itself.
+   */
+  void claim() {
+    lock.lock();
+    try {
+      if (!draining) consumed = true;
+    } finally {
+      lock.unlock();
+    }
+  }
+
+  /**
+   * Has the drainer read the pipe for the line listeners if nobody consumes the stream.
+   */
+  void linesWanted() {
+    startDraining();
+  }
+
+  /**
+   * Has the drainer read the rest of the pipe if nobody consumes the stream.
+   */
+  void childExited() {
+    lock.lock();
+    try {
+      exited = true;
+      limit = EXITED_BUFFER;
+      changed.signalAll();
+    } finally {
+      lock.unlock();
+    }
+    startDraining();
+  }
+
+  private void startDraining() {
+    lock.lock();
+    try {
+      if (consumed || draining || eof) return;
+      draining = true;
+      buffer = new byte[BUFFER];
+    } finally {
+      lock.unlock();
+    }
+    LcpThreads.start(name, this);
+  }
+
+  /**
+   * Completed once everything the child wrote is in the tail: the pipe has ended, or the drainer waits for a consumer.
+   */
+  CompletableFuture<Void> idle() {
+    return idle;
+  }
+
+  @Override
+  public void run() {
+    byte[] chunk = new byte[8 * 1024];
+    IOException failed = null;
+    try {
+      int n;
+      while ((n = source.read(chunk, 0, chunk.length)) != -1) {
+        fill(chunk, 0, n);
+        forward(chunk, n);
+      }
+    } catch (IOException e) {
+      LOG.debug("{} ended: {}", name, e);
+      failed = e;
+    } finally {
+      ended(failed);
+      try {
+        source.close();
+      } catch (IOException e) {
+        // done with it
+      }
+    }
+  }
+
+  private void fill(byte[] b, int off, int len) {
+    if (tail != null) tail.append(b, off, len);
+    lines.append(b, off, len);
+  }
+
+  private void ended(IOException e) {
+    lock.lock();
+    try {
+      if (eof) return;
+      eof = true;
+      failure = e;
+      changed.signalAll();
+    } finally {
+      lock.unlock();
+    }
+    lines.close();
+    idle.complete(null);
+  }
+
+  private void forward(byte[] chunk, int n) {
+    lock.lock();
+    try {
+      int off = 0;
+      while (off < n) {
+        while (count == limit && !discard) {
+          if (exited) idle.complete(null);
+          try {
+            changed.await();
+          } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            discard = true;
+          }
+        }
+        if (discard) return;
+        if (count == buffer.length) grow();
+        int end = (head + count) % buffer.length;
+        int len = Math.min(n - off, Math.min(buffer.length - count, buffer.length - end));
+        System.arraycopy(chunk, off, buffer, end, len);
+        count += len;
+        off += len;
+        changed.signalAll();
+      }
+    } finally {
+      lock.unlock();
+    }
+  }
+
+  // called with the lock held, on a full buffer
+  private void grow() {
+    byte[] grown = new byte[Math.min(buffer.length * 2, limit)];
+    System.arraycopy(buffer, head, grown, 0, buffer.length - head);
+    System.arraycopy(buffer, 0, grown, buffer.length - head, head);
+    buffer = grown;
+    head = 0;
+  }
+
+  /**
+   * The child's output, as it would be read from the pipe.
+   */
+  InputStream stream() {
+    return new InputStream() {
+      @Override
+      public int read() throws IOException {
+        byte[] b = new byte[1];
+        return read(b, 0, 1) == -1 ? -1 : b[0] & 0xff;
+      }
+
+      @Override
+      public int read(byte[] b, int off, int len) throws IOException {
+        if (len == 0) return 0;
+        lock.lock();
+        try {
+          if (!draining) {
+            consumed = true;
+          } else {
+            return readBuffer(b, off, len);
+          }
+        } finally {
+          lock.unlock();
+        }
+        return readSource(b, off, len);
+      }
+
+      @Override
+      public int available() throws IOException {
+        lock.lock();
+        try {
+          if (!draining) return source.available();
+          return count;
+        } finally {
+          lock.unlock();
+        }
+      }
+
+      @Override
+      public void close() throws IOException {
+        lock.lock();
+        try {
+          if (draining) {
+            discard = true;
+            count = 0;
+            changed.signalAll();
+            return;
+          }
+          consumed = true;
+        } finally {
+          lock.unlock();
+        }
+        source.close();
+        ended(null);
+      }
+    };
+  }
+
+  private int readSource(byte[] b, int off, int len) throws IOException {
+    int n;
+    try {
+      n = source.read(b, off, len);
+    } catch (IOException e) {
+      ended(e);
+      throw e;
+    }
+    if (n == -1) {
+      ended(null);
+    } else {
+      fill(b, off, n);
+    }
+    return n;
+  }
+
+  // called with the lock held, once the drainer reads the pipe
+  private int readBuffer(byte[] b, int off, int len) throws IOException {
+    while (count == 0 && !eof) {
+      if (discard) throw new IOException("Stream closed");
+      try {
+        changed.await();
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+        throw new InterruptedIOException();
+      }
+    }
+    if (count == 0) {
+      if (failure != null) throw failure;
+      return -1;
+    }
+    int n = Math.min(len, Math.min(count, buffer.length - head));
+    System.arraycopy(buffer, head, b, off, n);
+    head = (head + n) % buffer.length;
+    count -= n;
+    changed.signalAll();
+    return n;
+  }
+}
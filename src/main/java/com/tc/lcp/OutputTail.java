@@ -0,0 +1,84 @@
+/*
+ * Copyright Terracotta, Inc.
+ * Copyright Super iPaaS Integration LLC, an IBM Company 2024
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.tc.lcp;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+
+/**
+ * Fixed size ring buffer holding the last bytes of a child stream. The memory used is the capacity, however much the
+ * child writes.
+ */
+final class OutputTail {
+  private final byte[] buffer;
+  private int          pos;
+  private boolean      wrapped;
+
+  OutputTail(int capacity) {
+    this.buffer = new byte[capacity];
+  }
+
+  synchronized void append(byte[] b, int off, int len) {
+    if (len >= buffer.length) {
+      System.arraycopy(b, off + len - buffer.length, buffer, 0, buffer.length);
+      pos = 0;
+      wrapped = true;
+    } else {
+      int first = Math.min(len, buffer.length - pos);
+      System.arraycopy(b, off, buffer, pos, first);
+      System.arraycopy(b, off + first, buffer, 0, len - first);
+      if (pos + len >= buffer.length) wrapped = true;
+      pos = (pos + len) % buffer.length;
+    }
+  }
+
+  /**
+   * The buffered bytes as text. Once the buffer has wrapped, the first partial line is dropped.
+   */
+  synchronized String text() {
+    if (!wrapped) return new String(buffer, 0, pos);
+    byte[] ordered = new byte[buffer.length];
+    System.arraycopy(buffer, pos, ordered, 0, buffer.length - pos);
+    System.arraycopy(buffer, 0, ordered, buffer.length - pos, pos);
+    return dropPartialLine(new String(ordered));
+  }
+
+  /**
+   * The last <code>capacity</code> bytes of <code>file</code> written after offset <code>from</code>, read without
+   * loading the rest of the file.
+   */
+  static String fileTail(File file, long from, int capacity) throws IOException {
+    RandomAccessFile raf = new RandomAccessFile(file, "r");
+    try {
+      long length = raf.length();
+      long start = Math.max(from, length - capacity);
+      byte[] bytes = new byte[(int) Math.max(0, length - start)];
+      raf.seek(start);
+      raf.readFully(bytes);
+      String text = new String(bytes);
+      return start > from ? dropPartialLine(text) : text;
+    } finally {
+      raf.close();
+    }
+  }
+
+  private static String dropPartialLine(String text) {
+    int nl = text.indexOf('\n');
+    return nl >= 0 ? text.substring(nl + 1) : text;
+  }
+}
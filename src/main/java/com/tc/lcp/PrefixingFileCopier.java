@@ -0,0 +1,102 @@
+/*
+ * Copyright Terracotta, Inc.
+ * Copyright Super iPaaS Integration LLC, an IBM Company 2024
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.tc.lcp;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Appends a process stream to a file with every line prefixed, for when a plain kernel-level redirect won't do because
+ * of the prefix. Unlike {@link StreamCopier} it never decodes the output: it reads large chunks of bytes, slices them at
+ * line ends and hands prefix and slices to a single gathering {@link FileChannel#write(ByteBuffer[])} per chunk.
+ */
+public class PrefixingFileCopier extends Thread {
+  private static final int  BUFFER_SIZE = 64 * 1024;
+
+  private final InputStream in;
+  private final File        file;
+  private final byte[]      prefix;
+
+  public PrefixingFileCopier(InputStream in, File file, String prefix) {
+    if (in == null || file == null || prefix == null) {
+      throw new AssertionError("null arguments not allowed");
+    }
+    this.in = in;
+    this.file = file;
+    this.prefix = prefix.getBytes(Charset.defaultCharset());
+
+    setName("Prefixing File Copier");
+    setDaemon(true);
+  }
+
+  public void run() {
+    FileChannel out = null;
+    try {
+      out = FileChannel.open(file.toPath(), StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                             StandardOpenOption.APPEND);
+      byte[] buffer = new byte[BUFFER_SIZE];
+      List<ByteBuffer> pieces = new ArrayList<ByteBuffer>();
+      boolean lineStart = true;
+      int read;
+      while ((read = in.read(buffer)) >= 0) {
+        int start = 0;
+        for (int i = 0; i < read; i++) {
+          if (lineStart) {
+            pieces.add(ByteBuffer.wrap(prefix));
+            lineStart = false;
+          }
+          if (buffer[i] == '\n') {
+            pieces.add(ByteBuffer.wrap(buffer, start, i + 1 - start));
+            start = i + 1;
+            lineStart = true;
+          }
+        }
+        if (start < read) {
+          pieces.add(ByteBuffer.wrap(buffer, start, read - start));
+        }
+        writeFully(out, pieces.toArray(new ByteBuffer[pieces.size()]));
+        pieces.clear();
+      }
+    } catch (IOException ioe) {
+      ioe.printStackTrace();
+    } finally {
+      if (out != null) {
+        try {
+          out.close();
+        } catch (IOException e) {
+          // ignore
+        }
+      }
+    }
+  }
+
+  private static void writeFully(FileChannel out, ByteBuffer[] pieces) throws IOException {
+    if (pieces.length == 0) return;
+    // buffers are drained in order, so once the last one is empty all of them are
+    ByteBuffer last = pieces[pieces.length - 1];
+    while (last.hasRemaining()) {
+      out.write(pieces);
+    }
+  }
+}
@@ -22,17 +22,46 @@ import java.io.File;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
-import java.util.Iterator;
+import java.lang.ProcessBuilder.Redirect;
 import java.util.Map;
+import java.util.concurrent.TimeUnit;
 
 public abstract class ProcessExecutor {
 
+  /**
+   * Starts <code>command</code> with exactly the environment <code>env</code> and all standard streams piped.
+   */
   public static ProcessExecutor exec(String[] command, Map<String, String> env, File workingDir) throws IOException {
+    return exec(command, false, env, workingDir, Redirects.pipes());
+  }
+
+  /**
+   * Starts <code>command</code> with the given environment. The overrides of <code>env</code> are applied straight to
+   * the copy of the parent environment that the {@link ProcessBuilder} makes.
+   */
+  public static ProcessExecutor exec(String[] command, ChildEnvironment env, File workingDir, Redirects redirects)
+      throws IOException {
+    return exec(command, env.inheritsBase(), env.overrides(), workingDir, redirects);
+  }
+
+  private static ProcessExecutor exec(String[] command, boolean inheritEnv, Map<String, String> envDelta,
+                                      File workingDir, Redirects redirects) throws IOException {
+    ProcessBuilder builder = new ProcessBuilder(command);
+    Map<String, String> environment = builder.environment();
+    if (!inheritEnv) environment.clear();
+    for (Map.Entry<String, String> entry : envDelta.entrySet()) {
+      if (entry.getValue() == null) {
+        environment.remove(entry.getKey());
+      } else {
+        environment.put(entry.getKey(), entry.getValue());
+      }
+    }
+    redirects.applyTo(builder);
     if (isWindows()) {
-      fixupWindowsEnvironment(env);
-      return new JavaWithWin32ShortenedPathProcessExecutor(command, env, workingDir);
+      fixupWindowsEnvironment(environment);
+      return new JavaWithWin32ShortenedPathProcessExecutor(builder, workingDir);
     } else {
-      return new JavaProcessExecutor(command, env, workingDir);
+      return new JavaProcessExecutor(builder, workingDir);
     }
   }
 
@@ -84,23 +113,74 @@ public abstract class ProcessExecutor {
 
   public abstract int waitFor() throws InterruptedException;
 
+  /**
+   * @return <code>false</code> if the child is still running after the timeout
+   */
+  public abstract boolean waitFor(long timeout, TimeUnit unit) throws InterruptedException;
+
+  /**
+   * Kills the child without giving it a chance to clean up.
+   */
+  public abstract void destroyForcibly();
+
+  public abstract boolean isAlive();
+
+  /**
+   * How the standard streams of the child are connected. All three are pipes unless told otherwise, which is what
+   * <code>Runtime.exec()</code> used to give us.
+   */
+  public static final class Redirects {
+    private Redirect stdin  = Redirect.PIPE;
+    private Redirect stdout = Redirect.PIPE;
+    private Redirect stderr = Redirect.PIPE;
+    private boolean  mergeErrorStream;
+
+    public static Redirects pipes() {
+      return new Redirects();
+    }
+
+    /**
+     * The child shares this JVM's stdin, stdout and stderr, no copier threads needed.
+     */
+    public static Redirects inheritIO() {
+      return new Redirects().stdin(Redirect.INHERIT).stdout(Redirect.INHERIT).stderr(Redirect.INHERIT);
+    }
+
+    public Redirects stdin(Redirect redirect) {
+      this.stdin = redirect;
+      return this;
+    }
+
+    public Redirects stdout(Redirect redirect) {
+      this.stdout = redirect;
+      return this;
+    }
+
+    public Redirects stderr(Redirect redirect) {
+      this.stderr = redirect;
+      return this;
+    }
+
+    /**
+     * Sends stderr to wherever stdout goes; the stderr redirect is then ignored.
+     */
+    public Redirects mergeErrorStream(boolean merge) {
+      this.mergeErrorStream = merge;
+      return this;
+    }
+
+    void applyTo(ProcessBuilder builder) {
+      builder.redirectInput(stdin).redirectOutput(stdout).redirectError(stderr).redirectErrorStream(mergeErrorStream);
+    }
+  }
+
   static class JavaProcessExecutor extends ProcessExecutor {
     private Process process;
     private String[] command;
 
-    JavaProcessExecutor(String[] command, Map<String, String> env, File workingDir) throws IOException {
-      this.command = command;
-      this.process = Runtime.getRuntime().exec(command, makeEnv(env), workingDir);
-    }
-
-    private static String[] makeEnv(Map<String, String> env) {
-      int i = 0;
-      String[] rv = new String[env.size()];
-      for (Iterator<String> iter = env.keySet().iterator(); iter.hasNext(); i++) {
-        String key = iter.next();
-        rv[i] = key + "=" + env.get(key);
-      }
-      return rv;
+    JavaProcessExecutor(ProcessBuilder builder, File workingDir) throws IOException {
+      this.command = builder.command().toArray(new String[0]);
+      this.process = builder.directory(workingDir).start();
     }
 
 
@@ -140,11 +220,26 @@ public abstract class ProcessExecutor {
     public int waitFor() throws InterruptedException {
       return process.waitFor();
     }
+
+    @Override
+    public boolean waitFor(long timeout, TimeUnit unit) throws InterruptedException {
+      return process.waitFor(timeout, unit);
+    }
+
+    @Override
+    public void destroyForcibly() {
+      process.destroyForcibly();
+    }
+
+    @Override
+    public boolean isAlive() {
+      return process.isAlive();
+    }
   }
 
   static class JavaWithWin32ShortenedPathProcessExecutor extends JavaProcessExecutor {
-    JavaWithWin32ShortenedPathProcessExecutor(String[] command, Map<String, String> env, File workingDir) throws IOException {
-      super(command, env, shortenedPath(workingDir));
+    JavaWithWin32ShortenedPathProcessExecutor(ProcessBuilder builder, File workingDir) throws IOException {
+      super(builder, shortenedPath(workingDir));
     }
 
     /**
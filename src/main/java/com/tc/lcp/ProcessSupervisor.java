@@ -0,0 +1,341 @@
+/*
+ * Copyright Terracotta, Inc.
+ * Copyright Super iPaaS Integration LLC, an IBM Company 2024
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.tc.lcp;
+
+import java.io.IOException;
+import java.util.ArrayDeque;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Keeps a {@link LinkedJavaProcess} running: when the child exits it is started again according to a
+ * {@link RestartPolicy}, after an exponential backoff. The supervisor gives up once the restart budget is spent or the
+ * child restarts more often than the rate limit allows.
+ * <p>
+ * Restarts go through the same {@link LinkedJavaProcess}, so the classpath jar and the environment built for the
+ * first start are reused. Whatever is attached to the streams of a run, like {@link LinkedJavaProcess#mergeSTDOUT()},
+ * must be attached again for the next one, see {@link #onStart(Consumer)}.
+ */
+public final class ProcessSupervisor {
+  public enum RestartPolicy {
+    NEVER, ON_FAILURE, ALWAYS
+  }
+
+  private static final Log        LOG                 = Log.getLogger(ProcessSupervisor.class);
+
+  private final LinkedJavaProcess process;
+  private RestartPolicy           policy              = RestartPolicy.ON_FAILURE;
+  private long                    initialBackoff      = 1000;
+  private long                    maxBackoff          = 60 * 1000;
+  private int                     maxRestarts         = 10;
+  private int                     rateLimitRestarts   = 5;
+  private long                    rateLimitWindow     = 60 * 1000;
+  // a child that ran this long without exiting starts the backoff over
+  private long                    stableAfter         = 60 * 1000;
+
+  // not a monitor: the backoff waits while holding it, which would pin a virtual thread's carrier
+  private final ReentrantLock     lock                = new ReentrantLock();
+  private final Condition         changed             = lock.newCondition();
+  private final ArrayDeque<Long>  recentRestarts      = new ArrayDeque<Long>();
+  private final List<Consumer<LinkedJavaProcess>> startListeners =
+      new CopyOnWriteArrayList<Consumer<LinkedJavaProcess>>();
+  private boolean                 supervising;
+  private volatile boolean        stopped;
+  private boolean                 done;
+  private int                     restartCount;
+  private int                     lastExitCode        = -1;
+  private long                    downSince           = -1;
+  private long                    totalDowntime;
+
+  public ProcessSupervisor(LinkedJavaProcess process) {
+    this.process = process;
+  }
+
+  public void setRestartPolicy(RestartPolicy policy) {
+    this.policy = policy;
+  }
+
+  /**
+   * The delay before the first restart, doubled for every further restart up to <code>maxMillis</code>.
+   */
+  public void setBackoff(long initialMillis, long maxMillis) {
+    if (initialMillis < 0 || maxMillis < initialMillis) {
+      throw new IllegalArgumentException("backoff: " + initialMillis + ".." + maxMillis);
+    }
+    this.initialBackoff = initialMillis;
+    this.maxBackoff = maxMillis;
+  }
+
+  /**
+   * The number of restarts after which the supervisor gives up, or -1 for no limit.
+   */
+  public void setMaxRestarts(int maxRestarts) {
+    this.maxRestarts = maxRestarts;
+  }
+
+  /**
+   * Gives up if the child needs more than <code>restarts</code> restarts within <code>windowMillis</code>.
+   */
+  public void setRateLimit(int restarts, long windowMillis) {
+    this.rateLimitRestarts = restarts;
+    this.rateLimitWindow = windowMillis;
+  }
+
+  /**
+   * How long the child must run for the backoff to go back to its initial delay.
+   */
+  public void setStableAfter(long stableAfterMillis) {
+    this.stableAfter = stableAfterMillis;
+  }
+
+  public LinkedJavaProcess getProcess() {
+    return process;
+  }
+
+  /**
+   * Calls <code>listener</code> after every start of the child, the first one included, for example to
+   * {@link LinkedJavaProcess#mergeSTDOUT() merge} the output of each run: a chatty child nobody reads from blocks once
+   * its pipe is full.
+   */
+  public void onStart(Consumer<LinkedJavaProcess> listener) {
+    startListeners.add(listener);
+  }
+
+  /**
+   * Starts the child and a thread restarting it whenever it exits.
+   */
+  public void start() throws IOException {
+    lock.lock();
+    try {
+      if (supervising) throw new IllegalStateException("This ProcessSupervisor is already started.");
+      supervising = true;
+    } finally {
+      lock.unlock();
+    }
+    try {
+      startChild();
+    } catch (IOException e) {
+      lock.lock();
+      try {
+        supervising = false;
+      } finally {
+        lock.unlock();
+      }
+      throw e;
+    }
+    LcpThreads.start("ProcessSupervisor " + process.getMainClassName(), new Runnable() {
+      public void run() {
+        supervise();
+      }
+    });
+  }
+
+  private void supervise() {
+    long backoff = initialBackoff;
+    try {
+      while (true) {
+        long startedAt = System.currentTimeMillis();
+        int exitCode = process.waitFor();
+        long exitedAt = System.currentTimeMillis();
+        if (exitedAt - startedAt >= stableAfter) {
+          backoff = initialBackoff;
+        }
+
+        lock.lock();
+        try {
+          lastExitCode = exitCode;
+          String reason = giveUpReason(exitCode, exitedAt);
+          if (reason != null) {
+            if (!stopped) LOG.warn("Not restarting {}: {}", process.getMainClassName(), reason);
+            return;
+          }
+          downSince = exitedAt;
+          LOG.warn("{} exited with code {}, restarting in {}ms", process.getMainClassName(), exitCode, backoff);
+          long wakeUp = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(backoff);
+          long remaining;
+          while (!stopped && (remaining = wakeUp - System.nanoTime()) > 0) {
+            changed.awaitNanos(remaining);
+          }
+          if (stopped) return;
+        } finally {
+          lock.unlock();
+        }
+        startChild();
+        lock.lock();
+        try {
+          long restartedAt = System.currentTimeMillis();
+          restartCount++;
+          recentRestarts.addLast(restartedAt);
+          totalDowntime += restartedAt - downSince;
+          downSince = -1;
+        } finally {
+          lock.unlock();
+        }
+        backoff = Math.min(backoff * 2, maxBackoff);
+      }
+    } catch (InterruptedException e) {
+      LOG.warn("Supervision of {} interrupted", process.getMainClassName());
+    } catch (IOException e) {
+      LOG.error("Can't restart " + process.getMainClassName(), e);
+    } catch (IllegalStateException e) {
+      // stop() destroyed the child before it was waited for
+      if (!stopped) throw e;
+    } finally {
+      lock.lock();
+      try {
+        // stopped or failed to restart, the downtime stops counting once nobody restarts the child
+        if (downSince >= 0) {
+          totalDowntime += System.currentTimeMillis() - downSince;
+          downSince = -1;
+        }
+        done = true;
+        changed.signalAll();
+      } finally {
+        lock.unlock();
+      }
+    }
+  }
+
+  /**
+   * Starts the child outside the lock, so that neither stop() nor the getters wait for a slow start. A stop() that
+   * came while starting may have missed the new child, which is then destroyed here; the supervision loop sees it exit
+   * and gives up.
+   */
+  private void startChild() throws IOException {
+    process.start();
+    if (stopped) {
+      destroyQuietly();
+      return;
+    }
+    for (Consumer<LinkedJavaProcess> listener : startListeners) {
+      try {
+        listener.accept(process);
+      } catch (RuntimeException e) {
+        LOG.error("Start listener " + listener + " of " + process.getMainClassName() + " failed", e);
+      }
+    }
+  }
+
+  private void destroyQuietly() {
+    try {
+      process.destroy();
+    } catch (IllegalStateException e) {
+      // not running
+    }
+  }
+
+  // called with the lock held
+  private String giveUpReason(int exitCode, long now) {
+    if (stopped) return "stopped";
+    if (policy == RestartPolicy.NEVER) return "restart policy is " + policy;
+    if (policy == RestartPolicy.ON_FAILURE && exitCode == 0) return "exited normally";
+    if (maxRestarts >= 0 && restartCount >= maxRestarts) return "restarted " + restartCount + " times already";
+    while (!recentRestarts.isEmpty() && now - recentRestarts.peekFirst() > rateLimitWindow) {
+      recentRestarts.removeFirst();
+    }
+    if (recentRestarts.size() >= rateLimitRestarts) {
+      return "restarted " + recentRestarts.size() + " times in the last " + rateLimitWindow + "ms";
+    }
+    return null;
+  }
+
+  /**
+   * Stops restarting and destroys the child if it is running.
+   */
+  public void stop() {
+    lock.lock();
+    try {
+      stopped = true;
+      changed.signalAll();
+      destroyQuietly();
+    } finally {
+      lock.unlock();
+    }
+  }
+
+  /**
+   * Waits for the supervisor to give up or be stopped.
+   *
+   * @return <code>false</code> if it is still supervising after the timeout
+   */
+  public boolean awaitTermination(long timeoutMillis) throws InterruptedException {
+    long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(timeoutMillis);
+    lock.lock();
+    try {
+      long remaining;
+      while (!done) {
+        if ((remaining = deadline - System.nanoTime()) <= 0) return false;
+        changed.awaitNanos(remaining);
+      }
+      return true;
+    } finally {
+      lock.unlock();
+    }
+  }
+
+  public boolean isSupervising() {
+    lock.lock();
+    try {
+      return supervising && !done;
+    } finally {
+      lock.unlock();
+    }
+  }
+
+  public int getRestartCount() {
+    lock.lock();
+    try {
+      return restartCount;
+    } finally {
+      lock.unlock();
+    }
+  }
+
+  /**
+   * Exit code of the last child that exited, or -1 if none has yet.
+   */
+  public int getLastExitCode() {
+    lock.lock();
+    try {
+      return lastExitCode;
+    } finally {
+      lock.unlock();
+    }
+  }
+
+  /**
+   * Time spent between a child exiting and its replacement being started, including the current wait for a restart.
+   */
+  public long getTotalDowntimeMillis() {
+    lock.lock();
+    try {
+      return totalDowntime + (downSince >= 0 ? System.currentTimeMillis() - downSince : 0);
+    } finally {
+      lock.unlock();
+    }
+  }
+
+  @Override
+  public String toString() {
+    return "ProcessSupervisor[" + process.getMainClassName() + ", policy=" + policy + ", restarts="
+           + getRestartCount() + ", downtime=" + getTotalDowntimeMillis() + "ms]";
+  }
+}
@@ -0,0 +1,107 @@
+/*
+ * Copyright Terracotta, Inc.
+ * Copyright Super iPaaS Integration LLC, an IBM Company 2024
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.tc.lcp;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Predicate;
+
+/**
+ * A {@link HeartBeatDomain} spread over several {@link HeartBeatServer}s, each with its own listen socket, accept
+ * thread and pulse timer. New children are handed out round-robin, so no single accept loop or timer serves all of
+ * them.
+ */
+public class ShardedHeartBeatDomain implements HeartBeatDomain {
+  private final List<HeartBeatServer> shards;
+  private final AtomicInteger         next = new AtomicInteger();
+
+  public ShardedHeartBeatDomain(int shardCount) {
+    if (shardCount < 1) throw new IllegalArgumentException("shardCount must be positive: " + shardCount);
+    List<HeartBeatServer> servers = new ArrayList<HeartBeatServer>(shardCount);
+    for (int i = 0; i < shardCount; i++) {
+      servers.add(new HeartBeatServer());
+    }
+    this.shards = Collections.unmodifiableList(servers);
+  }
+
+  public List<HeartBeatServer> shards() {
+    return shards;
+  }
+
+  public void start() {
+    for (HeartBeatServer shard : shards) {
+      shard.start();
+    }
+  }
+
+  public void shutdown() {
+    for (HeartBeatServer shard : shards) {
+      shard.shutdown();
+    }
+  }
+
+  public HeartBeatServer nextServer() {
+    return shards.get((next.getAndIncrement() & Integer.MAX_VALUE) % shards.size());
+  }
+
+  public List<ChildHandle> children() {
+    List<ChildHandle> children = new ArrayList<ChildHandle>();
+    for (HeartBeatServer shard : shards) {
+      children.addAll(shard.children());
+    }
+    return children;
+  }
+
+  public ChildHandle child(String clientId) {
+    for (HeartBeatServer shard : shards) {
+      ChildHandle child = shard.child(clientId);
+      if (child != null) return child;
+    }
+    return null;
+  }
+
+  public int killChildren(Predicate<? super ChildHandle> predicate) {
+    int killed = 0;
+    for (HeartBeatServer shard : shards) {
+      killed += shard.killChildren(predicate);
+    }
+    return killed;
+  }
+
+  public void sendKillSignalToChildren() {
+    for (HeartBeatServer shard : shards) {
+      shard.sendKillSignalToChildren();
+    }
+  }
+
+  public boolean anyAppServerAlive() {
+    for (HeartBeatServer shard : shards) {
+      if (shard.anyAppServerAlive()) return true;
+    }
+    return false;
+  }
+
+  public HeartBeatMetrics.Snapshot metricsSnapshot() {
+    List<HeartBeatMetrics.Snapshot> snapshots = new ArrayList<HeartBeatMetrics.Snapshot>(shards.size());
+    for (HeartBeatServer shard : shards) {
+      snapshots.add(shard.metricsSnapshot());
+    }
+    return HeartBeatMetrics.Snapshot.combine(snapshots);
+  }
+}
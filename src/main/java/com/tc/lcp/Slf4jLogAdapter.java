@@ -0,0 +1,76 @@
+/*
+ * Copyright Terracotta, Inc.
+ * Copyright Super iPaaS Integration LLC, an IBM Company 2024
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.tc.lcp;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Routes {@link Log} to SLF4J. Kept in its own class so that SLF4J is only needed on the classpath when selected.
+ */
+class Slf4jLogAdapter implements LogAdapter {
+  private final Logger logger;
+
+  Slf4jLogAdapter(Logger logger) {
+    this.logger = logger;
+  }
+
+  public boolean isEnabled(LogLevel level) {
+    switch (level) {
+      case TRACE:
+        return logger.isTraceEnabled();
+      case DEBUG:
+        return logger.isDebugEnabled();
+      case INFO:
+        return logger.isInfoEnabled();
+      case WARN:
+        return logger.isWarnEnabled();
+      case ERROR:
+        return logger.isErrorEnabled();
+      default:
+        return false;
+    }
+  }
+
+  public void log(LogLevel level, String message, Throwable t) {
+    switch (level) {
+      case TRACE:
+        logger.trace(message, t);
+        break;
+      case DEBUG:
+        logger.debug(message, t);
+        break;
+      case INFO:
+        logger.info(message, t);
+        break;
+      case WARN:
+        logger.warn(message, t);
+        break;
+      case ERROR:
+        logger.error(message, t);
+        break;
+      default:
+        break;
+    }
+  }
+
+  static class Factory implements LogAdapter.Factory {
+    public LogAdapter getAdapter(String name) {
+      return new Slf4jLogAdapter(LoggerFactory.getLogger("com.tc.lcp." + name));
+    }
+  }
+}
@@ -0,0 +1,261 @@
+/*
+ * Copyright Terracotta, Inc.
+ * Copyright Super iPaaS Integration LLC, an IBM Company 2024
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.tc.lcp;
+
+import java.io.IOException;
+import java.util.PriorityQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.BiConsumer;
+
+/**
+ * Admission control for starting many {@link LinkedJavaProcess}es. {@link #start(LinkedJavaProcess, int)} waits until
+ * fewer than the maximum number of children are booting and alive, and, while another child is still booting, until
+ * the host has headroom: a one minute load average per core under the limit and enough available memory, read from
+ * <code>/proc/loadavg</code> and <code>/proc/meminfo</code>. Waiting requests are admitted by priority, then in
+ * arrival order.
+ * <p>
+ * A child counts as booting until it registers over the heartbeat, exits, or the boot timeout passes, and as alive
+ * until it exits. Slots are released by callbacks on the child's registration and exit, no thread waits per child.
+ * Without <code>/proc</code> only the counts are enforced.
+ */
+public final class SpawnScheduler {
+  private static final Log                 LOG                = Log.getLogger(SpawnScheduler.class);
+  // how often a request held back by host load looks again
+  private static final long                LOAD_RECHECK_NANOS = TimeUnit.MILLISECONDS.toNanos(250);
+  // releases the boot slots of children that don't register in time, for all schedulers
+  private static final ScheduledThreadPoolExecutor BOOT_TIMEOUTS = new ScheduledThreadPoolExecutor(1,
+      new ThreadFactory() {
+        public Thread newThread(Runnable r) {
+          return LcpThreads.newThread("SpawnScheduler boot timeouts", r);
+        }
+      });
+
+  static {
+    BOOT_TIMEOUTS.setRemoveOnCancelPolicy(true);
+  }
+
+  private int                              maxConcurrentBoots = Runtime.getRuntime().availableProcessors();
+  private int                              maxLiveChildren    = -1;
+  private double                           maxLoadPerCore     = 2.0;
+  private long                             minAvailableMemory = 0;
+  private long                             bootTimeout        = 30 * 1000;
+
+  // not a monitor: requests wait while holding it, which would pin a virtual thread's carrier
+  private final ReentrantLock              lock               = new ReentrantLock();
+  private final Condition                  changed            = lock.newCondition();
+  private final PriorityQueue<Request>     queue              = new PriorityQueue<Request>();
+  private long                             sequence;
+  private int                              booting;
+  private int                              live;
+
+  public void setMaxConcurrentBoots(int maxConcurrentBoots) {
+    if (maxConcurrentBoots < 1) throw new IllegalArgumentException("maxConcurrentBoots: " + maxConcurrentBoots);
+    this.maxConcurrentBoots = maxConcurrentBoots;
+  }
+
+  /**
+   * -1 for no limit.
+   */
+  public void setMaxLiveChildren(int maxLiveChildren) {
+    this.maxLiveChildren = maxLiveChildren;
+  }
+
+  /**
+   * The one minute load average per core above which no further child is started while one is booting; 0 or less
+   * turns the check off.
+   */
+  public void setMaxLoadPerCore(double maxLoadPerCore) {
+    this.maxLoadPerCore = maxLoadPerCore;
+  }
+
+  /**
+   * The <code>MemAvailable</code> below which no further child is started while one is booting; 0 turns the check off.
+   */
+  public void setMinAvailableMemory(long bytes) {
+    this.minAvailableMemory = bytes;
+  }
+
+  public void setBootTimeout(long bootTimeoutMillis) {
+    this.bootTimeout = bootTimeoutMillis;
+  }
+
+  /**
+   * Waits to be admitted, then starts the process. Requests with a higher priority are admitted first.
+   */
+  public void start(LinkedJavaProcess process, int priority) throws IOException, InterruptedException {
+    lock.lock();
+    try {
+      Request request = new Request(priority, sequence++);
+      queue.add(request);
+      try {
+        while (queue.peek() != request || !admissible()) {
+          if (queue.peek() == request && booting < maxConcurrentBoots && underChildLimit()) {
+            // only held back by the host, which doesn't signal
+            changed.awaitNanos(LOAD_RECHECK_NANOS);
+          } else {
+            changed.await();
+          }
+        }
+      } finally {
+        queue.remove(request);
+        // the next in line may be admissible as well
+        changed.signalAll();
+      }
+      // the slot is taken before starting, outside the lock, so that no other request is admitted into it meanwhile
+      booting++;
+      live++;
+    } finally {
+      lock.unlock();
+    }
+    boolean started = false;
+    try {
+      process.start();
+      started = true;
+    } finally {
+      if (!started) {
+        release(true);
+        release(false);
+      }
+    }
+    track(process);
+  }
+
+  // called with the lock held
+  private boolean admissible() {
+    if (booting >= maxConcurrentBoots || !underChildLimit()) return false;
+    // always let one child boot, whatever else loads the host
+    return booting == 0 || hostHasHeadroom();
+  }
+
+  private boolean underChildLimit() {
+    return maxLiveChildren < 0 || live < maxLiveChildren;
+  }
+
+  private boolean hostHasHeadroom() {
+    if (maxLoadPerCore > 0) {
+      double load = HostResources.loadAverage();
+      if (load >= 0 && load / Runtime.getRuntime().availableProcessors() >= maxLoadPerCore) return false;
+    }
+    if (minAvailableMemory > 0) {
+      long available = HostResources.availableMemory();
+      if (available >= 0 && available < minAvailableMemory) return false;
+    }
+    return true;
+  }
+
+  private void track(final LinkedJavaProcess process) {
+    final CompletableFuture<ChildHandle> registered = process.registration();
+    final CompletableFuture<Integer> exited = process.exitFuture();
+    final AtomicBoolean booting = new AtomicBoolean(true);
+    final ScheduledFuture<?> timeout = BOOT_TIMEOUTS.schedule(new Runnable() {
+      public void run() {
+        if (booting.compareAndSet(true, false)) {
+          LOG.warn("{} did not register within {}ms", process.getMainClassName(), bootTimeout);
+          release(true);
+        }
+      }
+    }, bootTimeout, TimeUnit.MILLISECONDS);
+    registered.whenComplete(new BiConsumer<ChildHandle, Throwable>() {
+      public void accept(ChildHandle handle, Throwable failure) {
+        if (booting.compareAndSet(true, false)) {
+          timeout.cancel(false);
+          release(true);
+        }
+      }
+    });
+    // completed once the exit is handled, also when the handling failed
+    exited.whenComplete(new BiConsumer<Integer, Throwable>() {
+      public void accept(Integer exitCode, Throwable failure) {
+        if (booting.compareAndSet(true, false)) {
+          timeout.cancel(false);
+          release(true);
+        }
+        // a child that never registered leaves its future behind, unless somebody else waits for it
+        process.forgetRegistration(registered);
+        release(false);
+      }
+    });
+  }
+
+  private void release(boolean boot) {
+    lock.lock();
+    try {
+      if (boot) {
+        booting--;
+      } else {
+        live--;
+      }
+      changed.signalAll();
+    } finally {
+      lock.unlock();
+    }
+  }
+
+  public int getQueued() {
+    lock.lock();
+    try {
+      return queue.size();
+    } finally {
+      lock.unlock();
+    }
+  }
+
+  public int getBooting() {
+    lock.lock();
+    try {
+      return booting;
+    } finally {
+      lock.unlock();
+    }
+  }
+
+  public int getLive() {
+    lock.lock();
+    try {
+      return live;
+    } finally {
+      lock.unlock();
+    }
+  }
+
+  @Override
+  public String toString() {
+    return "SpawnScheduler[queued=" + getQueued() + ", booting=" + getBooting() + ", live=" + getLive() + "]";
+  }
+
+  private static class Request implements Comparable<Request> {
+    private final int  priority;
+    private final long sequence;
+
+    Request(int priority, long sequence) {
+      this.priority = priority;
+      this.sequence = sequence;
+    }
+
+    public int compareTo(Request other) {
+      if (priority != other.priority) return priority > other.priority ? -1 : 1;
+      return sequence < other.sequence ? -1 : sequence == other.sequence ? 0 : 1;
+    }
+  }
+}
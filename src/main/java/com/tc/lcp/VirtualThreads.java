@@ -0,0 +1,37 @@
+/*
+ * Copyright Terracotta, Inc.
+ * Copyright Super iPaaS Integration LLC, an IBM Company 2024
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.tc.lcp;
+
+import java.util.concurrent.ThreadFactory;
+
+/**
+ * Access to virtual threads. This is the version for JVMs without them; the multi-release jar carries a JDK 21 one
+ * under <code>META-INF/versions/21</code>.
+ */
+final class VirtualThreads {
+
+  private VirtualThreads() {
+    // cannot instantiate
+  }
+
+  /**
+   * @return a factory of virtual threads, or <code>null</code> if this JVM has none
+   */
+  static ThreadFactory factory() {
+    return null;
+  }
+}
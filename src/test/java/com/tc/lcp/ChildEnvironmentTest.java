@@ -0,0 +1,89 @@
+/*
+ * Copyright Terracotta, Inc.
+ * Copyright Super iPaaS Integration LLC, an IBM Company 2024
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.tc.lcp;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.Map;
+
+/**
+ * Unit test for {@link ChildEnvironment}.
+ */
+public class ChildEnvironmentTest {
+
+  @Test
+  public void testOverridesOnInheritedBase() {
+    Map.Entry<String, String> inherited = System.getenv().entrySet().iterator().next();
+    ChildEnvironment env = ChildEnvironment.inherit();
+    assertEquals(inherited.getValue(), env.get(inherited.getKey()));
+
+    env.setAll(Arrays.asList("LCP_A=1", "LCP_B=x=y", "LCP_C="));
+    env.unset(inherited.getKey());
+    assertEquals("1", env.get("LCP_A"));
+    assertEquals("x=y", env.get("LCP_B"));
+    assertEquals("", env.get("LCP_C"));
+    assertNull(env.get(inherited.getKey()));
+    // the removal is kept as an override, the rest of the base is untouched
+    assertTrue(env.overrides().containsKey(inherited.getKey()));
+    assertEquals(4, env.overrides().size());
+
+    Map<String, String> map = env.toMap();
+    assertEquals(System.getenv().size() - 1 + 3, map.size());
+    assertFalse(map.containsKey(inherited.getKey()));
+
+    ChildEnvironment copy = env.copy().set("LCP_A", "2");
+    assertEquals("1", env.get("LCP_A"));
+    assertEquals("2", copy.get("LCP_A"));
+  }
+
+  @Test
+  public void testClearDropsBase() {
+    ChildEnvironment env = ChildEnvironment.inherit().set("LCP_A", "1").clear().set("LCP_B", "2");
+    assertFalse(env.inheritsBase());
+    assertNull(env.get("LCP_A"));
+    assertEquals(1, env.toMap().size());
+    // nothing to remove from without a base
+    env.unset("PATH").unset("LCP_B");
+    assertTrue(env.overrides().isEmpty());
+    assertTrue(ChildEnvironment.empty().toMap().isEmpty());
+  }
+
+  @Test
+  public void testInvalidEntries() {
+    for (String entry : Arrays.asList("NOEQUALS", "=value", "A\u0000B=1")) {
+      try {
+        ChildEnvironment.inherit().set(entry);
+        fail(entry);
+      } catch (IllegalArgumentException e) {
+        // expected
+      }
+    }
+    try {
+      ChildEnvironment.inherit().set("A", "nul\u0000");
+      fail();
+    } catch (IllegalArgumentException e) {
+      // expected
+    }
+  }
+}
@@ -0,0 +1,91 @@
+/*
+ * Copyright Terracotta, Inc.
+ * Copyright Super iPaaS Integration LLC, an IBM Company 2024
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.tc.lcp;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import org.junit.Test;
+
+import java.util.BitSet;
+
+/**
+ * Unit test for {@link CpuAllocator}.
+ */
+public class CpuAllocatorTest {
+
+  @Test
+  public void testAllocateFromExplicitPool() {
+    CpuAllocator allocator = new CpuAllocator("0-3");
+    assertEquals(4, allocator.getFreeCpus());
+
+    CpuPlacement first = allocator.allocate(2);
+    CpuPlacement second = allocator.allocate(2);
+    assertEquals(2, first.getCpuCount());
+    assertEquals(2, second.getCpuCount());
+    assertEquals(0, allocator.getFreeCpus());
+
+    BitSet both = first.cpuSet();
+    assertFalse(both.intersects(second.cpuSet()));
+    both.or(second.cpuSet());
+    assertEquals(CpuPlacement.parseCpuList("0-3"), both);
+    if (allocator.getNumaNodes() == 1) assertEquals(-1, first.getNumaNode());
+
+    try {
+      allocator.allocate(1);
+      fail();
+    } catch (IllegalStateException e) {
+      // expected
+    }
+
+    allocator.release(first);
+    assertEquals(2, allocator.getFreeCpus());
+    CpuPlacement third = allocator.allocate(1);
+    assertTrue(first.cpuSet().intersects(third.cpuSet()));
+    assertEquals(1, allocator.getFreeCpus());
+  }
+
+  @Test
+  public void testReleaseRejectsForeignPlacements() {
+    CpuAllocator allocator = new CpuAllocator("0-1");
+    CpuPlacement placement = allocator.allocate(1);
+
+    // the same CPUs, but not handed out by this allocator
+    for (CpuPlacement foreign : new CpuPlacement[] { CpuPlacement.cpus(0, 1), CpuPlacement.cpus(placement.getCpuList()),
+        new CpuAllocator("0-1").allocate(1) }) {
+      try {
+        allocator.release(foreign);
+        fail(foreign.toString());
+      } catch (IllegalArgumentException e) {
+        // expected
+      }
+    }
+    assertEquals(1, allocator.getFreeCpus());
+
+    allocator.release(placement);
+    assertEquals(2, allocator.getFreeCpus());
+    try {
+      allocator.release(placement);
+      fail();
+    } catch (IllegalArgumentException e) {
+      // expected
+    }
+    assertEquals(2, allocator.getFreeCpus());
+  }
+}
@@ -0,0 +1,62 @@
+/*
+ * Copyright Terracotta, Inc.
+ * Copyright Super iPaaS Integration LLC, an IBM Company 2024
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.tc.lcp;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import org.junit.Test;
+
+import java.util.BitSet;
+
+/**
+ * Unit test for {@link CpuPlacement}.
+ */
+public class CpuPlacementTest {
+
+  @Test
+  public void testParseCpuList() {
+    BitSet cpus = CpuPlacement.parseCpuList(" 0-3, 8,10-11\n");
+    assertEquals(7, cpus.cardinality());
+    for (int cpu : new int[] { 0, 1, 2, 3, 8, 10, 11 }) {
+      assertTrue(String.valueOf(cpu), cpus.get(cpu));
+    }
+    assertTrue(CpuPlacement.parseCpuList("").isEmpty());
+    assertEquals(1, CpuPlacement.parseCpuList("5-5").cardinality());
+
+    for (String invalid : new String[] { "a", "1-", "-1", "3-1", "0,,x" }) {
+      try {
+        CpuPlacement.parseCpuList(invalid);
+        fail(invalid);
+      } catch (IllegalArgumentException e) {
+        // expected
+      }
+    }
+  }
+
+  @Test
+  public void testGetCpuList() {
+    assertEquals("0-3,8,10-11", CpuPlacement.cpus("11,10,8,3,2,1,0").getCpuList());
+    assertEquals("1,3,5", CpuPlacement.cpus(5, 3, 1).getCpuList());
+    assertEquals("0-1", CpuPlacement.cpus(0, 1).getCpuList());
+    assertEquals("", CpuPlacement.numaNode(0).getCpuList());
+    assertEquals("2-4", CpuPlacement.cpus("2-4").onNumaNode(1).getCpuList());
+    assertEquals(1, CpuPlacement.cpus("2-4").onNumaNode(1).getNumaNode());
+    assertEquals(-1, CpuPlacement.cpus("2-4").getNumaNode());
+  }
+}
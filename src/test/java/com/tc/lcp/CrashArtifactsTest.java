@@ -0,0 +1,96 @@
+/*
+ * Copyright Terracotta, Inc.
+ * Copyright Super iPaaS Integration LLC, an IBM Company 2024
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.tc.lcp;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Enumeration;
+import java.util.List;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
+
+/**
+ * Unit test for {@link CrashArtifacts}.
+ */
+public class CrashArtifactsTest {
+
+  @Test
+  public void testCollectsFilesOfTheRun() throws Exception {
+    File workingDir = Files.createTempDirectory("lcp-artifacts").toFile();
+    CrashArtifacts artifacts = new CrashArtifacts();
+    File artifactDir = artifacts.createArtifactDirectory("com.example.Main", workingDir);
+    long startedAt = System.currentTimeMillis();
+    write(new File(artifactDir, "java_pid1.hprof"));
+    // written within the slack before the start, as a file system with coarse timestamps would record it
+    File coarse = write(new File(workingDir, "hs_err_pid1.log"));
+    assertTrue(coarse.setLastModified(startedAt - CrashArtifacts.MTIME_SLACK / 2));
+    // left by an earlier run
+    File old = write(new File(workingDir, "hs_err_pid2.log"));
+    assertTrue(old.setLastModified(startedAt - 60 * 1000));
+    write(new File(workingDir, "core.1"));
+
+    File archive = artifacts.collect(artifactDir, workingDir, startedAt, 134, "out\n", "err\n");
+    assertEquals(new File(artifactDir, CrashArtifacts.ARCHIVE_FILE), archive);
+    List<String> entries = entries(archive);
+    Collections.sort(entries);
+    assertEquals("[core.1, hs_err_pid1.log, index.txt, java_pid1.hprof, stderr-tail.txt, stdout-tail.txt]",
+                 entries.toString());
+    // archived files of the run directory are deleted, the shared working directory is left alone
+    assertFalse(new File(artifactDir, "java_pid1.hprof").exists());
+    assertTrue(coarse.exists());
+  }
+
+  @Test
+  public void testCleanRunLeavesNothing() throws Exception {
+    File workingDir = Files.createTempDirectory("lcp-artifacts").toFile();
+    CrashArtifacts artifacts = new CrashArtifacts();
+    artifacts.setCollectCoreFiles(false);
+    File artifactDir = artifacts.createArtifactDirectory("com.example.Main", workingDir);
+    write(new File(workingDir, "core"));
+
+    assertNull(artifacts.collect(artifactDir, workingDir, System.currentTimeMillis(), 0, "", ""));
+    assertFalse(artifactDir.exists());
+  }
+
+  private static File write(File file) throws IOException {
+    Files.write(file.toPath(), "data".getBytes());
+    return file;
+  }
+
+  private static List<String> entries(File archive) throws IOException {
+    List<String> names = new ArrayList<String>();
+    ZipFile zip = new ZipFile(archive);
+    try {
+      for (Enumeration<? extends ZipEntry> e = zip.entries(); e.hasMoreElements();) {
+        names.add(e.nextElement().getName());
+      }
+    } finally {
+      zip.close();
+    }
+    return names;
+  }
+}
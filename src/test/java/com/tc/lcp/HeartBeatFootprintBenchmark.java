@@ -0,0 +1,85 @@
+/*
+ * Copyright Terracotta, Inc.
+ * Copyright Super iPaaS Integration LLC, an IBM Company 2024
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.tc.lcp;
+
+import java.io.BufferedReader;
+import java.io.FileReader;
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+
+/**
+ * Connects many in-process {@link HeartBeatClient}s to one {@link HeartBeatServer} and reports the thread and memory
+ * footprint, to compare platform with virtual threads:
+ *
+ * <pre>
+ * java -cp ... com.tc.lcp.HeartBeatFootprintBenchmark 1000
+ * java -Dcom.tc.lcp.threads=virtual -cp ... com.tc.lcp.HeartBeatFootprintBenchmark 1000
+ * </pre>
+ *
+ * Virtual threads need JDK 21+ and the multi-release jar on the classpath. Each client costs a reader thread on both
+ * ends, so 1000 clients are 2000 blocked threads.
+ */
+public class HeartBeatFootprintBenchmark {
+
+  public static void main(String[] args) throws Exception {
+    int clients = args.length > 0 ? Integer.parseInt(args[0]) : 1000;
+    long baselineRss = rssKb();
+    int baselineThreads = ManagementFactory.getThreadMXBean().getThreadCount();
+
+    HeartBeatServer server = new HeartBeatServer();
+    server.start();
+    long start = System.nanoTime();
+    for (int i = 0; i < clients; i++) {
+      LcpThreads.start("HeartBeatClient", new HeartBeatClient(server.listeningPort(), "client-" + i, false));
+    }
+    while (server.children().size() < clients) {
+      Thread.sleep(10);
+    }
+    long connectMillis = (System.nanoTime() - start) / 1000000;
+
+    System.gc();
+    Runtime rt = Runtime.getRuntime();
+    System.out.println("threads mode:        " + System.getProperty(LcpThreads.THREADS_PROPERTY, LcpThreads.PLATFORM)
+                       + " (virtual available: " + LcpThreads.virtualThreadsAvailable() + ")");
+    System.out.println("clients connected:   " + clients + " in " + connectMillis + "ms");
+    System.out.println("platform threads:    " + baselineThreads + " -> "
+                       + ManagementFactory.getThreadMXBean().getThreadCount());
+    System.out.println("heap used after GC:  " + (rt.totalMemory() - rt.freeMemory()) / 1024 + " KiB");
+    System.out.println("resident set size:   " + baselineRss + " -> " + rssKb() + " KiB");
+    System.exit(0);
+  }
+
+  /**
+   * VmRSS from <code>/proc/self/status</code>, -1 where that doesn't exist.
+   */
+  private static long rssKb() {
+    try {
+      BufferedReader reader = new BufferedReader(new FileReader("/proc/self/status"));
+      try {
+        String line;
+        while ((line = reader.readLine()) != null) {
+          if (line.startsWith("VmRSS:")) return Long.parseLong(line.replaceAll("[^0-9]", ""));
+        }
+      } finally {
+        reader.close();
+      }
+    } catch (IOException e) {
+      // not Linux
+    }
+    return -1;
+  }
+}
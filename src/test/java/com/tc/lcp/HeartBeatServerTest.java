@@ -0,0 +1,375 @@
+/*
+ * Copyright Terracotta, Inc.
+ * Copyright Super iPaaS Integration LLC, an IBM Company 2024
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.tc.lcp;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import org.junit.After;
+import org.junit.Test;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.PrintWriter;
+import java.lang.management.ManagementFactory;
+import java.net.Socket;
+import java.util.ArrayList;
+import java.util.EnumSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.function.Predicate;
+
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+/**
+ * Unit test for {@link HeartBeatServer}, talking the line protocol over raw sockets in place of a child.
+ */
+public class HeartBeatServerTest {
+  private static final int PULSE = 50;
+
+  private HeartBeatServer  server;
+
+  @After
+  public void shutdown() {
+    if (server != null) server.shutdown();
+  }
+
+  @Test
+  public void testUnansweredPulsesOnlyDropThatClient() throws Exception {
+    server = new HeartBeatServer(PULSE, HeartBeatServer.RECONNECT_GRACE);
+    server.start();
+    final RawClient responder = new RawClient(server, "responder:1");
+    RawClient silent = new RawClient(server, "silent:2");
+    Thread answering = new Thread(new Runnable() {
+      public void run() {
+        try {
+          String line;
+          while ((line = responder.in.readLine()) != null) {
+            if (HeartBeatServer.PULSE.equals(line)) responder.out.println(HeartBeatServer.PULSE);
+          }
+        } catch (IOException e) {
+          // closed
+        }
+      }
+    });
+    answering.setDaemon(true);
+    answering.start();
+
+    // the silent client is dropped after MISS_ALLOW pulses, the responder keeps being pulsed meanwhile
+    assertTrue(awaitGone(server, "silent:2", PULSE * (HeartBeatServer.MISS_ALLOW + 20)));
+    assertNotNull(server.child("responder:1"));
+    assertTrue(server.child("responder:1").isConnected());
+    assertTrue(server.metrics().getPulsesAcked() > 0);
+    assertTrue(server.metrics().getMissedPulses() >= HeartBeatServer.MISS_ALLOW);
+    assertEquals(1, server.metrics().getDeadClientRemovals());
+    responder.close();
+    silent.close();
+  }
+
+  @Test
+  public void testClientIntroducedAfterShutdownIsKilled() throws Exception {
+    // the client has a pulse interval to introduce itself
+    server = new HeartBeatServer(10000, HeartBeatServer.RECONNECT_GRACE);
+    server.start();
+    Socket socket = new Socket("localhost", server.listeningPort());
+    // accepted, but shut down before it introduced itself
+    Thread.sleep(100);
+    server.shutdown();
+    server = null;
+
+    PrintWriter out = new PrintWriter(socket.getOutputStream(), true);
+    BufferedReader in = new BufferedReader(new InputStreamReader(socket.getInputStream()));
+    out.println("late:1");
+    assertEquals(HeartBeatServer.KILL, in.readLine());
+    assertNull(in.readLine());
+    socket.close();
+  }
+
+  @Test
+  public void testClientWithoutProtocolOnlyGetsPulses() throws Exception {
+    // a child with an lcp jar from before the protocol version, which dies on any message it doesn't know
+    server = new HeartBeatServer(PULSE, HeartBeatServer.RECONNECT_GRACE);
+    server.start();
+    Socket socket = new Socket("localhost", server.listeningPort());
+    PrintWriter out = new PrintWriter(socket.getOutputStream(), true);
+    BufferedReader in = new BufferedReader(new InputStreamReader(socket.getInputStream()));
+    out.println("legacy:1");
+    assertEquals(HeartBeatServer.PULSE, in.readLine());
+    out.println(HeartBeatServer.PULSE);
+    ChildHandle child = server.child("legacy:1");
+    assertNotNull(child);
+    assertEquals("legacy", child.getClientName());
+    assertEquals(-1, child.ping(1000));
+    try {
+      child.runDiagnostic(DiagnosticCommands.THREAD_DUMP, null, 1000);
+      fail();
+    } catch (IOException e) {
+      // expected
+    }
+    assertEquals(HeartBeatServer.PULSE, in.readLine());
+    socket.close();
+  }
+
+  @Test
+  public void testClientProtocolIsNotPartOfItsName() throws Exception {
+    server = new HeartBeatServer(10000, HeartBeatServer.RECONNECT_GRACE);
+    server.start();
+    RawClient client = new RawClient(server, "modern:1");
+    ChildHandle child = server.child("modern:1");
+    assertNotNull(child);
+    assertEquals("modern", child.getClientName());
+    client.close();
+  }
+
+  @Test
+  public void testHealthAndMetrics() throws Exception {
+    server = new HeartBeatServer(PULSE, HeartBeatServer.RECONNECT_GRACE);
+    server.start();
+    RawClient silent = new RawClient(server, "silent:1");
+    ChildHandle child = server.child("silent:1");
+    ObjectName mbean = new ObjectName("com.tc.lcp:type=HeartBeatServer,port=" + server.listeningPort());
+    MBeanServer mbeanServer = ManagementFactory.getPlatformMBeanServer();
+
+    assertEquals(ClientHealth.HEALTHY, child.getHealth());
+    assertEquals(1, mbeanServer.getAttribute(mbean, "ConnectedClients"));
+    Set<ClientHealth> seen = EnumSet.noneOf(ClientHealth.class);
+    long deadline = System.currentTimeMillis() + 30000;
+    while (child.getHealth() != ClientHealth.DEAD && System.currentTimeMillis() < deadline) {
+      seen.add(child.getHealth());
+      Thread.sleep(5);
+    }
+    seen.add(child.getHealth());
+    // one more missed pulse at each step
+    assertEquals(EnumSet.allOf(ClientHealth.class), seen);
+    assertTrue(awaitGone(server, "silent:1", 5000));
+
+    HeartBeatMetrics.Snapshot snapshot = server.metricsSnapshot();
+    assertEquals(0, snapshot.getConnectedClients());
+    assertEquals(1, snapshot.getClientsAccepted());
+    assertEquals(HeartBeatServer.MISS_ALLOW, snapshot.getMissedPulses());
+    assertEquals(HeartBeatServer.MISS_ALLOW, snapshot.getPulsesSent());
+    assertEquals(0, snapshot.getPulsesAcked());
+    assertEquals(1, snapshot.getDeadClientRemovals());
+    assertEquals(1L, mbeanServer.getAttribute(mbean, "DeadClientRemovals"));
+    silent.close();
+
+    server.shutdown();
+    server = null;
+    assertFalse(mbeanServer.isRegistered(mbean));
+  }
+
+  @Test
+  public void testConcurrentRegistration() throws Exception {
+    server = new HeartBeatServer(10000, HeartBeatServer.RECONNECT_GRACE);
+    server.start();
+    final int count = 32;
+    final List<RawClient> clients = new CopyOnWriteArrayList<RawClient>();
+    final CountDownLatch go = new CountDownLatch(1);
+    List<Thread> threads = new ArrayList<Thread>();
+    for (int i = 0; i < count; i++) {
+      final int n = i;
+      Thread t = new Thread(new Runnable() {
+        public void run() {
+          try {
+            go.await();
+            RawClient client = new RawClient(server, "child:" + n);
+            client.out.println(HeartBeatServer.PID + " " + (100000 + n));
+            clients.add(client);
+          } catch (Exception e) {
+            throw new RuntimeException(e);
+          }
+        }
+      });
+      t.start();
+      threads.add(t);
+    }
+    go.countDown();
+    for (Thread t : threads) {
+      t.join(30000);
+    }
+
+    assertEquals(count, clients.size());
+    assertEquals(count, server.clientIds().size());
+    assertEquals(count, server.clientIdsForName("child").size());
+    // the PID line is read after registration
+    for (int i = 0; i < count; i++) {
+      long deadline = System.currentTimeMillis() + 30000;
+      while (server.clientIdForPid(100000 + i) == null && System.currentTimeMillis() < deadline) {
+        Thread.sleep(10);
+      }
+      assertEquals("child:" + i, server.clientIdForPid(100000 + i));
+    }
+
+    assertEquals(count / 2, server.killChildren(new Predicate<ChildHandle>() {
+      public boolean test(ChildHandle child) {
+        return child.getPid() % 2 == 0;
+      }
+    }));
+    assertEquals(count / 2, server.children().size());
+    assertNull(server.child("child:0"));
+    assertNull(server.clientIdForPid(100000));
+    assertNotNull(server.child("child:1"));
+    for (RawClient client : clients) {
+      client.close();
+    }
+  }
+
+  @Test
+  public void testResumeSession() throws Exception {
+    server = new HeartBeatServer(10000, 30000);
+    server.start();
+    RawClient client = new RawClient(server, "client:1");
+    ChildHandle child = server.child("client:1");
+    client.close();
+
+    RawClient resumed = RawClient.resume(server, client.sessionToken);
+    assertEquals(HeartBeatServer.RESUMED, resumed.in.readLine());
+    assertSame(child, server.child("client:1"));
+    resumed.out.println(HeartBeatServer.PONG + " 1");
+    resumed.out.println(HeartBeatServer.PID + " 4242");
+    long deadline = System.currentTimeMillis() + 30000;
+    while (child.getPid() != 4242 && System.currentTimeMillis() < deadline) {
+      Thread.sleep(10);
+    }
+    assertEquals(4242, child.getPid());
+    assertEquals(1, server.metrics().getSessionsResumed());
+    resumed.close();
+  }
+
+  @Test
+  public void testResumeAfterGraceIsRejected() throws Exception {
+    server = new HeartBeatServer(10000, 100);
+    server.start();
+    RawClient client = new RawClient(server, "client:1");
+    client.close();
+    assertTrue(awaitGone(server, "client:1", 30000));
+
+    RawClient late = RawClient.resume(server, client.sessionToken);
+    assertEquals(HeartBeatServer.KILL, late.in.readLine());
+    assertNull(late.in.readLine());
+    late.close();
+  }
+
+  @Test
+  public void testAwaitAppServerReady() throws Exception {
+    server = new HeartBeatServer(10000, 100);
+    server.start();
+    final RawClient client = new RawClient(server, "app:1");
+    client.out.println(HeartBeatServer.APP_SERVER_STATE + " " + AppServerState.STARTING);
+    ChildHandle child = server.child("app:1");
+    assertFalse(child.awaitAppServerReady(100));
+
+    Thread ready = new Thread(new Runnable() {
+      public void run() {
+        HeartBeatServer.reallySleep(200);
+        client.out.println(HeartBeatServer.APP_SERVER_STATE + " " + AppServerState.READY);
+      }
+    });
+    ready.start();
+    assertTrue(child.awaitAppServerReady(30000));
+    assertEquals(AppServerState.READY, child.getAppServerState());
+    client.close();
+  }
+
+  @Test
+  public void testAppServerStoppingBeforeReady() throws Exception {
+    server = new HeartBeatServer(10000, 100);
+    server.start();
+    RawClient client = new RawClient(server, "app:1");
+    client.out.println(HeartBeatServer.APP_SERVER_STATE + " " + AppServerState.STARTING);
+    client.out.println(HeartBeatServer.APP_SERVER_STATE + " " + AppServerState.STOPPING);
+    ChildHandle child = server.child("app:1");
+
+    long start = System.currentTimeMillis();
+    assertFalse(child.awaitAppServerReady(30000));
+    assertTrue(System.currentTimeMillis() - start < 10000);
+    assertEquals(AppServerState.STOPPING, child.getAppServerState());
+    // a late READY doesn't change the outcome
+    client.out.println(HeartBeatServer.APP_SERVER_STATE + " " + AppServerState.READY);
+    assertFalse(child.awaitAppServerReady(100));
+    client.close();
+  }
+
+  @Test
+  public void testAppServerDyingBeforeReady() throws Exception {
+    server = new HeartBeatServer(10000, 100);
+    server.start();
+    RawClient client = new RawClient(server, "app:1");
+    client.out.println(HeartBeatServer.APP_SERVER_STATE + " " + AppServerState.STARTING);
+    ChildHandle child = server.child("app:1");
+    client.close();
+
+    long start = System.currentTimeMillis();
+    assertFalse(child.awaitAppServerReady(30000));
+    assertTrue(System.currentTimeMillis() - start < 10000);
+    assertTrue(awaitGone(server, "app:1", 30000));
+  }
+
+  static boolean awaitGone(HeartBeatServer server, String clientId, long timeoutMillis) throws InterruptedException {
+    long deadline = System.currentTimeMillis() + timeoutMillis;
+    while (server.child(clientId) != null) {
+      if (System.currentTimeMillis() > deadline) return false;
+      Thread.sleep(10);
+    }
+    return true;
+  }
+
+  /**
+   * The client side of the protocol, registered but otherwise driven by the test.
+   */
+  static class RawClient {
+    final Socket         socket;
+    final BufferedReader in;
+    final PrintWriter    out;
+    String               sessionToken;
+
+    RawClient(HeartBeatServer server, String clientId) throws IOException {
+      this(server, clientId + " " + HeartBeatServer.PROTOCOL + " " + HeartBeatServer.PROTOCOL_VERSION, null);
+      String session = in.readLine();
+      assertTrue(session, session.startsWith(HeartBeatServer.SESSION + " "));
+      sessionToken = session.substring(HeartBeatServer.SESSION.length() + 1);
+    }
+
+    private RawClient(HeartBeatServer server, String firstLine, String sessionToken) throws IOException {
+      socket = new Socket("localhost", server.listeningPort());
+      in = new BufferedReader(new InputStreamReader(socket.getInputStream()));
+      out = new PrintWriter(socket.getOutputStream(), true);
+      out.println(firstLine);
+      this.sessionToken = sessionToken;
+    }
+
+    /**
+     * Opens a new connection resuming a session; the reply is left to the test to read.
+     */
+    static RawClient resume(HeartBeatServer server, String sessionToken) throws IOException {
+      return new RawClient(server, HeartBeatServer.RESUME + " " + sessionToken, sessionToken);
+    }
+
+    void close() throws IOException {
+      socket.close();
+    }
+  }
+}
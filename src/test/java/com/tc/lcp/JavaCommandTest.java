@@ -0,0 +1,95 @@
+/*
+ * Copyright Terracotta, Inc.
+ * Copyright Super iPaaS Integration LLC, an IBM Company 2024
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.tc.lcp;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+import java.io.File;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Unit test for {@link JavaCommand}.
+ */
+public class JavaCommandTest {
+
+  @Test
+  public void testQuote() {
+    assertEquals("\"plain\"", JavaCommand.quote("plain"));
+    assertEquals("\"\"", JavaCommand.quote(""));
+    assertEquals("\"with space\"", JavaCommand.quote("with space"));
+    assertEquals("\"C:\\\\Program Files\\\\x\"", JavaCommand.quote("C:\\Program Files\\x"));
+    assertEquals("\"say \\\"hi\\\"\"", JavaCommand.quote("say \"hi\""));
+    assertEquals("\"a\\nb\\rc\\td\"", JavaCommand.quote("a\nb\rc\td"));
+    assertEquals("\"#not a comment\"", JavaCommand.quote("#not a comment"));
+  }
+
+  @Test
+  public void testArgFileReuse() throws Exception {
+    File dir = new File("target", "argfiles-" + System.currentTimeMillis());
+    assertTrue(dir.mkdirs());
+    List<String> args = Arrays.asList("-Dlcp.a=1", "-Dlcp.b=two words");
+
+    File file = JavaCommand.argFile(dir, args);
+    assertEquals("\"-Dlcp.a=1\"\n\"-Dlcp.b=two words\"\n",
+                 new String(Files.readAllBytes(file.toPath()), StandardCharsets.UTF_8));
+    // an unchanged file isn't written again
+    assertTrue(file.setLastModified(0));
+    assertEquals(file, JavaCommand.argFile(dir, args));
+    assertEquals(0, file.lastModified());
+
+    File other = JavaCommand.argFile(dir, Collections.singletonList("-Dlcp.a=2"));
+    assertNotEquals(file, other);
+    // no temporary files left behind
+    assertEquals(2, dir.list().length);
+
+    assertEquals(2, JavaCommand.deleteArgFiles());
+    assertFalse(file.exists());
+    assertFalse(other.exists());
+    assertEquals(0, JavaCommand.deleteArgFiles());
+  }
+
+  @Test
+  public void testBuild() throws Exception {
+    File dir = new File("target");
+    JavaCommand command = new JavaCommand("java").prefix(Arrays.asList("taskset", "-c", "0"))
+        .launchArgs(Collections.singletonList("-Dlcp.launch=1")).jvmArgs(Arrays.asList("-Xmx64m", "-Dlcp.x=y"))
+        .main("Main", Collections.singletonList("arg"));
+    String[] all = { "taskset", "-c", "0", "java", "-Dlcp.launch=1", "-Xmx64m", "-Dlcp.x=y", "Main", "arg" };
+    assertArrayEquals(all, command.toArray());
+    // short enough, or no argument files
+    assertArrayEquals(all, command.build(dir));
+    assertArrayEquals(all, command.argFileThreshold(0).build(null));
+
+    String[] built = command.build(dir);
+    assertEquals(8, built.length);
+    assertEquals("-Dlcp.launch=1", built[4]);
+    assertTrue(built[5].startsWith("@"));
+    assertEquals("Main", built[6]);
+    assertTrue(new File(built[5].substring(1)).isFile());
+    JavaCommand.deleteArgFiles();
+  }
+}
@@ -0,0 +1,126 @@
+/*
+ * Copyright Terracotta, Inc.
+ * Copyright Super iPaaS Integration LLC, an IBM Company 2024
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.tc.lcp;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Unit test for {@link JvmProfile}.
+ */
+public class JvmProfileTest {
+
+  @Test
+  public void testOptionKey() {
+    assertEquals("gc", JvmProfile.optionKey("-XX:+UseG1GC"));
+    assertEquals("gc", JvmProfile.optionKey("-XX:-UseParallelGC"));
+    assertEquals("gc", JvmProfile.optionKey("-XX:+UseShenandoahGC"));
+    // mention a collector without selecting one
+    assertEquals("UseAdaptiveSizePolicyWithSystemGC", JvmProfile.optionKey("-XX:+UseAdaptiveSizePolicyWithSystemGC"));
+    assertEquals("UseAdaptiveGCBoundary", JvmProfile.optionKey("-XX:+UseAdaptiveGCBoundary"));
+    assertEquals("-Xmx", JvmProfile.optionKey("-Xmx2g"));
+    assertEquals("-Xmx", JvmProfile.optionKey("-XX:MaxRAMPercentage=50"));
+    assertEquals("-Xmx", JvmProfile.optionKey("-XX:MaxRAMFraction=2"));
+    assertEquals("-Xms", JvmProfile.optionKey("-Xms64m"));
+    assertEquals("-Xms", JvmProfile.optionKey("-XX:InitialRAMPercentage=10"));
+    assertEquals("-Xss", JvmProfile.optionKey("-Xss512k"));
+    assertEquals("ActiveProcessorCount", JvmProfile.optionKey("-XX:ActiveProcessorCount=2"));
+    assertEquals("TieredStopAtLevel", JvmProfile.optionKey("-XX:TieredStopAtLevel=1"));
+    assertEquals("UseCompressedOops", JvmProfile.optionKey("-XX:-UseCompressedOops"));
+    assertEquals("-Dfoo=bar", JvmProfile.optionKey("-Dfoo=bar"));
+  }
+
+  @Test
+  public void testMegabytes() {
+    assertEquals(64, JvmProfile.megabytes("64m"));
+    assertEquals(2048, JvmProfile.megabytes("2G"));
+    assertEquals(1, JvmProfile.megabytes("512k"));
+    assertEquals(1, JvmProfile.megabytes("1048576"));
+    assertEquals(2, JvmProfile.megabytes("1048577"));
+    assertEquals(1024 * 1024, JvmProfile.megabytes("1t"));
+    assertEquals(-1, JvmProfile.megabytes(""));
+    assertEquals(-1, JvmProfile.megabytes("lots"));
+  }
+
+  @Test
+  public void testSizing() {
+    List<String> args = JvmProfile.THROUGHPUT_SERVER.jvmArgs(1);
+    long heap = JvmProfile.megabytes(value(args, "-Xmx"));
+    assertTrue(args.toString(), heap >= 256 && heap <= 32 * 1024);
+    assertEquals(heap, JvmProfile.megabytes(value(args, "-Xms")));
+    assertTrue(args.contains("-XX:+UseParallelGC"));
+    assertTrue(args.contains("-XX:ActiveProcessorCount=" + Runtime.getRuntime().availableProcessors()));
+
+    // more children get no more than a single one
+    long shared = JvmProfile.megabytes(value(JvmProfile.THROUGHPUT_SERVER.jvmArgs(1000), "-Xmx"));
+    assertTrue(shared >= 256 && shared <= heap);
+
+    args = JvmProfile.SMALL_FAST_START.jvmArgs(1);
+    assertEquals("16m", value(args, "-Xms"));
+    assertTrue(JvmProfile.megabytes(value(args, "-Xmx")) <= 256);
+    assertTrue(args.contains("-XX:ActiveProcessorCount=1"));
+  }
+
+  @Test
+  public void testOverrides() {
+    List<String> args = JvmProfile.THROUGHPUT_SERVER.jvmArgs(1, Arrays.asList("-Xmx300m", "-XX:+UseG1GC"));
+    assertNull(value(args, "-Xmx"));
+    assertNull(value(args, "-Xms"));
+    assertFalse(args.contains("-XX:+UseParallelGC"));
+    args = JvmProfile.THROUGHPUT_SERVER.jvmArgs(1, Arrays.asList("-XX:+UseAdaptiveSizePolicyWithSystemGC"));
+    assertTrue(args.contains("-XX:+UseParallelGC"));
+
+    // a larger initial heap raises the profile's max
+    args = JvmProfile.SMALL_FAST_START.jvmArgs(1, Collections.singletonList("-Xms1g"));
+    assertNull(value(args, "-Xms"));
+    assertEquals("1024m", value(args, "-Xmx"));
+    args = JvmProfile.SMALL_FAST_START.jvmArgs(1, Collections.singletonList("-Xms20m"));
+    assertTrue(JvmProfile.megabytes(value(args, "-Xmx")) >= 32);
+
+    args = JvmProfile.SMALL_FAST_START.jvmArgs(1, Collections.singletonList("-XX:InitialRAMPercentage=50"));
+    assertNull(value(args, "-Xms"));
+    assertNull(value(args, "-Xmx"));
+  }
+
+  @Test
+  public void testCpuPlacementSetsProcessorCount() {
+    List<String> none = Collections.emptyList();
+    assertTrue(JvmProfile.THROUGHPUT_SERVER.jvmArgs(64, none, CpuPlacement.cpus("0-2"))
+        .contains("-XX:ActiveProcessorCount=3"));
+    // a node without CPUs leaves the share of the host
+    assertTrue(JvmProfile.THROUGHPUT_SERVER.jvmArgs(1, none, CpuPlacement.numaNode(0))
+        .contains("-XX:ActiveProcessorCount=" + Runtime.getRuntime().availableProcessors()));
+    assertTrue(JvmProfile.SMALL_FAST_START.jvmArgs(1, none, CpuPlacement.cpus("0-2"))
+        .contains("-XX:ActiveProcessorCount=1"));
+  }
+
+  private static String value(List<String> args, String option) {
+    String rv = null;
+    for (String arg : args) {
+      if (arg.startsWith(option)) rv = arg.substring(option.length());
+    }
+    return rv;
+  }
+}
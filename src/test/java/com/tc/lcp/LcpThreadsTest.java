@@ -0,0 +1,44 @@
+/*
+ * Copyright Terracotta, Inc.
+ * Copyright Super iPaaS Integration LLC, an IBM Company 2024
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.tc.lcp;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+import java.util.concurrent.ThreadFactory;
+
+/**
+ * Unit test for {@link LcpThreads}.
+ */
+public class LcpThreadsTest {
+
+  @Test
+  public void testUnknownValueUsesPlatformThreads() {
+    for (String value : new String[] { LcpThreads.PLATFORM, "platfrom", "" }) {
+      ThreadFactory factory = LcpThreads.fromSystemProperty(value);
+      Thread t = factory.newThread(new Runnable() {
+        public void run() {
+          // nothing
+        }
+      });
+      assertTrue(value, t.isDaemon());
+      assertEquals(value, Thread.class, t.getClass());
+    }
+  }
+}
@@ -17,13 +17,38 @@
 package com.tc.lcp;
 
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
 import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+import static org.junit.Assume.assumeTrue;
 
 import org.junit.Ignore;
 import org.junit.Test;
 
+import java.io.BufferedReader;
+import java.io.EOFException;
 import java.io.File;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.PrintWriter;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.file.Files;
+import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+import java.util.function.Predicate;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
 
 /**
  * Unit test for {@link LinkedJavaProcess}.
@@ -52,6 +77,68 @@ public class LinkedJavaProcessTest {
     assertEquals("Hi there!", ignoreStandardWarnings(outCollector.toString()).trim());
   }
 
+  @Test
+  public void testAwaitLine() throws Exception {
+    LinkedJavaProcess process = new LinkedJavaProcess(LinkedJavaProcessTestMain1.class.getName());
+    process.setDirectory(new File("target"));
+    CompletableFuture<String> ho = process.onLine(Pattern.compile("Ho there"));
+    process.start();
+
+    assertEquals("DATA: Hi there!", process.awaitLine(Pattern.compile("^DATA: Hi"), 30000));
+    assertEquals("DATA: Ho there!", ho.get(30000, TimeUnit.MILLISECONDS));
+
+    process.waitFor();
+    try {
+      process.awaitLine(Pattern.compile("never printed"), 30000);
+      fail("output already ended");
+    } catch (EOFException e) {
+      // expected
+    }
+  }
+
+  @Test
+  public void testAwaitLineLeavesOutputToReaders() throws Exception {
+    // more than the drainer holds for a reader: the child waits for one once the line was seen
+    LinkedJavaProcess process = new LinkedJavaProcess(LinkedJavaProcessTestMain7.class.getName(),
+                                                      Arrays.asList("2500"), null);
+    process.setDirectory(new File("target"));
+    process.start();
+    assertEquals("line 10 of the output nobody reads", process.awaitLine(Pattern.compile("^line 10 "), 30000));
+
+    StreamCollector outCollector = new StreamCollector(process.getInputStream());
+    outCollector.start();
+    assertEquals(3, process.waitFor());
+    outCollector.join(30000);
+    String out = outCollector.toString();
+    assertTrue(out.startsWith("line 0 "));
+    assertTrue(out.endsWith("last line\n"));
+    assertEquals(2501, out.split("\n").length);
+  }
+
+  @Test
+  public void testLineListenerNextToPrefixedRedirect() throws Exception {
+    File file = getTempFile("prefixed-" + System.currentTimeMillis() + ".log").getAbsoluteFile();
+    LinkedJavaProcess process = new LinkedJavaProcess(LinkedJavaProcessTestMain7.class.getName(),
+                                                      Arrays.asList("2500"), null);
+    process.setDirectory(new File("target"));
+    process.redirectSTDOUT(file, "[out] ");
+    final List<String> lines = new CopyOnWriteArrayList<String>();
+    process.addLineListener(new LineListener() {
+      public void lineRead(Stream stream, String line) {
+        if (stream == Stream.STDOUT) lines.add(line);
+      }
+    });
+    process.start();
+    assertEquals(3, process.waitFor());
+
+    List<String> written = Files.readAllLines(file.toPath());
+    assertEquals(2501, written.size());
+    assertEquals("[out] line 0 of the output nobody reads", written.get(0));
+    assertEquals("[out] last line", written.get(2500));
+    assertEquals(2501, lines.size());
+    assertEquals("last line", lines.get(2500));
+  }
+
   private static String ignoreStandardWarnings(String input) {
     debugPrintln("*****  inputString=[" + input + "]");
 
@@ -100,6 +187,184 @@ public class LinkedJavaProcessTest {
     assertEquals("err: <Test Input!>", ignoreStandardWarnings(errCollector.toString()).trim());
   }
 
+  @Test
+  public void testRedirectsRelativeToChildDirectory() throws Exception {
+    File dir = getTempFile("redirect-" + System.currentTimeMillis());
+    assertTrue(dir.mkdirs());
+    LinkedJavaProcess process = new LinkedJavaProcess(LinkedJavaProcessTestMain1.class.getName());
+    process.setDirectory(dir);
+    process.redirectSTDOUT(new File("child-out.log"));
+    process.redirectSTDERR(new File("child-err.log"), "[err] ");
+    process.start();
+    process.waitFor();
+
+    assertEquals("Hi there!", ignoreStandardWarnings(read(new File(dir, "child-out.log"))).trim());
+    assertTrue(read(new File(dir, "child-err.log")).contains("[err] DATA: Ho there!"));
+    assertFalse(new File("child-out.log").exists());
+    assertEquals("Hi there!", ignoreStandardWarnings(process.getStdoutTail()).trim());
+  }
+
+  @Test
+  public void testMergedErrorStreamAndStdinFile() throws Exception {
+    File input = getTempFile("stdin-" + System.currentTimeMillis() + ".txt");
+    Files.write(input.toPath(), "From a file\n".getBytes());
+    LinkedJavaProcess process = new LinkedJavaProcess(LinkedJavaProcessTestMain2.class.getName());
+    process.setDirectory(new File("target"));
+    process.redirectSTDIN(input.getAbsoluteFile());
+    process.setMergeErrorStream(true);
+    process.start();
+
+    StreamCollector outCollector = new StreamCollector(process.getInputStream());
+    StreamCollector errCollector = new StreamCollector(process.getErrorStream());
+    outCollector.start();
+    errCollector.start();
+    process.waitFor();
+    outCollector.join(30000);
+    errCollector.join(30000);
+
+    String out = ignoreStandardWarnings(outCollector.toString());
+    assertTrue(out, out.contains("out: <From a file>"));
+    assertTrue(out, out.contains("err: <From a file>"));
+    assertEquals("", errCollector.toString());
+  }
+
+  @Test
+  public void testChildStdin() throws Exception {
+    LinkedJavaProcess process = new LinkedJavaProcess(LinkedJavaProcessTestMain2.class.getName());
+    process.setDirectory(new File("target"));
+    process.start();
+    StreamCollector outCollector = new StreamCollector(process.getInputStream());
+    StreamCollector errCollector = new StreamCollector(process.getErrorStream());
+    outCollector.start();
+    errCollector.start();
+
+    ChildStdin stdin = process.getStdin();
+    stdin.write("Queued ".getBytes(), 30, TimeUnit.SECONDS);
+    stdin.write("Input!\n".getBytes(), 30, TimeUnit.SECONDS);
+    stdin.close().get(30, TimeUnit.SECONDS);
+    process.waitFor();
+    outCollector.join(30000);
+    errCollector.join(30000);
+    assertEquals("out: <Queued Input!>", ignoreStandardWarnings(outCollector.toString()).trim());
+  }
+
+  @Test
+  public void testChildStdinFailsWhenChildStopsReading() throws Exception {
+    // never reads its stdin
+    LinkedJavaProcess process = new LinkedJavaProcess(LinkedJavaProcessTestMain6.class.getName());
+    process.setDirectory(new File("target"));
+    process.start();
+    try {
+      ChildStdin stdin = process.getStdin();
+      stdin.setWriteTimeout(500, TimeUnit.MILLISECONDS);
+      // far more than a pipe buffer, so the write to the pipe blocks
+      stdin.write(new byte[4 * 1024 * 1024], 30, TimeUnit.SECONDS);
+      long start = System.nanoTime();
+      try {
+        stdin.close().get(30, TimeUnit.SECONDS);
+        fail("the child never read its stdin");
+      } catch (ExecutionException e) {
+        assertTrue(String.valueOf(e.getCause()), e.getCause() instanceof IOException);
+      }
+      assertTrue(TimeUnit.NANOSECONDS.toSeconds(System.nanoTime() - start) < 10);
+      try {
+        stdin.write("more".getBytes(), 30, TimeUnit.SECONDS);
+        fail("stdin has failed");
+      } catch (IOException e) {
+        // expected
+      }
+      assertEquals(0, stdin.queuedBytes());
+    } finally {
+      process.destroy();
+    }
+  }
+
+  @Test
+  public void testTailWithoutConsumer() throws Exception {
+    // about 12KB, less than a pipe holds: the output is only read once the child has exited
+    LinkedJavaProcess process = new LinkedJavaProcess(LinkedJavaProcessTestMain7.class.getName(),
+                                                      Arrays.asList("300"), null);
+    process.setDirectory(new File("target"));
+    process.start();
+
+    // nobody reads the output or waits for the child
+    long deadline = System.currentTimeMillis() + 30000;
+    while (!(process.getStdoutTail().endsWith("last line\n") && process.getStderrTail().contains("failing now"))
+           && System.currentTimeMillis() < deadline) {
+      Thread.sleep(10);
+    }
+    assertTrue(process.getStdoutTail(), process.getStdoutTail().endsWith("last line\n"));
+    assertTrue(process.getStderrTail().contains("failing now"));
+    assertFalse(LinkedJavaProcess.liveProcesses().contains(process));
+
+    // a late reader still gets all of it
+    StreamCollector outCollector = new StreamCollector(process.getInputStream());
+    outCollector.start();
+    assertEquals(3, process.waitFor());
+    outCollector.join(30000);
+    String out = outCollector.toString();
+    assertTrue(out.startsWith("line 0 "));
+    assertTrue(out.endsWith("last line\n"));
+    assertEquals(301, out.split("\n").length);
+  }
+
+  @Test
+  public void testTailFilledByConsumer() throws Exception {
+    LinkedJavaProcess process = new LinkedJavaProcess(LinkedJavaProcessTestMain7.class.getName(),
+                                                      Arrays.asList("2500"), null);
+    process.setDirectory(new File("target"));
+    process.start();
+    StreamCollector outCollector = new StreamCollector(process.getInputStream());
+    outCollector.start();
+    StreamCollector errCollector = new StreamCollector(process.getErrorStream());
+    errCollector.start();
+
+    assertEquals(3, process.waitFor());
+    outCollector.join(30000);
+    errCollector.join(30000);
+    assertEquals(2501, outCollector.toString().split("\n").length);
+    assertTrue(process.getStdoutTail().endsWith("last line\n"));
+    assertTrue(process.getStdoutTail().length() < outCollector.toString().length());
+    assertTrue(process.getStderrTail().contains("failing now"));
+  }
+
+  private static String read(File file) throws IOException {
+    return new String(Files.readAllBytes(file.toPath()));
+  }
+
+  @Test
+  public void testJava9ChildLaunchedWithArgFile() throws Exception {
+    // a Java 9+ java to launch, the one running the test unless given
+    String java = System.getProperty("lcp.test.java9",
+                                     new File(new File(System.getProperty("java.home"), "bin"), "java").getPath());
+    File javaExecutable = new File(java);
+    assumeTrue(javaExecutable + " doesn't take argument files", JavaCommand.supportsArgFiles(javaExecutable));
+
+    StringBuilder padding = new StringBuilder();
+    while (padding.length() < 2 * JavaCommand.DEFAULT_ARG_FILE_THRESHOLD) {
+      padding.append("padding ");
+    }
+    File dir = getTempFile("argfile-" + System.currentTimeMillis());
+    assertTrue(dir.mkdirs());
+    LinkedJavaProcess process = new LinkedJavaProcess(LinkedJavaProcessTestMain1.class.getName(),
+                                                      Collections.<String> emptyList(),
+                                                      Collections.singletonList("-Dlcp.test.padding=" + padding));
+    process.setDirectory(dir);
+    process.setJavaExecutable(javaExecutable);
+    process.start();
+    StreamCollector outCollector = new StreamCollector(process.getInputStream());
+    outCollector.start();
+    assertEquals(0, process.waitFor());
+    outCollector.join(30000);
+    assertEquals("Hi there!", ignoreStandardWarnings(outCollector.toString()).trim());
+
+    // the classpath and the padding went through a file, so the child read it
+    File[] argFiles = dir.listFiles();
+    assertEquals(1, argFiles.length);
+    assertTrue(argFiles[0].getName().startsWith("lcpargs-"));
+    assertTrue(read(argFiles[0]).contains(padding));
+  }
+
   @Test
   public void testExitCode() throws Exception {
     LinkedJavaProcess process = new LinkedJavaProcess(LinkedJavaProcessTestMain3.class.getName());
@@ -110,6 +375,374 @@ public class LinkedJavaProcessTest {
     assertEquals(57, process.exitValue());
   }
 
+  @Test
+  public void testJvmProfileYieldsToLargerInitialHeap() throws Exception {
+    // the profile's max heap is at most 256m, below the overriding initial heap
+    LinkedJavaProcess process = new LinkedJavaProcess(LinkedJavaProcessTestMain3.class.getName(),
+                                                      Collections.<String> emptyList(),
+                                                      Collections.singletonList("-Xms300m"));
+    process.setDirectory(new File("target"));
+    process.setJvmProfile(JvmProfile.SMALL_FAST_START, 1);
+    process.start();
+    assertEquals(57, process.waitFor());
+  }
+
+  @Test
+  public void testCrashArtifactsCollectedAfterExit() throws Exception {
+    CrashArtifacts artifacts = new CrashArtifacts();
+    artifacts.setDirectory(getTempFile("artifacts-" + System.currentTimeMillis()).getAbsoluteFile());
+    LinkedJavaProcess process = new LinkedJavaProcess(LinkedJavaProcessTestMain3.class.getName());
+    process.setDirectory(new File("target"));
+    process.setCrashArtifacts(artifacts);
+    process.start();
+    File artifactDirectory = process.getArtifactDirectory();
+
+    // collected once the child exits, whether or not anybody waits for it
+    File archive = process.artifactCollection().get(30, TimeUnit.SECONDS);
+    assertEquals(new File(artifactDirectory, CrashArtifacts.ARCHIVE_FILE), archive);
+    assertEquals(archive, process.getArtifactArchive());
+    assertTrue(read(archive).length() > 0);
+    assertEquals(57, process.waitFor());
+  }
+
+  @Test
+  public void testDiagnostics() throws Exception {
+    LinkedJavaProcess process = new LinkedJavaProcess(LinkedJavaProcessTestMain6.class.getName());
+    process.setDirectory(new File("target"));
+    process.start();
+    try {
+      ChildHandle child = process.getHeartBeatHandle(30000);
+      assertNotNull(child);
+
+      String properties = child.runDiagnostic(DiagnosticCommands.SYSTEM_PROPERTIES, null, 30000);
+      assertTrue(properties, properties.contains(LinkedJavaProcess.LAUNCH_ID_PROPERTY + "="));
+      String threads = HeartBeatService.runDiagnostic(child.getClientId(), DiagnosticCommands.THREAD_DUMP, null, 30000);
+      assertTrue(threads, threads.contains("\"main\""));
+      try {
+        child.runDiagnostic("NO_SUCH_COMMAND", null, 30000);
+        fail("unknown command");
+      } catch (IOException e) {
+        assertTrue(e.getMessage(), e.getMessage().contains("Unknown command"));
+      }
+    } finally {
+      process.destroy();
+    }
+  }
+
+  @Test
+  public void testFlightRecording() throws Exception {
+    File root = getTempFile("jfr-" + System.currentTimeMillis());
+    FlightRecording recording = new FlightRecording();
+    recording.setDirectory(root);
+    LinkedJavaProcess process = new LinkedJavaProcess(LinkedJavaProcessTestMain1.class.getName());
+    process.setDirectory(new File("target"));
+    process.setFlightRecording(recording);
+    process.start();
+    process.mergeSTDOUT();
+    process.mergeSTDERR();
+
+    assertEquals(0, process.waitFor());
+    File recordingFile = process.getFlightRecordingFile();
+    assertEquals(new File(root, LinkedJavaProcessTestMain1.class.getName() + "-1").getAbsoluteFile(),
+                 recordingFile.getParentFile().getAbsoluteFile());
+    assertTrue(recordingFile + " not dumped on exit", recordingFile.length() > 0);
+  }
+
+  @Test
+  public void testChildHandles() throws Exception {
+    LinkedJavaProcess first = new LinkedJavaProcess(LinkedJavaProcessTestMain6.class.getName());
+    first.setDirectory(new File("target"));
+    first.start();
+    LinkedJavaProcess second = new LinkedJavaProcess(LinkedJavaProcessTestMain6.class.getName());
+    second.setDirectory(new File("target"));
+    second.start();
+    try {
+      final ChildHandle firstChild = first.getHeartBeatHandle(30000);
+      ChildHandle secondChild = second.getHeartBeatHandle(30000);
+      assertNotNull(firstChild);
+      assertNotNull(secondChild);
+      assertEquals(LinkedJavaProcessTestMain6.class.getName(), firstChild.getClientName());
+      assertTrue(firstChild.getPid() > 0);
+      assertTrue(firstChild.getPid() != secondChild.getPid());
+      assertSame(firstChild, HeartBeatService.child(firstChild.getClientId()));
+      assertTrue(firstChild.ping(30000) >= 0);
+
+      assertEquals(1, HeartBeatService.killChildren(new Predicate<ChildHandle>() {
+        public boolean test(ChildHandle child) {
+          return child.getPid() == firstChild.getPid();
+        }
+      }));
+      // KILL makes the child exit with 1
+      assertEquals(1, first.waitFor());
+      assertFalse(firstChild.isConnected());
+      assertTrue(secondChild.ping(30000) >= 0);
+    } finally {
+      second.destroy();
+    }
+  }
+
+  @Test
+  public void testChildIgnoresUnknownMessages() throws Exception {
+    // plays the parent of a child started without LinkedJavaProcess
+    ServerSocket parent = new ServerSocket(0);
+    Process child = startUnlinkedChild(parent.getLocalPort());
+    try {
+      parent.setSoTimeout(30000);
+      Socket socket = parent.accept();
+      socket.setSoTimeout(30000);
+      BufferedReader in = new BufferedReader(new InputStreamReader(socket.getInputStream()));
+      PrintWriter out = new PrintWriter(socket.getOutputStream(), true);
+      assertTrue(in.readLine().startsWith(LinkedJavaProcessTestMain6.class.getName() + ":"));
+
+      out.println("SOME_FUTURE_MESSAGE with arguments");
+      assertPulseAnswered(in, out);
+      assertTrue(child.isAlive());
+
+      out.println(HeartBeatServer.KILL);
+      assertTrue(child.waitFor(30, TimeUnit.SECONDS));
+      assertEquals(1, child.exitValue());
+      socket.close();
+    } finally {
+      child.destroyForcibly();
+      parent.close();
+    }
+  }
+
+  @Test
+  public void testChildTalksToParentWithoutProtocol() throws Exception {
+    // plays a parent with an lcp jar from before the protocol version, which reads one reply per request
+    ServerSocket parent = new ServerSocket(0);
+    Process child = startUnlinkedChild(parent.getLocalPort());
+    try {
+      parent.setSoTimeout(30000);
+      Socket socket = parent.accept();
+      socket.setSoTimeout(30000);
+      BufferedReader in = new BufferedReader(new InputStreamReader(socket.getInputStream()));
+      PrintWriter out = new PrintWriter(socket.getOutputStream(), true);
+      String introduction = in.readLine();
+      assertTrue(introduction, introduction.startsWith(LinkedJavaProcessTestMain6.class.getName() + ":"));
+      assertTrue(introduction, introduction.endsWith(" " + HeartBeatServer.PROTOCOL + " "
+                                                     + HeartBeatServer.PROTOCOL_VERSION));
+
+      // no PID or LAUNCH line before the replies
+      out.println(HeartBeatServer.PULSE);
+      assertEquals(HeartBeatServer.PULSE, in.readLine());
+      out.println(HeartBeatServer.IS_APP_SERVER_ALIVE);
+      assertEquals(HeartBeatServer.NOT_AN_APP_SERVER, in.readLine());
+      out.println(HeartBeatServer.PULSE);
+      assertEquals(HeartBeatServer.PULSE, in.readLine());
+
+      out.println(HeartBeatServer.KILL);
+      assertTrue(child.waitFor(30, TimeUnit.SECONDS));
+      assertEquals(1, child.exitValue());
+      socket.close();
+    } finally {
+      child.destroyForcibly();
+      parent.close();
+    }
+  }
+
+  @Test
+  public void testChildResumesSession() throws Exception {
+    ServerSocket parent = new ServerSocket(0);
+    Process child = startUnlinkedChild(parent.getLocalPort());
+    try {
+      parent.setSoTimeout(30000);
+      Socket socket = parent.accept();
+      BufferedReader in = new BufferedReader(new InputStreamReader(socket.getInputStream()));
+      PrintWriter out = new PrintWriter(socket.getOutputStream(), true);
+      in.readLine();
+      out.println(HeartBeatServer.SESSION + " token-1");
+      assertPulseAnswered(in, out);
+      // a dropped connection, with the parent still listening
+      socket.close();
+
+      socket = parent.accept();
+      socket.setSoTimeout(30000);
+      in = new BufferedReader(new InputStreamReader(socket.getInputStream()));
+      out = new PrintWriter(socket.getOutputStream(), true);
+      assertEquals(HeartBeatServer.RESUME + " token-1", in.readLine());
+      out.println(HeartBeatServer.RESUMED);
+      assertPulseAnswered(in, out);
+
+      // now the parent goes away for good: the child must not wait out the reconnect grace
+      long start = System.currentTimeMillis();
+      parent.close();
+      socket.close();
+      assertTrue(child.waitFor(HeartBeatServer.RECONNECT_GRACE / 2, TimeUnit.MILLISECONDS));
+      System.out.println("Child exited " + (System.currentTimeMillis() - start) + "ms after its parent");
+    } finally {
+      child.destroyForcibly();
+      parent.close();
+    }
+  }
+
+  private static Process startUnlinkedChild(int parentPort) throws IOException {
+    String java = new File(new File(System.getProperty("java.home"), "bin"), "java").getAbsolutePath();
+    return new ProcessBuilder(java, "-cp", System.getProperty("java.class.path"),
+                              LinkedJavaProcessStarter.class.getName(), Integer.toString(parentPort),
+                              LinkedJavaProcessTestMain6.class.getName()).inheritIO().start();
+  }
+
+  private static void assertPulseAnswered(BufferedReader in, PrintWriter out) throws IOException {
+    out.println(HeartBeatServer.PULSE);
+    String line;
+    while ((line = in.readLine()) != null && !HeartBeatServer.PULSE.equals(line)) {
+      // PID and LAUNCH lines
+    }
+    assertEquals(HeartBeatServer.PULSE, line);
+  }
+
+  @Test
+  public void testShardedDomain() throws Exception {
+    ShardedHeartBeatDomain domain = new ShardedHeartBeatDomain(2);
+    LinkedJavaProcess outsider = new LinkedJavaProcess(LinkedJavaProcessTestMain6.class.getName());
+    outsider.setDirectory(new File("target"));
+    outsider.start();
+    try {
+      List<LinkedJavaProcess> processes = new ArrayList<LinkedJavaProcess>();
+      for (int i = 0; i < 2; i++) {
+        LinkedJavaProcess process = new LinkedJavaProcess(LinkedJavaProcessTestMain6.class.getName());
+        process.setDirectory(new File("target"));
+        process.setHeartBeatDomain(domain);
+        process.start();
+        assertNotNull(process.getHeartBeatHandle(30000));
+        processes.add(process);
+      }
+      // round-robin, one child per shard
+      for (HeartBeatServer shard : domain.shards()) {
+        assertEquals(1, shard.children().size());
+      }
+      assertEquals(2, domain.metricsSnapshot().getConnectedClients());
+      ChildHandle outsiderChild = outsider.getHeartBeatHandle(30000);
+      assertNull(domain.child(outsiderChild.getClientId()));
+
+      domain.shutdown();
+      for (LinkedJavaProcess process : processes) {
+        assertEquals(1, process.waitFor());
+      }
+      assertTrue(outsiderChild.ping(30000) >= 0);
+    } finally {
+      domain.shutdown();
+      outsider.destroy();
+    }
+  }
+
+  @Test
+  public void testAppServerChildReportsReady() throws Exception {
+    File sandbox = getTempFile("cargo-" + System.currentTimeMillis()).getAbsoluteFile();
+    assertTrue(sandbox.mkdirs());
+    Files.write(new File(sandbox, "instance.properties").toPath(), "lcp.test.property=set\n".getBytes());
+    HeartBeatServer server = new HeartBeatServer();
+    server.start();
+    // the app server registers a second client of its own, which reports STARTING before it is connected
+    LinkedJavaProcess process = new LinkedJavaProcess(CargoLinkedChildProcess.class.getName(),
+                                                      Arrays.asList(LinkedJavaProcessTestMain8.class.getName(),
+                                                                    Integer.toString(server.listeningPort()),
+                                                                    new File(sandbox, "instance").getPath()), null);
+    process.setDirectory(new File("target"));
+    process.setHeartBeatDomain(server);
+    process.start();
+    try {
+      ChildHandle appServer = null;
+      long deadline = System.currentTimeMillis() + 30000;
+      while (appServer == null && System.currentTimeMillis() < deadline) {
+        for (ChildHandle child : server.children()) {
+          if (child.getClientName().equals(LinkedJavaProcessTestMain8.class.getName())) appServer = child;
+        }
+        Thread.sleep(10);
+      }
+      assertNotNull(appServer);
+      assertTrue(appServer.awaitAppServerReady(30000));
+      assertEquals(AppServerState.READY, appServer.getAppServerState());
+    } finally {
+      process.destroy();
+      server.shutdown();
+    }
+  }
+
+  @Test
+  public void testDefaultDomainMustBeStarted() throws Exception {
+    HeartBeatService.stopHeartBeatServer();
+    try {
+      HeartBeatService.children();
+      fail("not started");
+    } catch (IllegalStateException e) {
+      // expected
+    }
+    HeartBeatService.startHeartBeatService();
+    assertTrue(HeartBeatService.children().isEmpty());
+  }
+
+  @Test
+  public void testSupervisorRestartsFailedChild() throws Exception {
+    LinkedJavaProcess process = new LinkedJavaProcess(LinkedJavaProcessTestMain3.class.getName());
+    process.setDirectory(new File("target"));
+    ProcessSupervisor supervisor = new ProcessSupervisor(process);
+    supervisor.setBackoff(10, 20);
+    supervisor.setMaxRestarts(2);
+    supervisor.start();
+
+    assertTrue(supervisor.awaitTermination(60000));
+    assertEquals(2, supervisor.getRestartCount());
+    assertEquals(57, supervisor.getLastExitCode());
+    assertTrue(supervisor.getTotalDowntimeMillis() >= 30);
+  }
+
+  @Test
+  public void testSupervisorRestartFailingToStart() throws Exception {
+    final LinkedJavaProcess process = new LinkedJavaProcess(LinkedJavaProcessTestMain3.class.getName());
+    process.setDirectory(new File("target"));
+    ProcessSupervisor supervisor = new ProcessSupervisor(process);
+    supervisor.setBackoff(10, 20);
+    supervisor.onStart(new Consumer<LinkedJavaProcess>() {
+      public void accept(LinkedJavaProcess started) {
+        // the first run goes through, its restart can't
+        started.setJavaExecutable(new File("target", "no-such-java"));
+      }
+    });
+    supervisor.start();
+
+    assertTrue(supervisor.awaitTermination(60000));
+    assertFalse(supervisor.isSupervising());
+    assertEquals(0, supervisor.getRestartCount());
+    assertEquals(57, supervisor.getLastExitCode());
+    long downtime = supervisor.getTotalDowntimeMillis();
+    assertTrue(downtime >= 10);
+    Thread.sleep(100);
+    assertEquals(downtime, supervisor.getTotalDowntimeMillis());
+  }
+
+  @Test
+  public void testSupervisorReattachesOutputOnRestart() throws Exception {
+    // about 200KB per run, the child only gets to exit if every run's output is read
+    LinkedJavaProcess process = new LinkedJavaProcess(LinkedJavaProcessTestMain7.class.getName(),
+                                                      Arrays.asList("5000"), null);
+    process.setDirectory(new File("target"));
+    final List<StreamCollector> collectors = new CopyOnWriteArrayList<StreamCollector>();
+    ProcessSupervisor supervisor = new ProcessSupervisor(process);
+    supervisor.setBackoff(10, 20);
+    supervisor.setMaxRestarts(1);
+    supervisor.onStart(new Consumer<LinkedJavaProcess>() {
+      public void accept(LinkedJavaProcess started) {
+        StreamCollector collector = new StreamCollector(started.getInputStream());
+        collector.start();
+        collectors.add(collector);
+      }
+    });
+    supervisor.start();
+
+    assertTrue(supervisor.awaitTermination(60000));
+    assertEquals(1, supervisor.getRestartCount());
+    assertEquals(3, supervisor.getLastExitCode());
+    assertEquals(2, collectors.size());
+    for (StreamCollector collector : collectors) {
+      collector.join(30000);
+      assertTrue(collector.toString().endsWith("last line\n"));
+      assertEquals(5001, collector.toString().split("\n").length);
+    }
+  }
+
   @Test
   public void testSetup() throws Exception {
     LinkedJavaProcess process = new LinkedJavaProcess(LinkedJavaProcessTestMain4.class.getName());
@@ -156,6 +789,46 @@ public class LinkedJavaProcessTest {
     assertEquals(255, process.exitValue());
   }
 
+  @Test
+  public void testReapChildren() throws Exception {
+    // reaps in a parent of its own, it would take every child of this JVM otherwise
+    String out = runMain9(Collections.singletonList("reap"), Collections.<String> emptyList());
+    assertTrue(out, out.contains("forced 0\n"));
+    assertFalse(out, out.contains("exit 0\n"));
+    assertTrue(out, out.contains("exit "));
+    // the exit watcher forgets the child, whoever waits for it
+    assertTrue(out, out.contains("live 0\n"));
+  }
+
+  @Test
+  public void testShutdownHookDisablesOrphanRegistry() throws Exception {
+    if (!new File("/proc/self/stat").exists()) return;
+    File registryDir = getTempFile("registry-" + System.currentTimeMillis()).getAbsoluteFile();
+    String out = runMain9(Collections.<String> emptyList(),
+                          Collections.singletonList("-D" + OrphanRegistry.DIRECTORY_PROPERTY + "=" + registryDir));
+    Matcher child = Pattern.compile("child (\\d+)").matcher(out);
+    assertTrue(out, child.find());
+    File proc = new File("/proc", child.group(1));
+    long deadline = System.currentTimeMillis() + 30000;
+    while (proc.exists() && System.currentTimeMillis() < deadline) {
+      Thread.sleep(100);
+    }
+    assertFalse(proc + " survived its parent", proc.exists());
+    // the parent's registry file went with it
+    assertEquals(0, registryDir.list().length);
+  }
+
+  private String runMain9(List<String> args, List<String> jvmArgs) throws Exception {
+    LinkedJavaProcess process = new LinkedJavaProcess(LinkedJavaProcessTestMain9.class.getName(), args, jvmArgs);
+    process.setDirectory(new File("target"));
+    process.start();
+    StreamCollector stdout = new StreamCollector(process.getInputStream());
+    stdout.start();
+    assertEquals(0, process.waitFor());
+    stdout.join(30000);
+    return stdout.toString();
+  }
+
   @Test
   public void testKillingParentKillsChildren() throws Exception {
     File destFile = getTempFile("tkpkc-file");
@@ -0,0 +1,34 @@
+/*
+ * Copyright Terracotta, Inc.
+ * Copyright Super iPaaS Integration LLC, an IBM Company 2024
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.tc.lcp;
+
+/**
+ * Simple class for {@link LinkedJavaProcessTest} that writes the given number of lines and fails.
+ */
+public class LinkedJavaProcessTestMain7 {
+
+  public static void main(String[] args) {
+    int lines = Integer.parseInt(args[0]);
+    for (int i = 0; i < lines; i++) {
+      System.out.println("line " + i + " of the output nobody reads");
+    }
+    System.out.println("last line");
+    System.err.println("failing now");
+    System.exit(3);
+  }
+
+}
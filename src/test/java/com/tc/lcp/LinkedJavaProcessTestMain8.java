@@ -0,0 +1,34 @@
+/*
+ * Copyright Terracotta, Inc.
+ * Copyright Super iPaaS Integration LLC, an IBM Company 2024
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.tc.lcp;
+
+/**
+ * Simple app server for {@link LinkedJavaProcessTest}, started through {@link CargoLinkedChildProcess}. It gets ready
+ * once the properties written by the parent are set.
+ */
+public class LinkedJavaProcessTestMain8 {
+
+  public static void main(String[] args) throws InterruptedException {
+    if ("set".equals(System.getProperty("lcp.test.property"))) {
+      HeartBeatService.reportAppServerState(AppServerState.READY);
+    } else {
+      HeartBeatService.reportAppServerState(AppServerState.STOPPING);
+    }
+    Thread.sleep(5 * 60 * 1000);
+  }
+
+}
@@ -0,0 +1,47 @@
+/*
+ * Copyright Terracotta, Inc.
+ * Copyright Super iPaaS Integration LLC, an IBM Company 2024
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.tc.lcp;
+
+/**
+ * A parent for {@link LinkedJavaProcessTest} that starts a hung child of its own. With <code>reap</code> it reaps the
+ * child itself and reports how that went, otherwise it exits and leaves the child to the shutdown hook.
+ */
+public class LinkedJavaProcessTestMain9 {
+
+  public static void main(String[] args) throws Exception {
+    LinkedJavaProcess child = new LinkedJavaProcess(LinkedJavaProcessTestMain6.class.getName());
+    child.start();
+    ChildHandle handle = child.getHeartBeatHandle(30000);
+    if (handle == null) {
+      System.out.println("no handle");
+      System.exit(2);
+    }
+    long deadline = System.currentTimeMillis() + 30000;
+    while (handle.getPid() <= 0 && System.currentTimeMillis() < deadline) {
+      Thread.sleep(10);
+    }
+    System.out.println("child " + handle.getPid());
+    if (args.length > 0 && args[0].equals("reap")) {
+      System.out.println("forced " + HeartBeatService.reapChildren(5000));
+      System.out.println("exit " + child.exitValue());
+      System.out.println("live " + LinkedJavaProcess.liveProcesses().size());
+    }
+    System.out.flush();
+    System.exit(0);
+  }
+
+}
@@ -0,0 +1,71 @@
+/*
+ * Copyright Terracotta, Inc.
+ * Copyright Super iPaaS Integration LLC, an IBM Company 2024
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.tc.lcp;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+/**
+ * Unit test for {@link Log}.
+ */
+public class LogTest {
+
+  @Test
+  public void testPlaceholders() {
+    assertEquals("no args", Log.format("no args"));
+    assertEquals("a=1 b=two", Log.format("a={} b={}", 1, "two"));
+    assertEquals("a=1 b={}", Log.format("a={} b={}", 1));
+    assertEquals("a=1", Log.format("a={}", 1, 2));
+    assertEquals("null", Log.format("{}", (Object) null));
+  }
+
+  @Test
+  public void testConsoleThreshold() {
+    LogAdapter adapter = new LogAdapters.ConsoleFactory(LogLevel.INFO).getAdapter("LogTest");
+    assertFalse(adapter.isEnabled(LogLevel.DEBUG));
+    assertTrue(adapter.isEnabled(LogLevel.INFO));
+    assertTrue(adapter.isEnabled(LogLevel.ERROR));
+
+    LogAdapter off = LogAdapters.fromSystemProperty(LogAdapters.NONE).getAdapter("LogTest");
+    assertFalse(off.isEnabled(LogLevel.ERROR));
+  }
+
+  @Test
+  public void testConsoleLevel() {
+    assertEquals(LogLevel.INFO, LogAdapters.consoleLevel(null));
+    assertEquals(LogLevel.DEBUG, LogAdapters.consoleLevel("debug"));
+    assertEquals(LogLevel.WARN, LogAdapters.consoleLevel(" Warn "));
+    // a typo must not take down the class that creates the logger
+    assertEquals(LogLevel.INFO, LogAdapters.consoleLevel("verbose"));
+  }
+
+  @Test
+  public void testFactoryClass() {
+    assertTrue(LogAdapters.fromSystemProperty(LogAdapters.JulFactory.class.getName()) instanceof LogAdapters.JulFactory);
+  }
+
+  @Test
+  public void testBadFactoryFallsBackToConsole() {
+    // read on the first log call of any thread, which a typo must not break
+    assertTrue(LogAdapters.fromSystemProperty("no.such.Factory") instanceof LogAdapters.ConsoleFactory);
+    assertTrue(LogAdapters.fromSystemProperty(String.class.getName()) instanceof LogAdapters.ConsoleFactory);
+    assertTrue(LogAdapters.fromSystemProperty(LogAdapters.SLF4J) instanceof Slf4jLogAdapter.Factory);
+  }
+}
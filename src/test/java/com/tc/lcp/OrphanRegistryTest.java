@@ -0,0 +1,121 @@
+/*
+ * Copyright Terracotta, Inc.
+ * Copyright Super iPaaS Integration LLC, an IBM Company 2024
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.tc.lcp;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+
+/**
+ * Unit test for {@link OrphanRegistry}. Start times come from <code>/proc</code>, so most of it needs Linux.
+ */
+public class OrphanRegistryTest {
+  private static final boolean PROC = new File("/proc/self/stat").exists();
+
+  @Test
+  public void testParseStartTime() {
+    // the command name may hold spaces and parentheses
+    String stat = "4242 (java (main) x) S 1 4242 4242 0 -1 4194560 100 0 0 0 5 3 0 0 20 0 30 0 987654 "
+                  + "4096000 2000 18446744073709551615 1 1 0 0 0 0 0 0 0 0 0 0 17 3 0 0 0 0 0\n";
+    assertEquals(987654, OrphanRegistry.parseStartTime(stat));
+    assertEquals(-1, OrphanRegistry.parseStartTime("4242 (java) S 1 2"));
+    assertEquals(-1, OrphanRegistry.parseStartTime(""));
+    assertEquals(-1, OrphanRegistry.startTime(-1));
+    if (PROC) assertTrue(OrphanRegistry.startTime(HeartBeatClient.currentPid()) > 0);
+  }
+
+  @Test
+  public void testSweepSparesLiveParentsAndStrangers() throws Exception {
+    if (!PROC) return;
+    File dir = Files.createTempDirectory("lcp-registry").toFile();
+    long pid = HeartBeatClient.currentPid();
+    long startTime = OrphanRegistry.startTime(pid);
+    File live = write(new File(dir, "parent-" + pid + "-" + startTime + ".reg"), "");
+    // a dead parent whose "child" is this JVM, which doesn't run the starter and must survive
+    File dead = write(new File(dir, "parent-" + pid + "-" + (startTime + 1) + ".reg"), pid + " " + startTime + "\n");
+    File malformed = write(new File(dir, "parent-x-y.reg"), "");
+    File other = write(new File(dir, "unrelated.txt"), "");
+
+    assertEquals(0, OrphanRegistry.sweep(dir));
+    assertTrue(live.exists());
+    assertFalse(dead.exists());
+    assertFalse(malformed.exists());
+    assertTrue(other.exists());
+  }
+
+  @Test
+  public void testSweepTerminatesOrphans() throws Exception {
+    if (!PROC) return;
+    LinkedJavaProcess process = new LinkedJavaProcess(LinkedJavaProcessTestMain6.class.getName());
+    process.setDirectory(new File("target"));
+    process.start();
+    try {
+      ChildHandle child = process.getHeartBeatHandle(30000);
+      assertNotNull(child);
+      long deadline = System.currentTimeMillis() + 30000;
+      while (child.getPid() <= 0 && System.currentTimeMillis() < deadline) {
+        Thread.sleep(10);
+      }
+      File dir = Files.createTempDirectory("lcp-registry").toFile();
+      // a parent that no longer runs: pid 1 never has this start time
+      File registry = write(new File(dir, "parent-1-" + Long.MAX_VALUE + ".reg"),
+                            child.getPid() + " " + OrphanRegistry.startTime(child.getPid()) + "\n");
+
+      assertEquals(1, OrphanRegistry.sweep(dir));
+      assertTrue(process.awaitExit(30000));
+      assertFalse(registry.exists());
+    } finally {
+      process.destroyForcibly();
+    }
+  }
+
+  @Test
+  public void testDisableForgetsChildren() throws Exception {
+    if (!PROC) return;
+    File dir = Files.createTempDirectory("lcp-registry").toFile();
+    long pid = HeartBeatClient.currentPid();
+    OrphanRegistry.enable(dir);
+    try {
+      OrphanRegistry.childRegistered(pid);
+      File file = new File(dir, "parent-" + pid + "-" + OrphanRegistry.startTime(pid) + ".reg");
+      assertTrue(read(file).startsWith(pid + " "));
+      OrphanRegistry.disable();
+      assertFalse(file.exists());
+
+      OrphanRegistry.enable(dir);
+      assertEquals("", read(file));
+    } finally {
+      OrphanRegistry.disable();
+    }
+  }
+
+  private static File write(File file, String text) throws IOException {
+    Files.write(file.toPath(), text.getBytes());
+    return file;
+  }
+
+  private static String read(File file) throws IOException {
+    return new String(Files.readAllBytes(file.toPath()));
+  }
+}
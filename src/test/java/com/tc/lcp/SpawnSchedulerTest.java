@@ -0,0 +1,160 @@
+/*
+ * Copyright Terracotta, Inc.
+ * Copyright Super iPaaS Integration LLC, an IBM Company 2024
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.tc.lcp;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import org.junit.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * Unit test for {@link SpawnScheduler}.
+ */
+public class SpawnSchedulerTest {
+
+  @Test
+  public void testFailedStartReleasesSlot() throws Exception {
+    SpawnScheduler scheduler = new SpawnScheduler();
+    LinkedJavaProcess process = newChild();
+    process.setJavaExecutable(new File("target", "no-such-java"));
+    try {
+      scheduler.start(process, 0);
+      fail();
+    } catch (IOException e) {
+      // expected
+    }
+    assertEquals(0, scheduler.getBooting());
+    assertEquals(0, scheduler.getLive());
+  }
+
+  @Test
+  public void testChildLimitQueuesStart() throws Exception {
+    final SpawnScheduler scheduler = new SpawnScheduler();
+    scheduler.setMaxLiveChildren(1);
+    scheduler.setMaxLoadPerCore(0);
+    LinkedJavaProcess first = newChild();
+    final LinkedJavaProcess second = newChild();
+    final AtomicReference<Throwable> failure = new AtomicReference<Throwable>();
+    Thread starter = new Thread(new Runnable() {
+      public void run() {
+        try {
+          scheduler.start(second, 0);
+        } catch (Throwable t) {
+          failure.set(t);
+        }
+      }
+    }, "second start");
+    scheduler.start(first, 0);
+    try {
+      starter.start();
+      awaitQueued(scheduler, 1);
+      starter.join(1000);
+      assertTrue("second child started over the limit", starter.isAlive());
+      assertEquals(1, scheduler.getLive());
+
+      first.destroy();
+      starter.join(30000);
+      assertTrue(!starter.isAlive());
+      assertEquals(null, failure.get());
+      assertEquals(0, scheduler.getQueued());
+      assertEquals(1, scheduler.getLive());
+    } finally {
+      destroyQuietly(first);
+      destroyQuietly(second);
+    }
+    awaitLive(scheduler, 0);
+  }
+
+  @Test
+  public void testSlotsReleasedWithoutWaitingThreads() throws Exception {
+    SpawnScheduler scheduler = new SpawnScheduler();
+    LinkedJavaProcess process = newChild();
+    scheduler.start(process, 0);
+    try {
+      for (Thread thread : Thread.getAllStackTraces().keySet()) {
+        assertFalse(thread.getName(), thread.getName().startsWith("SpawnScheduler exit"));
+      }
+      awaitBooting(scheduler, 0);
+      assertEquals(1, scheduler.getLive());
+    } finally {
+      process.destroy();
+    }
+    awaitLive(scheduler, 0);
+    // nobody called waitFor(), the exit watcher forgets the child all the same
+    assertFalse(LinkedJavaProcess.liveProcesses().contains(process));
+  }
+
+  @Test
+  public void testBootTimeoutReleasesBootSlot() throws Exception {
+    SpawnScheduler scheduler = new SpawnScheduler();
+    scheduler.setBootTimeout(0);
+    LinkedJavaProcess process = newChild();
+    scheduler.start(process, 0);
+    try {
+      awaitBooting(scheduler, 0);
+      assertEquals(1, scheduler.getLive());
+    } finally {
+      process.destroy();
+    }
+    awaitLive(scheduler, 0);
+    assertEquals(0, scheduler.getBooting());
+  }
+
+  private static LinkedJavaProcess newChild() {
+    LinkedJavaProcess process = new LinkedJavaProcess(LinkedJavaProcessTestMain6.class.getName());
+    process.setDirectory(new File("target"));
+    return process;
+  }
+
+  private static void destroyQuietly(LinkedJavaProcess process) {
+    try {
+      process.destroy();
+    } catch (IllegalStateException e) {
+      // already gone, or never started
+    }
+  }
+
+  private static void awaitQueued(SpawnScheduler scheduler, int queued) throws InterruptedException {
+    long deadline = System.currentTimeMillis() + 30000;
+    while (scheduler.getQueued() != queued) {
+      if (System.currentTimeMillis() > deadline) fail(scheduler.toString());
+      Thread.sleep(10);
+    }
+  }
+
+  private static void awaitBooting(SpawnScheduler scheduler, int booting) throws InterruptedException {
+    long deadline = System.currentTimeMillis() + 30000;
+    while (scheduler.getBooting() != booting) {
+      if (System.currentTimeMillis() > deadline) fail(scheduler.toString());
+      Thread.sleep(10);
+    }
+  }
+
+  private static void awaitLive(SpawnScheduler scheduler, int live) throws InterruptedException {
+    long deadline = System.currentTimeMillis() + 30000;
+    while (scheduler.getLive() != live) {
+      if (System.currentTimeMillis() > deadline) fail(scheduler.toString());
+      Thread.sleep(10);
+    }
+  }
+}
@@ -0,0 +1,58 @@
+/*
+ * Copyright Terracotta, Inc.
+ * Copyright Super iPaaS Integration LLC, an IBM Company 2024
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.tc.lcp;
+
+import java.io.File;
+import java.util.Arrays;
+import java.util.concurrent.TimeUnit;
+import java.util.regex.Pattern;
+
+/**
+ * Measures how long a {@link LinkedJavaProcess} takes from {@link LinkedJavaProcess#start()} until the child's main
+ * method runs, i.e. JVM startup plus everything {@link LinkedJavaProcessStarter} does first:
+ *
+ * <pre>
+ * java -cp ... com.tc.lcp.TimeToMainBenchmark 20
+ * </pre>
+ *
+ * The first run is a warm-up for the file system cache and is not counted.
+ */
+public class TimeToMainBenchmark {
+  private static final String ENTERED = "ENTERED_MAIN ";
+
+  public static void main(String[] args) throws Exception {
+    if (args.length > 0 && args[0].equals("child")) {
+      System.out.println(ENTERED + System.currentTimeMillis());
+      return;
+    }
+    int runs = args.length > 0 ? Integer.parseInt(args[0]) : 20;
+    long[] millis = new long[runs];
+    for (int i = -1; i < runs; i++) {
+      LinkedJavaProcess process = new LinkedJavaProcess(TimeToMainBenchmark.class.getName(), Arrays.asList("child"));
+      process.setDirectory(new File(System.getProperty("java.io.tmpdir")));
+      long start = System.currentTimeMillis();
+      process.start();
+      String line = process.awaitLine(Pattern.compile("^" + ENTERED), TimeUnit.MINUTES.toMillis(1));
+      long elapsed = Long.parseLong(line.substring(ENTERED.length()).trim()) - start;
+      process.waitFor();
+      if (i >= 0) millis[i] = elapsed;
+    }
+    Arrays.sort(millis);
+    System.out.println("time to main over " + runs + " runs: min " + millis[0] + "ms, median " + millis[runs / 2]
+                       + "ms, max " + millis[runs - 1] + "ms");
+  }
+}